@@ -0,0 +1,37 @@
+package in.pratanumandal.unique4j.benchmarks;
+
+import in.pratanumandal.unique4j.Unique4jConfig;
+import in.pratanumandal.unique4j.Unique4jLock;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class BenchmarkLocks {
+
+    private static final AtomicInteger APP_ID_COUNT = new AtomicInteger();
+
+    private BenchmarkLocks() {
+    }
+
+    static Unique4jConfig newConfig(Transport transport) {
+        // Use a different appId for each trial, so that leftovers of the previous one can't interfere
+        return transport.configure(Unique4jConfig
+                .createDefault("in.pratanumandal.unique4j-benchmarks-" + ProcessHandle.current().pid() + "-" + APP_ID_COUNT.getAndIncrement()));
+    }
+
+    static void unlockIfHeld(Unique4jLock lock) throws IOException {
+        if (lock != null && lock.isHeldByCurrentAppInstance())
+            lock.unlock();
+    }
+
+    static void shutdown(Unique4jConfig config) throws InterruptedException {
+        // locks using the default executor shut it down themselves on unlock
+        if (config == null || config.executorService() == null)
+            return;
+
+        config.executorService().shutdownNow();
+        if (!config.executorService().awaitTermination(10, TimeUnit.SECONDS))
+            throw new IllegalStateException("Executor of " + config.appId() + " did not terminate");
+    }
+}
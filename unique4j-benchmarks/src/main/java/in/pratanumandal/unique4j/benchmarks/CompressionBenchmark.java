@@ -0,0 +1,110 @@
+package in.pratanumandal.unique4j.benchmarks;
+
+import in.pratanumandal.unique4j.FramedIpcClient;
+import in.pratanumandal.unique4j.Unique4j;
+import in.pratanumandal.unique4j.Unique4jConfig;
+import in.pratanumandal.unique4j.Unique4jLock;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the same round-trip as {@link MessageRoundTripBenchmark}, with and without
+ * {@link Unique4jConfig#compressionEnabled(boolean) compression}, over a stream and a channel based transport,
+ * for payloads which compress well (a list of file paths) and payloads which don't (random bytes),
+ * to show from which size on compression pays off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    public enum Payload {
+        FILE_LIST {
+            @Override
+            byte[] create(int size) {
+                final StringBuilder sb = new StringBuilder(size);
+                for (int i = 0; sb.length() < size; i++)
+                    sb.append("/home/user/Documents/project/src/main/java/in/pratanumandal/File").append(i).append(".java\n");
+                return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+            }
+        },
+        RANDOM {
+            @Override
+            byte[] create(int size) {
+                final byte[] payload = new byte[size];
+                ThreadLocalRandom.current().nextBytes(payload);
+                return payload;
+            }
+        };
+
+        abstract byte[] create(int size);
+    }
+
+    @Param({ "EPHEMERAL_PORT", "UNIX_SOCKET_CHANNEL", "UNIX_SOCKET_CHANNEL_NON_BLOCKING" })
+    public Transport transport;
+
+    @Param({ "false", "true" })
+    public boolean compression;
+
+    @Param({ "FILE_LIST", "RANDOM" })
+    public Payload payloadKind;
+
+    @Param({ "1024", "65536", "1048576", "8388608" })
+    public int payloadSize;
+
+    private Unique4jConfig config;
+    private Unique4jLock firstInstanceLock;
+    private Unique4jLock otherInstanceLock;
+
+    private byte[] payload;
+    private byte[] received;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        payload = payloadKind.create(payloadSize);
+
+        config = BenchmarkLocks.newConfig(transport).compressionEnabled(compression);
+        firstInstanceLock = Unique4j.withConfig(config).newLock(
+                otherInstanceClient -> {
+                    final FramedIpcClient client = new FramedIpcClient(otherInstanceClient, payloadSize);
+                    client.send(client.receive());
+                },
+                firstInstanceClient -> {});
+        if (!firstInstanceLock.tryLock())
+            throw new IllegalStateException("Failed to acquire the lock of the first instance");
+
+        otherInstanceLock = Unique4j.withConfig(config).newLock(
+                otherInstanceClient -> {},
+                firstInstanceClient -> {
+                    final FramedIpcClient client = new FramedIpcClient(firstInstanceClient, payloadSize);
+                    client.send(payload);
+                    // a non-blocking first instance only gets the message once the output is shut down
+                    client.shutdownOutput();
+                    received = client.receive();
+                });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        if (!Arrays.equals(payload, received))
+            throw new IllegalStateException("Echoed message does not match the sent one");
+
+        BenchmarkLocks.unlockIfHeld(firstInstanceLock);
+        BenchmarkLocks.shutdown(config);
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws IOException {
+        if (otherInstanceLock.tryLock())
+            throw new IllegalStateException("Expected to find a first instance");
+        return received;
+    }
+}
@@ -0,0 +1,82 @@
+package in.pratanumandal.unique4j.benchmarks;
+
+import in.pratanumandal.unique4j.FramedIpcClient;
+import in.pratanumandal.unique4j.Unique4j;
+import in.pratanumandal.unique4j.Unique4jConfig;
+import in.pratanumandal.unique4j.Unique4jLock;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a message round-trip through a {@link FramedIpcClient}: the other instance
+ * sends a payload, which the first instance receives and echoes back.
+ *
+ * Each operation includes connecting and running the handshake, as that's what every other instance pays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageRoundTripBenchmark {
+
+    @Param({ "DYNAMIC_PORT", "EPHEMERAL_PORT", "STATIC_PORT", "JUNIXSOCKET", "UNIX_SOCKET_CHANNEL", "UNIX_SOCKET_CHANNEL_NON_BLOCKING", "SHARED_MEMORY" })
+    public Transport transport;
+
+    @Param({ "16", "65536", "1048576" })
+    public int payloadSize;
+
+    private Unique4jConfig config;
+    private Unique4jLock firstInstanceLock;
+    private Unique4jLock otherInstanceLock;
+
+    private byte[] payload;
+    private byte[] received;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        payload = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+
+        config = BenchmarkLocks.newConfig(transport);
+        firstInstanceLock = Unique4j.withConfig(config).newLock(
+                otherInstanceClient -> {
+                    final FramedIpcClient client = new FramedIpcClient(otherInstanceClient, payloadSize);
+                    client.send(client.receive());
+                },
+                firstInstanceClient -> {});
+        if (!firstInstanceLock.tryLock())
+            throw new IllegalStateException("Failed to acquire the lock of the first instance");
+
+        otherInstanceLock = Unique4j.withConfig(config).newLock(
+                otherInstanceClient -> {},
+                firstInstanceClient -> {
+                    final FramedIpcClient client = new FramedIpcClient(firstInstanceClient, payloadSize);
+                    client.send(payload);
+                    // a non-blocking first instance only gets the message once the output is shut down
+                    client.shutdownOutput();
+                    received = client.receive();
+                });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        if (!Arrays.equals(payload, received))
+            throw new IllegalStateException("Echoed message does not match the sent one");
+
+        BenchmarkLocks.unlockIfHeld(firstInstanceLock);
+        BenchmarkLocks.shutdown(config);
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws IOException {
+        if (otherInstanceLock.tryLock())
+            throw new IllegalStateException("Expected to find a first instance");
+        return received;
+    }
+}
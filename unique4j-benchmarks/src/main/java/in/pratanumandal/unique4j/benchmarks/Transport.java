@@ -0,0 +1,85 @@
+package in.pratanumandal.unique4j.benchmarks;
+
+import in.pratanumandal.unique4j.DynamicPortSocketIpcFactory;
+import in.pratanumandal.unique4j.EphemeralPortSocketIpcFactory;
+import in.pratanumandal.unique4j.IpcFactory;
+import in.pratanumandal.unique4j.StaticPortSocketIpcFactory;
+import in.pratanumandal.unique4j.Unique4jConfig;
+import in.pratanumandal.unique4j.junixsocket.AFUNIXSocketIpcFactory;
+import in.pratanumandal.unique4j.sharedmemory.SharedMemoryIpcFactory;
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+/** IpcFactory implementations the benchmarks are parameterized over, referenced by name in the {@code @Param}s */
+public enum Transport {
+    DYNAMIC_PORT {
+        @Override
+        IpcFactory createIpcFactory() {
+            return new DynamicPortSocketIpcFactory(InetAddress.getLoopbackAddress(), 3000);
+        }
+    },
+    EPHEMERAL_PORT {
+        @Override
+        IpcFactory createIpcFactory() {
+            return new EphemeralPortSocketIpcFactory(InetAddress.getLoopbackAddress());
+        }
+    },
+    STATIC_PORT {
+        @Override
+        IpcFactory createIpcFactory() {
+            return new StaticPortSocketIpcFactory(InetAddress.getLoopbackAddress(), findFreePort());
+        }
+    },
+    JUNIXSOCKET {
+        @Override
+        IpcFactory createIpcFactory() {
+            return new AFUNIXSocketIpcFactory();
+        }
+    },
+    UNIX_SOCKET_CHANNEL {
+        @Override
+        IpcFactory createIpcFactory() {
+            return new UnixSocketChannelIpcFactory();
+        }
+    },
+    SHARED_MEMORY {
+        @Override
+        IpcFactory createIpcFactory() {
+            return new SharedMemoryIpcFactory();
+        }
+    },
+    UNIX_SOCKET_CHANNEL_NON_BLOCKING {
+        @Override
+        IpcFactory createIpcFactory() {
+            return new UnixSocketChannelIpcFactory();
+        }
+
+        @Override
+        Unique4jConfig configure(Unique4jConfig config) {
+            return super.configure(config).nonBlockingServer(true);
+        }
+    };
+
+    abstract IpcFactory createIpcFactory();
+
+    Unique4jConfig configure(Unique4jConfig config) {
+        return config.ipcFactory(createIpcFactory());
+    }
+
+    private static int findFreePort() {
+        // without SO_REUSEADDR, so that it can't pick the local port of an established connection,
+        // on which listen() would then fail
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.setReuseAddress(false);
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            return socket.getLocalPort();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to find a free port", ex);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package in.pratanumandal.unique4j.benchmarks;
+
+import in.pratanumandal.unique4j.Unique4j;
+import in.pratanumandal.unique4j.Unique4jConfig;
+import in.pratanumandal.unique4j.Unique4jLock;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Unique4jLock#tryLock()} latency.
+ *
+ * <ul>
+ *     <li>{@link #firstInstance(FirstInstanceState)}: the lock is free, so this takes the file lock, binds the server
+ *     and starts the accept loop (plus the matching {@link Unique4jLock#unlock()})</li>
+ *     <li>{@link #otherInstance(OtherInstanceState)}: the lock is held by a first instance running in the same JVM,
+ *     so this connects to it and runs the handshake</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TryLockBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class FirstInstanceState {
+
+        @Param({ "DYNAMIC_PORT", "EPHEMERAL_PORT", "STATIC_PORT", "JUNIXSOCKET", "UNIX_SOCKET_CHANNEL", "UNIX_SOCKET_CHANNEL_NON_BLOCKING", "SHARED_MEMORY" })
+        public Transport transport;
+
+        private Unique4jConfig config;
+        private Unique4jLock lock;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            config = BenchmarkLocks.newConfig(transport);
+            lock = Unique4j.withConfig(config).newLock(
+                    otherInstanceClient -> {},
+                    firstInstanceClient -> {});
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException, InterruptedException {
+            BenchmarkLocks.unlockIfHeld(lock);
+            BenchmarkLocks.shutdown(config);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class OtherInstanceState {
+
+        @Param({ "DYNAMIC_PORT", "EPHEMERAL_PORT", "STATIC_PORT", "JUNIXSOCKET", "UNIX_SOCKET_CHANNEL", "UNIX_SOCKET_CHANNEL_NON_BLOCKING", "SHARED_MEMORY" })
+        public Transport transport;
+
+        private Unique4jConfig config;
+        private Unique4jLock firstInstanceLock;
+        private Unique4jLock lock;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            config = BenchmarkLocks.newConfig(transport);
+            firstInstanceLock = Unique4j.withConfig(config).newLock(
+                    otherInstanceClient -> {},
+                    firstInstanceClient -> {});
+            if (!firstInstanceLock.tryLock())
+                throw new IllegalStateException("Failed to acquire the lock of the first instance");
+
+            lock = Unique4j.withConfig(config).newLock(
+                    otherInstanceClient -> {},
+                    firstInstanceClient -> {});
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException, InterruptedException {
+            BenchmarkLocks.unlockIfHeld(firstInstanceLock);
+            BenchmarkLocks.shutdown(config);
+        }
+    }
+
+    @Benchmark
+    public boolean firstInstance(FirstInstanceState state) throws IOException {
+        final boolean locked = state.lock.tryLock();
+        if (!locked)
+            throw new IllegalStateException("Expected to be the first instance");
+        state.lock.unlock();
+        return locked;
+    }
+
+    @Benchmark
+    public boolean otherInstance(OtherInstanceState state) throws IOException {
+        final boolean locked = state.lock.tryLock();
+        if (locked)
+            throw new IllegalStateException("Expected to find a first instance");
+        return locked;
+    }
+}
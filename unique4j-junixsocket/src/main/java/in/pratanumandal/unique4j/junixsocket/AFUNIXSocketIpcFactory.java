@@ -1,22 +1,51 @@
 package in.pratanumandal.unique4j.junixsocket;
 
+import in.pratanumandal.unique4j.IpcClient;
 import in.pratanumandal.unique4j.IpcServer;
 import in.pratanumandal.unique4j.SocketIpcFactory;
 import org.newsclub.net.unix.AFUNIXServerSocket;
 import org.newsclub.net.unix.AFUNIXSocket;
 import org.newsclub.net.unix.AFUNIXSocketAddress;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.file.Files;
 
+/**
+ * Communicates through a Unix domain socket in the lock folder, using junixsocket.
+ *
+ * Its clients can pass open file descriptors to the other side, see {@link IpcClient#sendFileDescriptors(FileDescriptor...)}.
+ */
 public class AFUNIXSocketIpcFactory extends SocketIpcFactory {
 
+    @Override
+    public IpcClient createIpcClient(File parentDirectory, String appId) throws IOException {
+        return new AFUNIXSocketIpcClient((AFUNIXSocket) createClientSocket(parentDirectory, appId));
+    }
+
+    @Override
+    public IpcClient createIpcClient(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
+        return new AFUNIXSocketIpcClient((AFUNIXSocket) createClientSocket(parentDirectory, appId, connectTimeoutMillis));
+    }
+
     @Override
     public IpcServer createIpcServer(File parentDirectory, String appId) throws IOException {
-        return new SocketIpcServer(createServerSocket(parentDirectory, appId)) {
+        return createIpcServer(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public IpcServer createIpcServer(File parentDirectory, String appId, int backlog) throws IOException {
+        return new SocketIpcServer(createServerSocket(parentDirectory, appId, backlog)) {
+            @Override
+            public IpcClient accept() throws IOException {
+                return new AFUNIXSocketIpcClient((AFUNIXSocket) socket.accept());
+            }
+
             @Override
             public void close() throws IOException {
                 final File file = isClosed() ?
@@ -32,17 +61,75 @@ public class AFUNIXSocketIpcFactory extends SocketIpcFactory {
 
     @Override
     protected ServerSocket createServerSocket(File parentDirectory, String appId) throws IOException {
+        return createServerSocket(parentDirectory, appId, 0);
+    }
+
+    @Override
+    protected ServerSocket createServerSocket(File parentDirectory, String appId, int backlog) throws IOException {
         File socketFile = new File(parentDirectory, "app.socket");
         AFUNIXServerSocket socket = AFUNIXServerSocket.newInstance();
-        socket.bind(AFUNIXSocketAddress.of(socketFile));
+        socket.bind(AFUNIXSocketAddress.of(socketFile), backlog);
         return socket;
     }
 
     @Override
     protected Socket createClientSocket(File parentDirectory, String appId) throws IOException {
+        return createClientSocket(parentDirectory, appId, 0);
+    }
+
+    /** junixsocket 2.4 ignores the timeout, so connecting to a full backlog still blocks until the first instance accepts */
+    @Override
+    protected Socket createClientSocket(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
         File socketFile = new File(parentDirectory, "app.socket");
-        AFUNIXSocket socket = AFUNIXSocket.newInstance();
-        socket.connect(AFUNIXSocketAddress.of(socketFile));
-        return socket;
+        return connect(AFUNIXSocket.newInstance(), AFUNIXSocketAddress.of(socketFile), connectTimeoutMillis);
+    }
+
+    protected static class AFUNIXSocketIpcClient extends SocketIpcClient {
+
+        /** sent along with the file descriptors, as there has to be some data to attach them to */
+        private static final int FILE_DESCRIPTORS_MARKER = 0x46;
+        /** room for the ancillary data of up to 64 file descriptors at once */
+        private static final int ANCILLARY_RECEIVE_BUFFER_SIZE = 512;
+
+        private final AFUNIXSocket socket;
+
+        public AFUNIXSocketIpcClient(AFUNIXSocket socket) {
+            super(socket);
+            this.socket = socket;
+        }
+
+        @Override
+        public synchronized void sendFileDescriptors(FileDescriptor... fileDescriptors) throws IOException {
+            if (fileDescriptors.length == 0)
+                throw new IllegalArgumentException("No file descriptors to send");
+
+            socket.setOutboundFileDescriptors(fileDescriptors);
+            try {
+                final OutputStream os = socket.getOutputStream();
+                os.write(FILE_DESCRIPTORS_MARKER);
+                os.flush();
+            } finally {
+                // only the write they were sent along with
+                socket.setOutboundFileDescriptors((FileDescriptor[]) null);
+            }
+        }
+
+        @Override
+        public FileDescriptor[] receiveFileDescriptors() throws IOException {
+            socket.ensureAncillaryReceiveBufferSize(ANCILLARY_RECEIVE_BUFFER_SIZE);
+            final int marker = socket.getInputStream().read();
+            if (marker < 0)
+                throw new EOFException("Other side closed the connection");
+
+            final FileDescriptor[] fileDescriptors = socket.getReceivedFileDescriptors();
+            if (marker != FILE_DESCRIPTORS_MARKER || fileDescriptors == null || fileDescriptors.length == 0)
+                throw new IOException("Expected file descriptors, but received a byte of data (" + marker + ")");
+            return fileDescriptors;
+        }
+
+        @Override
+        public String toString() {
+            return "AFUNIXSocketIpcClient{" + socket.getRemoteSocketAddress() + '}';
+        }
     }
 }
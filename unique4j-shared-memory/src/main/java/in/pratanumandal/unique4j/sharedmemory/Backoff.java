@@ -0,0 +1,100 @@
+package in.pratanumandal.unique4j.sharedmemory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for the other process to make progress on a shared ring buffer.
+ *
+ * This spins first, which keeps the data path free of syscalls while the other side is active,
+ * then blocks in a {@link Waiter}, in practice a {@link Doorbell} the other side rings once it made progress,
+ * so that an idle connection doesn't burn a core. Without a waiter, ex. while connecting,
+ * it parks for increasingly long periods instead.
+ * While blocked, it also periodically checks that the other side is still there.
+ */
+final class Backoff {
+
+    private static final int SPINS = 1000;
+    private static final int YIELDS = 100;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final long maxParkNanos;
+    private final Check check;
+    private final Waiter waiter;
+
+    private int iterations;
+    private long parkNanos;
+    private long lastCheckNanos;
+
+    Backoff(long maxParkNanos, Check check) {
+        this(maxParkNanos, check, null);
+    }
+
+    /**
+     * @param maxParkNanos max time to park at once, or to block in the waiter
+     * @param waiter what to block in once done spinning, null to just park
+     */
+    Backoff(long maxParkNanos, Check check, Waiter waiter) {
+        this.maxParkNanos = maxParkNanos;
+        this.check = check;
+        this.waiter = waiter;
+    }
+
+    /** Called after some progress was made, so the next wait starts spinning again */
+    void reset() {
+        iterations = 0;
+    }
+
+    /** Waits a little before the caller checks the ring buffer again */
+    void await() throws IOException {
+        if (iterations == 0) {
+            parkNanos = MIN_PARK_NANOS;
+            lastCheckNanos = System.nanoTime();
+            check.check();
+        }
+
+        final int iteration = iterations++;
+        if (iteration < SPINS) {
+            Thread.onSpinWait();
+            return;
+        }
+        if (iteration < SPINS + YIELDS) {
+            Thread.yield();
+            return;
+        }
+
+        if (waiter != null) {
+            waiter.await(maxParkNanos);
+        } else {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+        }
+        if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the other side of the shared memory");
+        }
+
+        final long now = System.nanoTime();
+        if (now - lastCheckNanos >= CHECK_INTERVAL_NANOS) {
+            lastCheckNanos = now;
+            check.check();
+        }
+    }
+
+    /** Throws if waiting any longer is pointless, ex. because the other side is gone */
+    @FunctionalInterface
+    interface Check {
+
+        void check() throws IOException;
+    }
+
+    /** Blocks until the other side makes progress, or at most for the given time */
+    @FunctionalInterface
+    interface Waiter {
+
+        void await(long timeoutNanos) throws IOException;
+    }
+}
@@ -0,0 +1,90 @@
+package in.pratanumandal.unique4j.sharedmemory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loopback datagram socket a thread blocks on while waiting for the other process,
+ * which sends it a byte after making progress, so that idle waits don't need to poll.
+ *
+ * The waiting side publishes the port in the shared memory only for as long as it's blocked,
+ * so the other side only pays for the syscall when someone is actually waiting.
+ * If the socket can't be opened, waits fall back to parking for short periods.
+ */
+final class Doorbell implements Closeable {
+
+    private static final long FALLBACK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static DatagramSocket sender;
+
+    private final DatagramSocket socket;
+    private final DatagramPacket received = new DatagramPacket(new byte[1], 1);
+
+    private Doorbell(DatagramSocket socket) {
+        this.socket = socket;
+    }
+
+    static Doorbell open() {
+        try {
+            return new Doorbell(new DatagramSocket(0, InetAddress.getLoopbackAddress()));
+        } catch (IOException ex) {
+            return new Doorbell(null);
+        }
+    }
+
+    /** @return port to publish for the other side to ring, 0 if it can't */
+    long port() {
+        return socket == null ? 0 : socket.getLocalPort();
+    }
+
+    /** Blocks until rung, the timeout expires or this gets closed */
+    void await(long timeoutNanos) throws IOException {
+        if (socket == null) {
+            LockSupport.parkNanos(Math.min(timeoutNanos, FALLBACK_PARK_NANOS));
+            return;
+        }
+
+        try {
+            // a 0 timeout would mean forever
+            socket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+            socket.receive(received);
+        } catch (SocketTimeoutException ex) {
+            // nothing happened in the meantime, the caller checks whether the other side is still there
+        } catch (SocketException ex) {
+            // closed to wake up the waiting thread, the caller notices why
+            if (!socket.isClosed())
+                throw ex;
+        }
+    }
+
+    /** Wakes up the thread waiting on the doorbell with the given port, if any */
+    static void ring(long port) {
+        if (port == 0)
+            return;
+
+        try {
+            sender().send(new DatagramPacket(new byte[1], 1, InetAddress.getLoopbackAddress(), (int) port));
+        } catch (IOException ex) {
+            // the waiting side still wakes up once its wait times out
+        }
+    }
+
+    private static synchronized DatagramSocket sender() throws SocketException {
+        if (sender == null)
+            sender = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        return sender;
+    }
+
+    @Override
+    public void close() {
+        if (socket != null)
+            socket.close();
+    }
+}
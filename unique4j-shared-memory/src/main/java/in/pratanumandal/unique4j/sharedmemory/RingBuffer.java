@@ -0,0 +1,169 @@
+package in.pratanumandal.unique4j.sharedmemory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Single-producer single-consumer byte ring buffer in a region of a memory-mapped file,
+ * shared by two processes which each create their own instance over their own mapping.
+ *
+ * The positions are ever-increasing longs, published with release/acquire semantics,
+ * so that the data written before advancing them is visible to the other side.
+ * Nothing blocks here except the {@code await} methods: the streams wait using a {@link Backoff},
+ * which ends up blocking on a {@link Doorbell} whose port is published in the header while waiting.
+ * Positions are then published with volatile semantics, so that either the waiting side sees the progress
+ * when it checks again after publishing its port, or the other side sees the port and rings it.
+ */
+final class RingBuffer {
+
+    static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // head and tail on different cache lines, as they are written by different processes
+    private static final int HEAD_OFFSET = 0;
+    private static final int TAIL_OFFSET = 64;
+    private static final int WRITER_CLOSED_OFFSET = 128;
+    private static final int READER_CLOSED_OFFSET = 136;
+    private static final int READER_DOORBELL_OFFSET = 144;
+    private static final int WRITER_DOORBELL_OFFSET = 152;
+    static final int HEADER_SIZE = 192;
+
+    private final ByteBuffer buffer;
+    private final int headOffset;
+    private final int tailOffset;
+    private final int writerClosedOffset;
+    private final int readerClosedOffset;
+    private final int readerDoorbellOffset;
+    private final int writerDoorbellOffset;
+    private final int dataOffset;
+    private final int capacity;
+
+    /** view used to copy the data, as absolute bulk get/put are only there since Java 13 */
+    private final ByteBuffer data;
+
+    /**
+     * @param buffer whole mapped file
+     * @param offset offset of the ring header in the file, must be 8 bytes aligned
+     * @param capacity size of the data, which follows the header
+     */
+    RingBuffer(ByteBuffer buffer, int offset, int capacity) {
+        this.buffer = buffer;
+        this.headOffset = offset + HEAD_OFFSET;
+        this.tailOffset = offset + TAIL_OFFSET;
+        this.writerClosedOffset = offset + WRITER_CLOSED_OFFSET;
+        this.readerClosedOffset = offset + READER_CLOSED_OFFSET;
+        this.readerDoorbellOffset = offset + READER_DOORBELL_OFFSET;
+        this.writerDoorbellOffset = offset + WRITER_DOORBELL_OFFSET;
+        this.dataOffset = offset + HEADER_SIZE;
+        this.capacity = capacity;
+        this.data = buffer.duplicate();
+    }
+
+    static int size(int capacity) {
+        return HEADER_SIZE + capacity;
+    }
+
+    /**
+     * Copies as many bytes as currently fit
+     *
+     * @return number of bytes written, 0 if the ring is full
+     * @throws IOException if the reader is gone
+     */
+    int write(byte[] b, int off, int len) throws IOException {
+        if ((long) LONG.getAcquire(buffer, readerClosedOffset) != 0)
+            throw new IOException("Broken pipe, the other side closed the connection");
+
+        final long tail = (long) LONG.getOpaque(buffer, tailOffset);
+        final long head = (long) LONG.getAcquire(buffer, headOffset);
+        final int n = (int) Math.min(len, capacity - (tail - head));
+        if (n <= 0)
+            return 0;
+
+        final int index = (int) (tail % capacity);
+        final int first = Math.min(n, capacity - index);
+        data.position(dataOffset + index);
+        data.put(b, off, first);
+        if (first < n) {
+            data.position(dataOffset);
+            data.put(b, off + first, n - first);
+        }
+
+        LONG.setVolatile(buffer, tailOffset, tail + n);
+        Doorbell.ring((long) LONG.getVolatile(buffer, readerDoorbellOffset));
+        return n;
+    }
+
+    /**
+     * Copies as many bytes as currently available
+     *
+     * @return number of bytes read, 0 if the ring is empty or -1 if it's empty and the writer is done
+     */
+    int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+
+        final long head = (long) LONG.getOpaque(buffer, headOffset);
+        final long tail = (long) LONG.getAcquire(buffer, tailOffset);
+        final int n = (int) Math.min(len, tail - head);
+        if (n <= 0) {
+            if ((long) LONG.getAcquire(buffer, writerClosedOffset) == 0)
+                return 0;
+            // the writer might have written something right before closing
+            return (long) LONG.getAcquire(buffer, tailOffset) == head ? -1 : 0;
+        }
+
+        final int index = (int) (head % capacity);
+        final int first = Math.min(n, capacity - index);
+        data.position(dataOffset + index);
+        data.get(b, off, first);
+        if (first < n) {
+            data.position(dataOffset);
+            data.get(b, off + first, n - first);
+        }
+
+        LONG.setVolatile(buffer, headOffset, head + n);
+        Doorbell.ring((long) LONG.getVolatile(buffer, writerDoorbellOffset));
+        return n;
+    }
+
+    /** Blocks until there's something to read, the writer is done, or the timeout expires */
+    void awaitReadable(Doorbell doorbell, long timeoutNanos) throws IOException {
+        LONG.setVolatile(buffer, readerDoorbellOffset, doorbell.port());
+        try {
+            // check again, the writer might have made progress before seeing the port
+            if ((long) LONG.getVolatile(buffer, tailOffset) == (long) LONG.getOpaque(buffer, headOffset) &&
+                    (long) LONG.getVolatile(buffer, writerClosedOffset) == 0)
+                doorbell.await(timeoutNanos);
+        } finally {
+            LONG.setOpaque(buffer, readerDoorbellOffset, 0L);
+        }
+    }
+
+    /** Blocks until there's room to write, the reader is gone, or the timeout expires */
+    void awaitWritable(Doorbell doorbell, long timeoutNanos) throws IOException {
+        LONG.setVolatile(buffer, writerDoorbellOffset, doorbell.port());
+        try {
+            // check again, the reader might have made progress before seeing the port
+            final long head = (long) LONG.getVolatile(buffer, headOffset);
+            if ((long) LONG.getOpaque(buffer, tailOffset) - head >= capacity &&
+                    (long) LONG.getVolatile(buffer, readerClosedOffset) == 0)
+                doorbell.await(timeoutNanos);
+        } finally {
+            LONG.setOpaque(buffer, writerDoorbellOffset, 0L);
+        }
+    }
+
+    /** Signals the reader that nothing more is going to be written */
+    void closeWriter() {
+        LONG.setVolatile(buffer, writerClosedOffset, 1L);
+        Doorbell.ring((long) LONG.getVolatile(buffer, readerDoorbellOffset));
+    }
+
+    /** Signals the writer that nothing more is going to be read */
+    void closeReader() {
+        LONG.setVolatile(buffer, readerClosedOffset, 1L);
+        Doorbell.ring((long) LONG.getVolatile(buffer, writerDoorbellOffset));
+    }
+}
@@ -0,0 +1,413 @@
+package in.pratanumandal.unique4j.sharedmemory;
+
+import in.pratanumandal.unique4j.IpcClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static in.pratanumandal.unique4j.sharedmemory.RingBuffer.LONG;
+import static in.pratanumandal.unique4j.sharedmemory.SharedMemoryIpcServer.*;
+
+/**
+ * Connection backed by a file created by the other instance, containing a ring buffer for each direction.
+ *
+ * Each side holds a lock on its own region past the mapped data for as long as the connection is open,
+ * so that the other one can tell whether it died while waiting for it.
+ */
+class SharedMemoryIpcClient implements IpcClient {
+
+    // layout of the connection file
+    private static final int CONNECTION_MAGIC_OFFSET = 0;
+    private static final int RING_CAPACITY_OFFSET = 4;
+    private static final int CONNECTION_GENERATION_OFFSET = 8;
+    private static final int ACCEPTED_OFFSET = 16;
+    private static final int CLIENT_TO_SERVER_OFFSET = 64;
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /** how long the streams block at once, before checking that the other side is still there */
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /** how long to wait for the first instance to accept the connection, unless told otherwise */
+    static final long DEFAULT_ACCEPT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final String CONNECTION_FILE_FORMAT = "shm-%016x.conn";
+    /** matches the files of all the connections, see {@link #CONNECTION_FILE_FORMAT} */
+    static final String CONNECTION_FILE_GLOB = "shm-*.conn";
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final FileLock livenessLock;
+    private final long peerLivenessLockPosition;
+    private final RingBuffer in;
+    private final RingBuffer out;
+    /** accept file, only for the connecting side until the connection is accepted */
+    private final FileChannel acceptChannel;
+    private final ByteBuffer acceptBuffer;
+    private final long acceptGeneration;
+    private final long connectStartNanos;
+    /** how long to wait for the first instance to accept the connection, or 0 to wait as long as it's alive */
+    private final long acceptTimeoutNanos;
+
+    private final InputStream is = new RingInputStream();
+    private final OutputStream os = new RingOutputStream();
+    /** doorbells opened by the streams once they had to block, guarded by itself */
+    private final List<Doorbell> doorbells = new ArrayList<>(2);
+    private volatile boolean closed;
+
+    private SharedMemoryIpcClient(Path file,
+                                  FileChannel channel,
+                                  ByteBuffer buffer,
+                                  int ringCapacity,
+                                  boolean isServer,
+                                  FileChannel acceptChannel,
+                                  ByteBuffer acceptBuffer,
+                                  long acceptGeneration,
+                                  long acceptTimeoutNanos) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.acceptChannel = acceptChannel;
+        this.acceptBuffer = acceptBuffer;
+        this.acceptGeneration = acceptGeneration;
+        this.connectStartNanos = System.nanoTime();
+        this.acceptTimeoutNanos = acceptTimeoutNanos;
+
+        final RingBuffer clientToServer = new RingBuffer(buffer, CLIENT_TO_SERVER_OFFSET, ringCapacity);
+        final RingBuffer serverToClient = new RingBuffer(buffer, serverToClientOffset(ringCapacity), ringCapacity);
+        this.in = isServer ? clientToServer : serverToClient;
+        this.out = isServer ? serverToClient : clientToServer;
+
+        final long clientLockPosition = fileSize(ringCapacity);
+        final long serverLockPosition = clientLockPosition + 1;
+        this.peerLivenessLockPosition = isServer ? clientLockPosition : serverLockPosition;
+        this.livenessLock = channel.tryLock(isServer ? serverLockPosition : clientLockPosition, 1, false);
+        if (livenessLock == null)
+            throw new IOException("Connection file " + file + " is already in use");
+    }
+
+    private static int serverToClientOffset(int ringCapacity) {
+        // keep the header of the second ring aligned
+        return align(CLIENT_TO_SERVER_OFFSET + RingBuffer.size(ringCapacity));
+    }
+
+    private static int fileSize(int ringCapacity) {
+        return serverToClientOffset(ringCapacity) + RingBuffer.size(ringCapacity);
+    }
+
+    private static int align(int offset) {
+        return (offset + 63) & ~63;
+    }
+
+    private static Path connectionFile(Path directory, long id) {
+        return directory.resolve(String.format(CONNECTION_FILE_FORMAT, id));
+    }
+
+    /** Deletes the file of a connection which was queued, but is never going to be accepted */
+    static void deleteConnectionFile(Path directory, long id) {
+        deleteQuietly(connectionFile(directory, id));
+    }
+
+    /** Connects to the first instance listening in the given directory */
+    static SharedMemoryIpcClient connect(Path directory, int ringCapacity, long acceptTimeoutNanos) throws IOException {
+        final FileChannel acceptChannel = FileChannel.open(
+                directory.resolve(ACCEPT_FILE_NAME),
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Path file = null;
+        FileChannel channel = null;
+        try {
+            // mapping past the end would grow the file
+            if (acceptChannel.size() < ACCEPT_FILE_SIZE)
+                throw new IOException("No first instance listening on " + directory);
+
+            final ByteBuffer acceptBuffer = acceptChannel.map(FileChannel.MapMode.READ_WRITE, 0, ACCEPT_FILE_SIZE);
+            final long generation = (long) LONG.getAcquire(acceptBuffer, GENERATION_OFFSET);
+            if (generation == 0 ||
+                    acceptBuffer.getInt(MAGIC_OFFSET) != MAGIC ||
+                    acceptBuffer.getInt(VERSION_OFFSET) != VERSION ||
+                    (long) LONG.getAcquire(acceptBuffer, CLOSED_OFFSET) != 0 ||
+                    !SharedMemoryIpcServer.isAlive(acceptChannel))
+                throw new IOException("No first instance listening on " + directory);
+
+            long id;
+            while ((id = ThreadLocalRandom.current().nextLong()) == 0)
+                ;
+            file = connectionFile(directory, id);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(ringCapacity));
+            buffer.putInt(CONNECTION_MAGIC_OFFSET, MAGIC);
+            buffer.putInt(RING_CAPACITY_OFFSET, ringCapacity);
+            buffer.putLong(CONNECTION_GENERATION_OFFSET, generation);
+
+            final SharedMemoryIpcClient client = new SharedMemoryIpcClient(
+                    file, channel, buffer, ringCapacity, false,
+                    acceptChannel, acceptBuffer, generation, acceptTimeoutNanos);
+            client.enqueue(id);
+            return client;
+        } catch (IOException | RuntimeException ex) {
+            try {
+                acceptChannel.close();
+                if (channel != null)
+                    channel.close();
+                if (file != null)
+                    Files.deleteIfExists(file);
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
+    /** Pushes the connection id to the queue of the first instance, publishing the initialized connection file */
+    private void enqueue(long id) throws IOException {
+        final Backoff backoff = new Backoff(MAX_PARK_NANOS, this::checkPeer);
+        while (true) {
+            final long tail = (long) LONG.getVolatile(acceptBuffer, TAIL_OFFSET);
+            final long head = (long) LONG.getVolatile(acceptBuffer, HEAD_OFFSET);
+            if (tail - head >= SLOTS) {
+                backoff.await();
+                continue;
+            }
+
+            if (!LONG.compareAndSet(acceptBuffer, TAIL_OFFSET, tail, tail + 1))
+                continue;
+
+            // the first instance skips slots which aren't filled in time, so if this thread stalled,
+            // the slot might have been skipped and even reused: only fill it if it's still free,
+            // then take the id back if it was skipped before being read
+            final int slotOffset = SLOTS_OFFSET + (int) (tail % SLOTS) * Long.BYTES;
+            if (!LONG.compareAndSet(acceptBuffer, slotOffset, 0L, id) ||
+                    (long) LONG.getVolatile(acceptBuffer, HEAD_OFFSET) > tail &&
+                            LONG.compareAndSet(acceptBuffer, slotOffset, id, 0L))
+                throw new IOException("First instance skipped the connection, as it took too long to enqueue it");
+
+            Doorbell.ring((long) LONG.getVolatile(acceptBuffer, DOORBELL_OFFSET));
+            return;
+        }
+    }
+
+    /** Accepts the connection with the given id, on the first instance */
+    static SharedMemoryIpcClient accept(Path directory, long id, long generation) throws IOException {
+        final Path file = connectionFile(directory, id);
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final long size = channel.size();
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            final int ringCapacity = buffer.getInt(RING_CAPACITY_OFFSET);
+            if (buffer.getInt(CONNECTION_MAGIC_OFFSET) != MAGIC ||
+                    buffer.getLong(CONNECTION_GENERATION_OFFSET) != generation ||
+                    ringCapacity <= 0 ||
+                    fileSize(ringCapacity) != size)
+                throw new IOException("Invalid connection file " + file);
+
+            final SharedMemoryIpcClient client = new SharedMemoryIpcClient(
+                    file, channel, buffer, ringCapacity, true,
+                    null, null, generation, 0);
+            LONG.setRelease(buffer, ACCEPTED_OFFSET, 1L);
+
+            // both sides have it mapped, so it's not needed anymore (might fail on Windows, the other side tries again)
+            deleteQuietly(file);
+            return client;
+        } catch (IOException | RuntimeException ex) {
+            try {
+                channel.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
+    /** Throws if the other side is gone, so that there's no point in waiting for it anymore */
+    private void checkPeer() throws IOException {
+        if (closed)
+            throw new IOException("Connection closed");
+
+        if (acceptBuffer != null && (long) LONG.getAcquire(buffer, ACCEPTED_OFFSET) == 0) {
+            if ((long) LONG.getAcquire(acceptBuffer, GENERATION_OFFSET) != acceptGeneration ||
+                    (long) LONG.getAcquire(acceptBuffer, CLOSED_OFFSET) != 0 ||
+                    !SharedMemoryIpcServer.isAlive(acceptChannel))
+                throw new IOException("First instance closed without accepting the connection");
+            if (acceptTimeoutNanos > 0 && System.nanoTime() - connectStartNanos > acceptTimeoutNanos)
+                throw new IOException("First instance didn't accept the connection in time");
+            return;
+        }
+
+        final FileLock peerLock;
+        try {
+            peerLock = channel.tryLock(peerLivenessLockPosition, 1, true);
+        } catch (OverlappingFileLockException ex) {
+            // held by this same JVM
+            return;
+        }
+
+        if (peerLock != null) {
+            peerLock.release();
+            throw new IOException("The other side of the connection died");
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return is;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return os;
+    }
+
+    @Override
+    public void shutdownOutput() {
+        out.closeWriter();
+    }
+
+    /** Opens a doorbell for a stream which has to block, it's closed along with the connection */
+    private Doorbell openDoorbell() {
+        final Doorbell doorbell = Doorbell.open();
+        synchronized (doorbells) {
+            if (closed)
+                doorbell.close();
+            else
+                doorbells.add(doorbell);
+        }
+        return doorbell;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+        out.closeWriter();
+        in.closeReader();
+        // wake up the streams of this side, which notice the connection was closed
+        synchronized (doorbells) {
+            for (Doorbell doorbell : doorbells)
+                doorbell.close();
+        }
+        boolean pendingAccept = false;
+        try {
+            // what was written before the first instance got to accept the connection is still delivered,
+            // so the file is left for it to accept, and then delete, as long as it still can
+            pendingAccept = mightBeAccepted();
+            livenessLock.release();
+        } finally {
+            channel.close();
+            if (acceptChannel != null)
+                acceptChannel.close();
+            if (!pendingAccept)
+                deleteQuietly(file);
+        }
+    }
+
+    /** Whether the connection wasn't accepted yet, but the first instance it was queued to can still accept it */
+    private boolean mightBeAccepted() throws IOException {
+        return acceptBuffer != null &&
+                (long) LONG.getAcquire(buffer, ACCEPTED_OFFSET) == 0 &&
+                (long) LONG.getAcquire(acceptBuffer, GENERATION_OFFSET) == acceptGeneration &&
+                (long) LONG.getAcquire(acceptBuffer, CLOSED_OFFSET) == 0 &&
+                SharedMemoryIpcServer.isAlive(acceptChannel);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // still mapped by the other side
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMemoryIpcClient{" + file + '}';
+    }
+
+    private class RingInputStream extends InputStream {
+
+        private Doorbell doorbell;
+        private final Backoff backoff = new Backoff(IDLE_WAIT_NANOS, SharedMemoryIpcClient.this::checkPeer, timeoutNanos -> {
+            if (doorbell == null)
+                doorbell = openDoorbell();
+            in.awaitReadable(doorbell, timeoutNanos);
+        });
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            final int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                if (closed)
+                    throw new IOException("Connection closed");
+
+                final int read = in.read(b, off, len);
+                if (read != 0 || len == 0) {
+                    backoff.reset();
+                    return read;
+                }
+
+                backoff.await();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            SharedMemoryIpcClient.this.close();
+        }
+    }
+
+    private class RingOutputStream extends OutputStream {
+
+        private Doorbell doorbell;
+        private final Backoff backoff = new Backoff(IDLE_WAIT_NANOS, SharedMemoryIpcClient.this::checkPeer, timeoutNanos -> {
+            if (doorbell == null)
+                doorbell = openDoorbell();
+            out.awaitWritable(doorbell, timeoutNanos);
+        });
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (closed)
+                    throw new IOException("Connection closed");
+
+                final int written = out.write(b, off, len);
+                if (written == 0) {
+                    backoff.await();
+                    continue;
+                }
+
+                backoff.reset();
+                off += written;
+                len -= written;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            SharedMemoryIpcClient.this.close();
+        }
+    }
+}
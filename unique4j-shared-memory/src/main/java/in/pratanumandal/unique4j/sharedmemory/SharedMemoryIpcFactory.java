@@ -0,0 +1,58 @@
+package in.pratanumandal.unique4j.sharedmemory;
+
+import in.pratanumandal.unique4j.IpcClient;
+import in.pratanumandal.unique4j.IpcFactory;
+import in.pratanumandal.unique4j.IpcServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchanges messages through ring buffers in memory-mapped files in the lock folder,
+ * so that the payloads never go through the socket stack.
+ *
+ * Each connection is a file created by the other instance, with a single-producer single-consumer ring buffer
+ * for each direction, whose id is pushed to a queue in an accept file created by the first instance.
+ * As there's no portable way to wake up a thread in an other process, waiting sides spin and then block
+ * on a loopback datagram socket, whose port they publish in the shared memory, and which the other side
+ * sends a byte to after making progress. Idle waits still wake up every 100 milliseconds,
+ * to notice other instances which died.
+ */
+public class SharedMemoryIpcFactory implements IpcFactory {
+
+    /** Default capacity of the ring buffer in each direction */
+    public static final int DEFAULT_RING_CAPACITY = 256 * 1024;
+
+    private final int ringCapacity;
+
+    public SharedMemoryIpcFactory() {
+        this(DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * @param ringCapacity capacity of the ring buffer in each direction of the connections created by this instance,
+     *                     messages bigger than this are just written in multiple steps
+     */
+    public SharedMemoryIpcFactory(int ringCapacity) {
+        if (ringCapacity <= 0)
+            throw new IllegalArgumentException("Ring capacity must be positive (was " + ringCapacity + ")");
+        this.ringCapacity = ringCapacity;
+    }
+
+    @Override
+    public IpcServer createIpcServer(File parentDirectory, String appId) throws IOException {
+        return new SharedMemoryIpcServer(parentDirectory);
+    }
+
+    @Override
+    public IpcClient createIpcClient(File parentDirectory, String appId) throws IOException {
+        return SharedMemoryIpcClient.connect(parentDirectory.toPath(), ringCapacity, SharedMemoryIpcClient.DEFAULT_ACCEPT_TIMEOUT_NANOS);
+    }
+
+    /** The connection is established once the first instance accepts it, which is what the timeout bounds */
+    @Override
+    public IpcClient createIpcClient(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
+        return SharedMemoryIpcClient.connect(parentDirectory.toPath(), ringCapacity, TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis));
+    }
+}
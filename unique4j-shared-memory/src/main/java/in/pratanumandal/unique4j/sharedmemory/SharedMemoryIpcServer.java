@@ -0,0 +1,230 @@
+package in.pratanumandal.unique4j.sharedmemory;
+
+import in.pratanumandal.unique4j.IpcClient;
+import in.pratanumandal.unique4j.IpcServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static in.pratanumandal.unique4j.sharedmemory.RingBuffer.LONG;
+
+/**
+ * Server accepting connections from a multi-producer single-consumer queue of connection ids
+ * in the accept file, which other instances push to after creating their connection file.
+ */
+class SharedMemoryIpcServer implements IpcServer {
+
+    static final String ACCEPT_FILE_NAME = "shm-accept";
+
+    static final int MAGIC = 0x55344a53; // U4JS
+    static final int VERSION = 1;
+
+    // layout of the accept file
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int GENERATION_OFFSET = 8;
+    static final int CLOSED_OFFSET = 16;
+    /** port of the {@link Doorbell} of the server while it's waiting for connections, 0 otherwise */
+    static final int DOORBELL_OFFSET = 24;
+    static final int HEAD_OFFSET = 64;
+    static final int TAIL_OFFSET = 128;
+    static final int SLOTS_OFFSET = 192;
+    static final int SLOTS = 64;
+    static final int ACCEPT_FILE_SIZE = SLOTS_OFFSET + SLOTS * Long.BYTES;
+    /** region locked by the server while it's alive, past the mapped data */
+    static final long LIVENESS_LOCK_POSITION = ACCEPT_FILE_SIZE;
+
+    /** how long to block at once while idle, before checking for abandoned slots */
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /** how long to wait for a producer which claimed a slot to fill it, before assuming it died */
+    private static final long ABANDONED_SLOT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path directory;
+    private final FileChannel channel;
+    private final FileLock livenessLock;
+    private final ByteBuffer buffer;
+    private final long generation;
+    private final Doorbell doorbell = Doorbell.open();
+
+    private volatile boolean closed;
+
+    SharedMemoryIpcServer(File parentDirectory) throws IOException {
+        this.directory = parentDirectory.toPath();
+
+        final FileChannel channel = FileChannel.open(
+                directory.resolve(ACCEPT_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.livenessLock = channel.tryLock(LIVENESS_LOCK_POSITION, 1, false);
+            if (livenessLock == null)
+                throw new IOException("Another first instance is already listening on " + directory);
+
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, ACCEPT_FILE_SIZE);
+        } catch (IOException | RuntimeException ex) {
+            try {
+                channel.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            doorbell.close();
+            throw ex;
+        }
+        this.channel = channel;
+
+        // connections queued to a previous server are abandoned, and notice it from the generation changing
+        long generation;
+        while ((generation = ThreadLocalRandom.current().nextLong()) == 0)
+            ;
+        this.generation = generation;
+
+        // a 0 generation tells other instances that the file is being initialized
+        LONG.setVolatile(buffer, GENERATION_OFFSET, 0L);
+        // connections closed before a previous server, which then died, got to accept them
+        deleteConnectionFiles();
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        LONG.setRelease(buffer, CLOSED_OFFSET, 0L);
+        LONG.setRelease(buffer, DOORBELL_OFFSET, 0L);
+        for (int i = 0; i < SLOTS; i++)
+            LONG.setRelease(buffer, SLOTS_OFFSET + i * Long.BYTES, 0L);
+        LONG.setRelease(buffer, HEAD_OFFSET, 0L);
+        LONG.setRelease(buffer, TAIL_OFFSET, 0L);
+        // published last, so that other instances only see a fully initialized file
+        LONG.setRelease(buffer, GENERATION_OFFSET, generation);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public IpcClient accept() throws IOException {
+        final Backoff backoff = new Backoff(IDLE_WAIT_NANOS, () -> {
+            if (closed)
+                throw new IOException("Server closed");
+        }, this::awaitEnqueued);
+        long abandonedSlotSince = 0;
+        while (true) {
+            if (closed)
+                throw new IOException("Server closed");
+
+            final long head = (long) LONG.getOpaque(buffer, HEAD_OFFSET);
+            final int slotOffset = SLOTS_OFFSET + (int) (head % SLOTS) * Long.BYTES;
+            // a slot skipped as abandoned might still be filled late, only trust it once it was claimed again
+            final boolean claimed = (long) LONG.getAcquire(buffer, TAIL_OFFSET) != head;
+            final long id = claimed ? (long) LONG.getAcquire(buffer, slotOffset) : 0;
+            if (id == 0) {
+                if (claimed) {
+                    // claimed, but not filled yet
+                    final long now = System.nanoTime();
+                    if (abandonedSlotSince == 0) {
+                        abandonedSlotSince = now;
+                    } else if (now - abandonedSlotSince > ABANDONED_SLOT_TIMEOUT_NANOS) {
+                        abandonedSlotSince = 0;
+                        LONG.setRelease(buffer, HEAD_OFFSET, head + 1);
+                        continue;
+                    }
+                }
+
+                backoff.await();
+                continue;
+            }
+
+            abandonedSlotSince = 0;
+            // free the slot before advancing the head, which allows producers to reuse it
+            LONG.setRelease(buffer, slotOffset, 0L);
+            LONG.setRelease(buffer, HEAD_OFFSET, head + 1);
+            backoff.reset();
+
+            try {
+                return SharedMemoryIpcClient.accept(directory, id, generation);
+            } catch (IOException ex) {
+                // the other instance gave up in the meantime, move on to the next one
+            }
+        }
+    }
+
+    /** Blocks until a producer fills the slot at the head, or the timeout expires */
+    private void awaitEnqueued(long timeoutNanos) throws IOException {
+        LONG.setVolatile(buffer, DOORBELL_OFFSET, doorbell.port());
+        try {
+            // check again, a producer might have filled the slot before seeing the port
+            final long head = (long) LONG.getOpaque(buffer, HEAD_OFFSET);
+            if ((long) LONG.getVolatile(buffer, SLOTS_OFFSET + (int) (head % SLOTS) * Long.BYTES) == 0 && !closed)
+                doorbell.await(timeoutNanos);
+        } finally {
+            LONG.setOpaque(buffer, DOORBELL_OFFSET, 0L);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+        // tell other instances still in the queue that they won't be accepted
+        LONG.setRelease(buffer, CLOSED_OFFSET, 1L);
+        // the ones which closed in the meantime left their file for this server to accept
+        final long tail = (long) LONG.getAcquire(buffer, TAIL_OFFSET);
+        for (long head = (long) LONG.getAcquire(buffer, HEAD_OFFSET); tail - head > 0; head++) {
+            final long id = (long) LONG.getAcquire(buffer, SLOTS_OFFSET + (int) (head % SLOTS) * Long.BYTES);
+            if (id != 0)
+                SharedMemoryIpcClient.deleteConnectionFile(directory, id);
+        }
+        // wake up the accepting thread
+        doorbell.close();
+        try {
+            livenessLock.release();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void deleteConnectionFiles() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SharedMemoryIpcClient.CONNECTION_FILE_GLOB)) {
+            for (Path file : files) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {
+                    // still mapped by an other instance
+                }
+            }
+        } catch (IOException | DirectoryIteratorException ignored) {
+            // best effort, they're only wasted space
+        }
+    }
+
+    /** Checks whether the server which created the accept file is still running, from an other instance */
+    static boolean isAlive(FileChannel acceptFileChannel) throws IOException {
+        final FileLock lock;
+        try {
+            lock = acceptFileChannel.tryLock(LIVENESS_LOCK_POSITION, 1, true);
+        } catch (OverlappingFileLockException ex) {
+            // held by this same JVM
+            return true;
+        }
+
+        if (lock == null)
+            return true;
+        lock.release();
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMemoryIpcServer{" + directory + '}';
+    }
+}
@@ -0,0 +1,4 @@
+module io.github.furrrlo.unique4j.sharedmemory {
+    requires transitive io.github.furrrlo.unique4j;
+    exports in.pratanumandal.unique4j.sharedmemory;
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+public class AsyncTest {
+
+	@Test(timeout = 30_000)
+	public void testTryLockAsync() throws Exception {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId());
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> received.add(new DataInputStream(otherInstanceClient.getInputStream()).readUTF()),
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello"));
+
+		assertEquals(LockResult.ACQUIRED, first.tryLockAsync().get(10, TimeUnit.SECONDS));
+		try {
+			assertTrue(first.isHeldByCurrentAppInstance());
+
+			final ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				final LockResult result = other.tryLockAsync(executor).get(10, TimeUnit.SECONDS);
+				assertEquals(LockResult.FIRST_INSTANCE_FOUND, result);
+				assertFalse(result.isAcquired());
+				assertEquals("hello", received.poll(10, TimeUnit.SECONDS));
+			} finally {
+				executor.shutdown();
+			}
+		} finally {
+			// unlocking from a different thread than the one which locked
+			first.unlock();
+		}
+	}
+
+	@Test(timeout = 30_000)
+	public void testTryLockAsyncFailure() throws IOException {
+		// a regular file where the lock folder should be
+		final File notAFolder = File.createTempFile("unique4j", ".tmp");
+		notAFolder.deleteOnExit();
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.lockFolder(notAFolder)
+				.retryPolicy(RetryPolicy.immediate(0));
+
+		final CompletableFuture<LockResult> result = Unique4j.withConfig(config)
+				.newLock(otherInstanceClient -> {}, firstInstanceClient -> {})
+				.tryLockAsync();
+		final ExecutionException ex = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+		assertTrue(ex.getCause() instanceof IOException);
+	}
+
+	@Test(timeout = 30_000)
+	public void testRequestSingleInstanceAsync() throws Exception {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId());
+
+		final CompletableFuture<String> firstReceived = new CompletableFuture<>();
+		final CountDownLatch firstStarted = new CountDownLatch(1);
+		final CompletableFuture<String> first = Unique4j.withConfig(config).requestSingleInstanceThenReturnAsync(
+				instance -> instance.firstInstance(ctx -> {
+					ctx.otherInstancesListener(client -> firstReceived.complete(new DataInputStream(client.getInputStream()).readUTF()));
+					firstStarted.countDown();
+					return ctx.waitForEventThenReturn(unlock -> firstReceived.thenAccept(unlock));
+				}));
+		assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+
+		final CompletableFuture<String> other = Unique4j.withConfig(config).requestSingleInstanceThenReturnAsync(
+				instance -> instance.otherInstances(ctx -> {
+					ctx.firstInstanceListener(client -> new DataOutputStream(client.getOutputStream()).writeUTF("from other"));
+					return ctx.doNothingThenReturn("other done");
+				}));
+
+		assertEquals("other done", other.get(10, TimeUnit.SECONDS));
+		assertEquals("from other", first.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test(timeout = 30_000)
+	public void testRequestSingleInstanceAsyncFailure() throws InterruptedException {
+		final RuntimeException failure = new RuntimeException("failure");
+		final CompletableFuture<Void> first = Unique4j.withConfig(Unique4jConfig.createDefault(getAppId()))
+				.requestSingleInstanceAsync(instance -> instance.firstInstance(ctx -> () -> {
+					throw failure;
+				}));
+
+		final ExecutionException ex = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+		// same exception as the blocking version would have thrown
+		assertTrue(ex.getCause() instanceof ExecutionException);
+		assertSame(failure, ex.getCause().getCause());
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class BackpressureTest {
+
+	@Parameterized.Parameters(name = "nonBlockingServer={0}")
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] { { false }, { true } });
+	}
+
+	private final boolean nonBlockingServer;
+
+	public BackpressureTest(boolean nonBlockingServer) {
+		this.nonBlockingServer = nonBlockingServer;
+	}
+
+	@Test
+	public void testBusyRejection() throws Exception {
+		final AtomicInteger rejected = new AtomicInteger();
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(new UnixSocketChannelIpcFactory())
+				.nonBlockingServer(nonBlockingServer)
+				.maxConcurrentConnections(1)
+				.metricsListener(new MetricsListener() {
+					@Override
+					public void connectionRejected() {
+						rejected.incrementAndGet();
+					}
+				});
+
+		final CountDownLatch handlerStarted = new CountDownLatch(1);
+		final CountDownLatch handlerRelease = new CountDownLatch(1);
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {
+					new DataInputStream(otherInstanceClient.getInputStream()).readUTF();
+					handlerStarted.countDown();
+					handlerRelease.await();
+				},
+				firstInstanceClient -> {});
+
+		final ExecutorService executor = Executors.newCachedThreadPool();
+		assertTrue(first.tryLock());
+		try {
+			// keep the only connection busy
+			final Future<Boolean> other = executor.submit(() -> Unique4j.withConfig(config).newLock(
+					otherInstanceClient -> {},
+					firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello")
+			).tryLock());
+			assertTrue(handlerStarted.await(5, TimeUnit.SECONDS));
+
+			try (IpcClient client = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId());
+				 DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+				 DataInputStream dis = new DataInputStream(client.getInputStream())) {
+				Handshake.connect(config.appId(), false, false, dis, dos);
+				fail("The first instance should have turned down the connection");
+			} catch (Handshake.BusyException ex) {
+				// expected
+			} catch (IOException ex) {
+				// also expected, if the connection was reset before the busy response could be read
+			}
+			assertEquals(1, rejected.get());
+
+			// other instances retry until the first instance can serve them
+			final Unique4jLock retrying = Unique4j.withConfig(config).newLock(
+					otherInstanceClient -> {},
+					firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello"));
+			final Future<Boolean> retried = executor.submit(retrying::tryLock);
+			handlerRelease.countDown();
+
+			assertFalse(other.get(5, TimeUnit.SECONDS));
+			assertFalse(retried.get(5, TimeUnit.SECONDS));
+		} finally {
+			handlerRelease.countDown();
+			executor.shutdownNow();
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testInvalidLimits() {
+		try {
+			Unique4j.withConfig(Unique4jConfig.createDefault(getAppId()).maxConcurrentConnections(0));
+			fail("A limit of 0 connections should be refused");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+
+		try {
+			Unique4j.withConfig(Unique4jConfig.createDefault(getAppId()).acceptBacklog(-1));
+			fail("A negative backlog should be refused");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.*;
+
+public class CompressedIpcClientTest {
+
+	private static byte[] compressible(int length) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < length; i++)
+			sb.append("/home/user/Documents/project/src/main/java/File").append(i).append(".java\n");
+		return sb.substring(0, length).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1000];
+		int read;
+		while ((read = is.read(buffer)) >= 0)
+			bytes.write(buffer, 0, read);
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testBlocks() throws IOException {
+		final byte[] tiny = "hello".getBytes(StandardCharsets.UTF_8);
+		final byte[] big = compressible(200_000);
+		final byte[] random = new byte[100_000];
+		ThreadLocalRandom.current().nextBytes(random);
+
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		final CompressedIpcClient sender = new CompressedIpcClient(new StreamIpcClient(new ByteArrayInputStream(new byte[0]), sent), 1024);
+		final OutputStream os = sender.getOutputStream();
+
+		// below the threshold, sent as it is
+		os.write(tiny);
+		os.flush();
+		assertEquals(CompressedIpcClient.HEADER_SIZE + tiny.length, sent.size());
+
+		// in blocks, all of them compressed
+		os.write(big);
+		os.flush();
+		final int bigSize = sent.size() - CompressedIpcClient.HEADER_SIZE - tiny.length;
+		assertTrue("Sent " + bigSize + " bytes", bigSize < big.length / 4);
+
+		// doesn't get any smaller, sent as it is
+		os.write(random);
+		os.flush();
+		final int blocks = (random.length + CompressedIpcClient.MAX_BLOCK_SIZE - 1) / CompressedIpcClient.MAX_BLOCK_SIZE;
+		assertEquals(random.length + blocks * CompressedIpcClient.HEADER_SIZE, sent.size() - bigSize - CompressedIpcClient.HEADER_SIZE - tiny.length);
+
+		// nothing to send
+		os.flush();
+		final int size = sent.size();
+
+		// single bytes, still buffered until closed
+		os.write(42);
+		assertEquals(size, sent.size());
+		sender.close();
+		assertEquals(size + CompressedIpcClient.HEADER_SIZE + 1, sent.size());
+
+		final CompressedIpcClient receiver = new CompressedIpcClient(
+				new StreamIpcClient(new ByteArrayInputStream(sent.toByteArray()), new ByteArrayOutputStream()), 1024);
+		final byte[] received = readAll(receiver.getInputStream());
+		final ByteBuffer expected = ByteBuffer.allocate(tiny.length + big.length + random.length + 1)
+				.put(tiny).put(big).put(random).put((byte) 42);
+		assertArrayEquals(expected.array(), received);
+	}
+
+	@Test
+	public void testFullBlock() throws IOException {
+		// inflates to exactly the size of the buffer of the receiver
+		final byte[] block = new byte[CompressedIpcClient.MAX_BLOCK_SIZE];
+
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		try (CompressedIpcClient sender = new CompressedIpcClient(new StreamIpcClient(new ByteArrayInputStream(new byte[0]), sent), 0)) {
+			sender.getOutputStream().write(block);
+		}
+		assertTrue(sent.size() < block.length / 4);
+
+		final CompressedIpcClient receiver = new CompressedIpcClient(
+				new StreamIpcClient(new ByteArrayInputStream(sent.toByteArray()), new ByteArrayOutputStream()), 0);
+		assertArrayEquals(block, readAll(receiver.getInputStream()));
+	}
+
+	@Test
+	public void testFlushesBeforeReading() throws IOException {
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		final CompressedIpcClient client = new CompressedIpcClient(new StreamIpcClient(new ByteArrayInputStream(new byte[0]), sent), 1024);
+
+		// a request, whose reply is waited for without flushing
+		new DataOutputStream(client.getOutputStream()).writeInt(42);
+		assertEquals(0, sent.size());
+		assertEquals(-1, client.getInputStream().read());
+		assertEquals(CompressedIpcClient.HEADER_SIZE + Integer.BYTES, sent.size());
+	}
+
+	@Test
+	public void testCorruptedBlocks() {
+		// compressed, but not deflated
+		assertThrows(IOException.class, () -> readAll(receiver(new byte[] { (byte) 0x80, 0, 0, 4, 1, 2, 3, 4 })));
+		// bigger than any block
+		assertThrows(IOException.class, () -> readAll(receiver(new byte[] { 0, 1, 0, 1 })));
+		// truncated
+		assertThrows(EOFException.class, () -> readAll(receiver(new byte[] { 0, 0, 0, 4, 1, 2 })));
+		assertThrows(EOFException.class, () -> readAll(receiver(new byte[] { 0, 0 })));
+	}
+
+	private static InputStream receiver(byte[] received) throws IOException {
+		return new CompressedIpcClient(new StreamIpcClient(new ByteArrayInputStream(received), new ByteArrayOutputStream()), 1024)
+				.getInputStream();
+	}
+
+	private static class StreamIpcClient implements IpcClient {
+
+		private final InputStream is;
+		private final OutputStream os;
+
+		StreamIpcClient(InputStream is, OutputStream os) {
+			this.is = is;
+			this.os = os;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return is;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return os;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
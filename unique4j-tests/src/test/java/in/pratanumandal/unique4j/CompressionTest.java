@@ -0,0 +1,164 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.junixsocket.AFUNIXSocketIpcFactory;
+import in.pratanumandal.unique4j.sharedmemory.SharedMemoryIpcFactory;
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class CompressionTest {
+
+	@Parameterized.Parameters(name = "{0}, nonBlockingServer={1}")
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] {
+				{ new EphemeralPortSocketIpcFactory(InetAddress.getLoopbackAddress()), false },
+				{ new AFUNIXSocketIpcFactory(), false },
+				{ new UnixSocketChannelIpcFactory(), false },
+				{ new UnixSocketChannelIpcFactory(), true },
+				{ new SharedMemoryIpcFactory(), false }
+		});
+	}
+
+	private final IpcFactory ipcFactory;
+	private final boolean nonBlockingServer;
+
+	public CompressionTest(IpcFactory ipcFactory, boolean nonBlockingServer) {
+		this.ipcFactory = ipcFactory;
+		this.nonBlockingServer = nonBlockingServer;
+	}
+
+	private Unique4jConfig createConfig(String appId, boolean compressionEnabled) {
+		return Unique4jConfig.createDefault(appId)
+				.ipcFactory(ipcFactory)
+				.nonBlockingServer(nonBlockingServer)
+				.compressionEnabled(compressionEnabled);
+	}
+
+	private static byte[] compressible(int length) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < length; i++)
+			sb.append("/home/user/Documents/project/src/main/java/File").append(i).append(".java\n");
+		return sb.substring(0, length).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Sends a message from the other instance, and checks it's echoed back, and whether the connection was compressed */
+	private void assertEchoed(boolean firstCompression, boolean otherCompression) throws IOException {
+		final String appId = getAppId();
+		final byte[] message = compressible(1_000_000);
+
+		final AtomicReference<IpcClient> firstClient = new AtomicReference<>();
+		final AtomicReference<byte[]> reply = new AtomicReference<>();
+		final Unique4jLock first = Unique4j.withConfig(createConfig(appId, firstCompression)).newLock(
+				otherInstanceClient -> {
+					firstClient.set(otherInstanceClient);
+					final FramedIpcClient client = new FramedIpcClient(otherInstanceClient);
+					client.send(client.receive());
+				},
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(createConfig(appId, otherCompression)).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {
+					final FramedIpcClient client = new FramedIpcClient(firstInstanceClient);
+					client.send(message);
+					// a non-blocking first instance only gets the message once the output is shut down
+					client.shutdownOutput();
+					reply.set(client.receive());
+				});
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertArrayEquals(message, reply.get());
+			assertEquals(firstCompression && otherCompression, ((DetachableIpcClient) firstClient.get()).getDelegate() instanceof CompressedIpcClient);
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void testMessage() throws IOException {
+		assertEchoed(true, true);
+	}
+
+	@Test(timeout = 10_000)
+	public void testMixedSettings() throws IOException {
+		// only used when both sides want it
+		assertEchoed(true, false);
+		assertEchoed(false, true);
+	}
+
+	@Test(timeout = 10_000)
+	public void testSmallMessage() throws IOException, InterruptedException {
+		final Unique4jConfig config = createConfig(getAppId(), true);
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> received.add(new String(new FramedIpcClient(otherInstanceClient).receive(), StandardCharsets.UTF_8)),
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				// neither flushed nor shut down, so it's only sent on close
+				firstInstanceClient -> firstInstanceClient.getOutputStream().write(new byte[] { 0, 0, 0, 5, 'h', 'e', 'l', 'l', 'o' }));
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertEquals("hello", received.poll(5, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void testSession() throws IOException, InterruptedException {
+		final Unique4jConfig config = createConfig(getAppId(), true);
+		final byte[] message = compressible(300_000);
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {},
+				(session, received) -> session.send(received));
+
+		final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+		assertTrue(first.tryLock());
+		try (IpcSession session = Unique4j.withConfig(config).openSession((s, m) -> received.add(m))) {
+			session.send(message);
+			session.send(new byte[] { 42 });
+			assertArrayEquals(message, received.poll(5, TimeUnit.SECONDS));
+			assertArrayEquals(new byte[] { 42 }, received.poll(5, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+public class DefaultExecutorTest {
+
+	@Test
+	public void testLockScopedDaemonExecutor() throws IOException, InterruptedException {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId());
+		assertNull(config.executorService());
+
+		final BlockingQueue<Thread> handlerThreads = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> handlerThreads.add(Thread.currentThread()),
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {});
+
+		final Thread handlerThread;
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			handlerThread = handlerThreads.poll(10, TimeUnit.SECONDS);
+			assertNotNull(handlerThread);
+			assertTrue(handlerThread.isDaemon());
+		} finally {
+			first.unlock();
+		}
+
+		// the executor is shut down together with the lock
+		handlerThread.join(TimeUnit.SECONDS.toMillis(10));
+		assertFalse(handlerThread.isAlive());
+
+		// and created again when re-locking
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertNotNull(handlerThreads.poll(10, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+		}
+	}
+}
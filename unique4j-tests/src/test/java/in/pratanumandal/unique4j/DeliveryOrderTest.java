@@ -0,0 +1,154 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class DeliveryOrderTest {
+
+	private static final int MESSAGES = 10;
+
+	@Parameterized.Parameters(name = "deliveryOrder={0}, nonBlockingServer={1}")
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] {
+				{ DeliveryOrder.PER_SENDER, false },
+				{ DeliveryOrder.PER_SENDER, true },
+				{ DeliveryOrder.GLOBAL, false },
+				{ DeliveryOrder.GLOBAL, true },
+		});
+	}
+
+	private final DeliveryOrder deliveryOrder;
+	private final boolean nonBlockingServer;
+
+	public DeliveryOrderTest(DeliveryOrder deliveryOrder, boolean nonBlockingServer) {
+		this.deliveryOrder = deliveryOrder;
+		this.nonBlockingServer = nonBlockingServer;
+	}
+
+	@Test
+	public void testMessagesFromSameSenderAreOrdered() throws IOException, InterruptedException {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(new UnixSocketChannelIpcFactory())
+				.nonBlockingServer(nonBlockingServer)
+				.deliveryOrder(deliveryOrder);
+
+		final BlockingQueue<Integer> received = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {
+					final int message = new DataInputStream(otherInstanceClient.getInputStream()).readInt();
+					// earlier messages take longer, so they'd be overtaken if they weren't ordered
+					Thread.sleep((MESSAGES - message) * 10L);
+					received.add(message);
+				},
+				firstInstanceClient -> {});
+
+		assertTrue(first.tryLock());
+		try {
+			for (int i = 0; i < MESSAGES; i++) {
+				final int message = i;
+				final Unique4jLock other = Unique4j.withConfig(config).newLock(
+						otherInstanceClient -> {},
+						firstInstanceClient -> {
+							final DataOutputStream dos = new DataOutputStream(firstInstanceClient.getOutputStream());
+							dos.writeInt(message);
+							dos.flush();
+							firstInstanceClient.shutdownOutput();
+						});
+				assertFalse(other.tryLock());
+			}
+
+			final List<Integer> order = new ArrayList<>();
+			for (int i = 0; i < MESSAGES; i++) {
+				final Integer message = received.poll(5, TimeUnit.SECONDS);
+				assertNotNull("Timed out waiting for message " + i, message);
+				order.add(message);
+			}
+
+			final List<Integer> expected = new ArrayList<>();
+			for (int i = 0; i < MESSAGES; i++)
+				expected.add(i);
+			assertEquals(expected, order);
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testSequencer() throws InterruptedException {
+		final ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			final MessageSequencer sequencer = new MessageSequencer(deliveryOrder, executor);
+			final long first = sequencer.arrived();
+			final long second = sequencer.arrived();
+			final long third = sequencer.arrived();
+
+			final BlockingQueue<Long> delivered = new LinkedBlockingQueue<>();
+			final CountDownLatch firstRelease = new CountDownLatch(1);
+			final CountDownLatch firstStarted = new CountDownLatch(1);
+			executor.execute(() -> sequencer.deliver(first, 1, () -> {
+				firstStarted.countDown();
+				try {
+					firstRelease.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				delivered.add(first);
+			}));
+			assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+
+			// same sender, has to wait for the first one
+			sequencer.deliver(third, 1, () -> delivered.add(third));
+			// the second one never delivers anything, it mustn't hold back the other ones
+			sequencer.skip(second);
+			assertNull(delivered.poll(50, TimeUnit.MILLISECONDS));
+
+			// an other sender only waits for the first one with GLOBAL
+			final long fourth = sequencer.arrived();
+			sequencer.deliver(fourth, 2, () -> delivered.add(fourth));
+			if (deliveryOrder == DeliveryOrder.PER_SENDER)
+				assertEquals(Long.valueOf(fourth), delivered.poll(5, TimeUnit.SECONDS));
+			else
+				assertNull(delivered.poll(50, TimeUnit.MILLISECONDS));
+
+			firstRelease.countDown();
+			assertEquals(Long.valueOf(first), delivered.poll(5, TimeUnit.SECONDS));
+			assertEquals(Long.valueOf(third), delivered.poll(5, TimeUnit.SECONDS));
+			if (deliveryOrder == DeliveryOrder.GLOBAL)
+				assertEquals(Long.valueOf(fourth), delivered.poll(5, TimeUnit.SECONDS));
+			assertNull(delivered.poll(50, TimeUnit.MILLISECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+public class EnqueueingFirstInstanceTest {
+
+	@Test
+	public void testQueuedUntilSet() throws IOException, InterruptedException {
+		final EnqueueingFirstInstance enqueueing = newEnqueueing(10, EarlyMessageOverflowPolicy.REJECT);
+
+		// doesn't block while waiting for the actual FirstInstance
+		for (int i = 0; i < 3; i++)
+			enqueueing.onOtherInstanceStarted(client("early " + i));
+
+		final List<String> received = new ArrayList<>();
+		final List<String> canReply = new ArrayList<>();
+		enqueueing.setActualFirstInstance(client -> {
+			final String message = IOUtils.toString(client.getInputStream(), StandardCharsets.UTF_8);
+			received.add(message);
+			try {
+				client.getOutputStream();
+				canReply.add(message);
+			} catch (IOException ex) {
+				// connection was already released
+			}
+		});
+		assertEquals(Arrays.asList("early 0", "early 1", "early 2"), received);
+		assertEquals(Collections.emptyList(), canReply);
+
+		enqueueing.onOtherInstanceStarted(client("late"));
+		assertEquals(Arrays.asList("early 0", "early 1", "early 2", "late"), received);
+		assertEquals(Collections.singletonList("late"), canReply);
+	}
+
+	@Test
+	public void testOverflowPolicies() throws IOException, InterruptedException {
+		assertEquals(Arrays.asList("1", "2"), receivedWithQueueOf2(EarlyMessageOverflowPolicy.REJECT));
+		assertEquals(Arrays.asList("1", "2"), receivedWithQueueOf2(EarlyMessageOverflowPolicy.DROP_NEWEST));
+		assertEquals(Arrays.asList("2", "3"), receivedWithQueueOf2(EarlyMessageOverflowPolicy.DROP_OLDEST));
+
+		// rejected messages are not even read
+		final EnqueueingFirstInstance enqueueing = newEnqueueing(0, EarlyMessageOverflowPolicy.REJECT);
+		final ByteArrayInputStream is = new ByteArrayInputStream("rejected".getBytes(StandardCharsets.UTF_8));
+		enqueueing.onOtherInstanceStarted(new StreamIpcClient(is));
+		assertEquals("rejected".length(), is.available());
+	}
+
+	@Test
+	public void testQueueMaxBytes() throws IOException, InterruptedException {
+		assertEquals(Arrays.asList("12345", "67890"), receivedWithQueueOf10Bytes(EarlyMessageOverflowPolicy.REJECT));
+		assertEquals(Arrays.asList("12345", "67890"), receivedWithQueueOf10Bytes(EarlyMessageOverflowPolicy.DROP_NEWEST));
+		assertEquals(Arrays.asList("67890", "x"), receivedWithQueueOf10Bytes(EarlyMessageOverflowPolicy.DROP_OLDEST));
+	}
+
+	private static List<String> receivedWithQueueOf10Bytes(EarlyMessageOverflowPolicy policy) throws IOException, InterruptedException {
+		final EnqueueingFirstInstance enqueueing = newEnqueueing(10, 10, policy);
+		for (String message : Arrays.asList("12345", "67890", "x"))
+			enqueueing.onOtherInstanceStarted(client(message));
+
+		final List<String> received = new ArrayList<>();
+		enqueueing.setActualFirstInstance(client -> received.add(IOUtils.toString(client.getInputStream(), StandardCharsets.UTF_8)));
+		return received;
+	}
+
+	@Test(timeout = 30_000)
+	public void testReplyToEarlyMessage() throws Exception {
+		final CountDownLatch queued = new CountDownLatch(1);
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.metricsListener(new MetricsListener() {
+					@Override
+					public void handlerFinished(long durationNanos) {
+						queued.countDown();
+					}
+				});
+
+		final CountDownLatch firstStarted = new CountDownLatch(1);
+		final CountDownLatch replied = new CountDownLatch(1);
+		final CompletableFuture<Void> firstInstance = CompletableFuture.runAsync(() -> {
+			try {
+				Unique4j.withConfig(config).requestSingleInstance(instance -> instance.firstInstance(ctx -> {
+					firstStarted.countDown();
+					// the message is queued while still starting up
+					queued.await();
+
+					ctx.otherInstancesListener(client -> {
+						final String message = new DataInputStream(client.getInputStream()).readUTF();
+						new DataOutputStream(client.getOutputStream()).writeUTF(message + " back");
+					});
+					return replied::await;
+				}));
+			} catch (IOException | ExecutionException e) {
+				throw new CompletionException(e);
+			}
+		});
+
+		try {
+			assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+			final CompletableFuture<String> reply = new CompletableFuture<>();
+			final Unique4jLock other = Unique4j.withConfig(config).newLock(
+					otherInstanceClient -> {},
+					firstInstanceClient -> {
+						// waits for the reply without shutting down its output
+						new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("early");
+						reply.complete(new DataInputStream(firstInstanceClient.getInputStream()).readUTF());
+					});
+			assertFalse(other.tryLock());
+			assertEquals("early back", reply.get(10, TimeUnit.SECONDS));
+		} finally {
+			replied.countDown();
+		}
+		firstInstance.get(10, TimeUnit.SECONDS);
+	}
+
+	private static List<String> receivedWithQueueOf2(EarlyMessageOverflowPolicy policy) throws IOException, InterruptedException {
+		final EnqueueingFirstInstance enqueueing = newEnqueueing(2, policy);
+		for (int i = 1; i <= 3; i++)
+			enqueueing.onOtherInstanceStarted(client(String.valueOf(i)));
+
+		final List<String> received = new ArrayList<>();
+		enqueueing.setActualFirstInstance(client -> received.add(IOUtils.toString(client.getInputStream(), StandardCharsets.UTF_8)));
+		return received;
+	}
+
+	@Test(timeout = 10_000)
+	public void testStalledMessageTimesOut() throws IOException, InterruptedException {
+		final EnqueueingFirstInstance enqueueing = new EnqueueingFirstInstance(
+				10, 1024 * 1024, 1024, Duration.ofMillis(100), EarlyMessageOverflowPolicy.REJECT,
+				(s, c, t) -> { throw new AssertionError(t); },
+				MetricsListener.NOOP);
+
+		// never sends the end of its message, until its connection is closed
+		final CountDownLatch closed = new CountDownLatch(1);
+		final IpcClient stalled = new StreamIpcClient(new InputStream() {
+			@Override
+			public int read() throws IOException {
+				try {
+					closed.await();
+				} catch (InterruptedException ex) {
+					throw new InterruptedIOException();
+				}
+				return -1;
+			}
+		}) {
+			@Override
+			public void close() {
+				closed.countDown();
+			}
+		};
+		assertThrows(SocketTimeoutException.class, () -> enqueueing.onOtherInstanceStarted(stalled));
+
+		final List<String> received = new ArrayList<>();
+		enqueueing.setActualFirstInstance(client -> received.add(IOUtils.toString(client.getInputStream(), StandardCharsets.UTF_8)));
+		assertEquals(Collections.emptyList(), received);
+	}
+
+	@Test(timeout = 30_000)
+	public void testSlowStartupDoesNotExhaustExecutor() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId()).executorService(executor);
+
+		final int otherInstances = 5;
+		final CountDownLatch firstStarted = new CountDownLatch(1);
+		final CountDownLatch startupDone = new CountDownLatch(1);
+		final List<String> received = Collections.synchronizedList(new ArrayList<>());
+		final CompletableFuture<Void> firstInstance = CompletableFuture.runAsync(() -> {
+			try {
+				Unique4j.withConfig(config).requestSingleInstance(instance -> instance.firstInstance(ctx -> {
+					firstStarted.countDown();
+					startupDone.await();
+
+					ctx.otherInstancesListener(client -> received.add(new DataInputStream(client.getInputStream()).readUTF()));
+					// messages might still be in-flight, so wait for all of them before releasing the lock
+					return () -> {
+						while (received.size() < otherInstances)
+							Thread.sleep(10);
+					};
+				}));
+			} catch (IOException | ExecutionException e) {
+				throw new CompletionException(e);
+			}
+		});
+
+		try {
+			assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+			// more other instances than executor threads, while the first one is still starting up
+			for (int i = 0; i < otherInstances; i++) {
+				final String message = "message " + i;
+				final Unique4jLock other = Unique4j.withConfig(config).newLock(
+						otherInstanceClient -> {},
+						firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF(message));
+				assertFalse(other.tryLock());
+			}
+		} finally {
+			startupDone.countDown();
+		}
+
+		firstInstance.get(10, TimeUnit.SECONDS);
+		assertEquals(otherInstances, received.size());
+		executor.shutdownNow();
+	}
+
+	private static EnqueueingFirstInstance newEnqueueing(int queueSize, EarlyMessageOverflowPolicy policy) {
+		return newEnqueueing(queueSize, 1024 * 1024, policy);
+	}
+
+	private static EnqueueingFirstInstance newEnqueueing(int queueSize, int queueMaxBytes, EarlyMessageOverflowPolicy policy) {
+		return new EnqueueingFirstInstance(queueSize, queueMaxBytes, 1024, Duration.ofSeconds(10), policy, (s, c, t) -> { throw new AssertionError(t); }, MetricsListener.NOOP);
+	}
+
+	private static IpcClient client(String message) {
+		return new StreamIpcClient(new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static class StreamIpcClient implements IpcClient {
+
+		private final InputStream is;
+
+		StreamIpcClient(InputStream is) {
+			this.is = is;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return is;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return new ByteArrayOutputStream();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
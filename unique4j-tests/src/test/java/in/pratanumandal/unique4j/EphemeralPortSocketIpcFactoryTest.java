@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EphemeralPortSocketIpcFactoryTest {
+
+	@Test
+	public void testCorruptedEndpointFile() throws IOException {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(new EphemeralPortSocketIpcFactory());
+
+		final File file = new File(config.lockFolder(), EphemeralPortSocketIpcFactory.ENDPOINT_FILE_NAME);
+		// create a corrupted endpoint file
+		FileUtils.writeStringToFile(file, "abcdefghi\njklmnop\n\rqrst", StandardCharsets.UTF_8);
+
+		// create instance of Unique
+		Unique4jLock unique4j = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {});
+
+		// try to obtain lock
+		assertTrue(unique4j.tryLock());
+		// try to free the lock before exiting program
+		unique4j.unlock();
+	}
+
+	@Test
+	public void testEndpointFile() throws IOException {
+		final EphemeralPortSocketIpcFactory ipcFactory = new EphemeralPortSocketIpcFactory();
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId()).ipcFactory(ipcFactory);
+
+		final Unique4jLock unique4j = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {});
+
+		assertTrue(unique4j.tryLock());
+		try {
+			final File file = new File(config.lockFolder(), EphemeralPortSocketIpcFactory.ENDPOINT_FILE_NAME);
+			assertEquals(EphemeralPortSocketIpcFactory.RECORD_SIZE, file.length());
+			assertEquals(ipcFactory.getPort(), EphemeralPortSocketIpcFactory.readEndpointRecord(file.toPath()));
+
+			// no temp file should be left behind
+			final String[] files = config.lockFolder().list((dir, name) -> name.endsWith(".tmp"));
+			assertArrayEquals(new String[0], files != null ? files : new String[0]);
+		} finally {
+			unique4j.unlock();
+		}
+
+		assertFalse(Arrays.asList(config.lockFolder().list()).contains(EphemeralPortSocketIpcFactory.ENDPOINT_FILE_NAME));
+	}
+}
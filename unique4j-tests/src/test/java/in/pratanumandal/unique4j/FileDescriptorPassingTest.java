@@ -0,0 +1,158 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.junixsocket.AFUNIXSocketIpcFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class FileDescriptorPassingTest {
+
+	@Parameterized.Parameters(name = "compressionEnabled={0}")
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] { { false }, { true } });
+	}
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final boolean compressionEnabled;
+
+	public FileDescriptorPassingTest(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	private Unique4jConfig createConfig(IpcFactory ipcFactory) {
+		return Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(ipcFactory)
+				.compressionEnabled(compressionEnabled);
+	}
+
+	@Test(timeout = 10_000)
+	public void testPassFiles() throws IOException {
+		final Unique4jConfig config = createConfig(new AFUNIXSocketIpcFactory());
+		final File toRead = temporaryFolder.newFile();
+		Files.write(toRead.toPath(), "read by the first instance".getBytes(StandardCharsets.UTF_8));
+		final File toWrite = temporaryFolder.newFile();
+
+		final AtomicReference<String> received = new AtomicReference<>();
+		final AtomicReference<String> reply = new AtomicReference<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {
+					final FramedIpcClient client = new FramedIpcClient(otherInstanceClient);
+					final String before = new String(client.receive(), StandardCharsets.UTF_8);
+
+					// takes them over, without knowing where they come from
+					final FileDescriptor[] fds = client.receiveFileDescriptors();
+					assertEquals(2, fds.length);
+					try (InputStream is = new FileInputStream(fds[0]);
+						 OutputStream os = new FileOutputStream(fds[1])) {
+						final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						final byte[] buffer = new byte[1024];
+						int read;
+						while ((read = is.read(buffer)) >= 0)
+							bytes.write(buffer, 0, read);
+						received.set(before + ": " + new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+						os.write("written by the first instance".getBytes(StandardCharsets.UTF_8));
+					}
+
+					client.send("done".getBytes(StandardCharsets.UTF_8));
+				},
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {
+					final FramedIpcClient client = new FramedIpcClient(firstInstanceClient);
+					client.send("files".getBytes(StandardCharsets.UTF_8));
+					// already closed on this side, by the time the first instance uses them
+					try (FileInputStream is = new FileInputStream(toRead);
+						 FileOutputStream os = new FileOutputStream(toWrite)) {
+						client.sendFileDescriptors(is.getFD(), os.getFD());
+					}
+					reply.set(new String(client.receive(), StandardCharsets.UTF_8));
+				});
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertEquals("done", reply.get());
+			assertEquals("files: read by the first instance", received.get());
+			assertEquals("written by the first instance", new String(Files.readAllBytes(toWrite.toPath()), StandardCharsets.UTF_8));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void testDataInsteadOfFileDescriptors() throws IOException, InterruptedException {
+		final Unique4jConfig config = createConfig(new AFUNIXSocketIpcFactory());
+
+		final BlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> failures.add(assertThrows(IOException.class, otherInstanceClient::receiveFileDescriptors)),
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> new FramedIpcClient(firstInstanceClient).send("no files".getBytes(StandardCharsets.UTF_8)));
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertNotNull(failures.poll(5, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void testUnsupported() throws IOException {
+		final Unique4jConfig config = createConfig(new EphemeralPortSocketIpcFactory(InetAddress.getLoopbackAddress()));
+
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(otherInstanceClient -> {}, firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> failure.set(assertThrows(UnsupportedOperationException.class,
+						() -> firstInstanceClient.sendFileDescriptors(FileDescriptor.in))));
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertNotNull(failure.get());
+		} finally {
+			first.unlock();
+		}
+	}
+}
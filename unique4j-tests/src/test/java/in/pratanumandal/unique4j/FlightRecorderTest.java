@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+public class FlightRecorderTest {
+
+	private static final String[] EVENTS = {
+			"in.pratanumandal.unique4j.FileLock",
+			"in.pratanumandal.unique4j.ServerBind",
+			"in.pratanumandal.unique4j.ConnectionAccepted",
+			"in.pratanumandal.unique4j.Handshake",
+			"in.pratanumandal.unique4j.Handler",
+			"in.pratanumandal.unique4j.Unlock",
+	};
+
+	@Test(timeout = 30_000)
+	public void testLifecycleEvents() throws IOException, InterruptedException {
+		final String appId = getAppId();
+		final Unique4jConfig config = Unique4jConfig.createDefault(appId);
+
+		final CountDownLatch handled = new CountDownLatch(1);
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {
+					new DataInputStream(otherInstanceClient.getInputStream()).readUTF();
+					handled.countDown();
+				},
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello"));
+
+		final Path dump = Files.createTempFile("unique4j", ".jfr");
+		try (Recording recording = new Recording()) {
+			for (String event : EVENTS)
+				recording.enable(event);
+			recording.start();
+
+			assertTrue(first.tryLock());
+			try {
+				assertFalse(other.tryLock());
+				assertTrue(handled.await(10, TimeUnit.SECONDS));
+			} finally {
+				first.unlock();
+			}
+
+			recording.stop();
+			recording.dump(dump);
+
+			final Map<String, List<RecordedEvent>> events = RecordingFile.readAllEvents(dump).stream()
+					.filter(event -> appId.equals(event.getString("appId")))
+					.collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+			for (String event : EVENTS)
+				assertTrue("Missing " + event + " in " + events.keySet(), events.containsKey(event));
+
+			final List<RecordedEvent> fileLocks = events.get("in.pratanumandal.unique4j.FileLock");
+			assertTrue(fileLocks.stream().anyMatch(event -> event.getBoolean("success")));
+			assertTrue(fileLocks.stream().anyMatch(event -> !event.getBoolean("success")));
+
+			final List<RecordedEvent> handshakes = events.get("in.pratanumandal.unique4j.Handshake");
+			assertTrue(handshakes.stream().anyMatch(event -> event.getBoolean("firstInstance") && event.getBoolean("success")));
+			assertTrue(handshakes.stream().anyMatch(event -> !event.getBoolean("firstInstance") && event.getBoolean("success")));
+		} finally {
+			Files.deleteIfExists(dump);
+		}
+	}
+}
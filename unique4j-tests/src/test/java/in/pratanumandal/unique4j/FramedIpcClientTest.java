@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+public class FramedIpcClientTest {
+
+	@Test
+	public void testFrames() throws IOException {
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		final FramedIpcClient sender = new FramedIpcClient(new StreamIpcClient(new ByteArrayInputStream(new byte[0]), sent));
+
+		final byte[] bigMessage = new byte[100_000];
+		ThreadLocalRandom.current().nextBytes(bigMessage);
+
+		sender.send("hello".getBytes(StandardCharsets.UTF_8));
+		sender.send(new byte[0]);
+		sender.send(ByteBuffer.wrap("xxworldxx".getBytes(StandardCharsets.UTF_8), 2, 5));
+		sender.send(bigMessage);
+		assertEquals(4 + 5 + 4 + 4 + 5 + 4 + bigMessage.length, sent.size());
+
+		final FramedIpcClient receiver = new FramedIpcClient(
+				new StreamIpcClient(new ByteArrayInputStream(sent.toByteArray()), new ByteArrayOutputStream()));
+		assertEquals("hello", new String(receiver.receive(), StandardCharsets.UTF_8));
+		assertEquals(0, receiver.receive().length);
+		assertEquals("world", new String(receiver.receive(), StandardCharsets.UTF_8));
+		assertArrayEquals(bigMessage, receiver.receive());
+		assertThrows(EOFException.class, receiver::receive);
+	}
+
+	@Test
+	public void testMaxFrameSize() throws IOException {
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		new FramedIpcClient(new StreamIpcClient(new ByteArrayInputStream(new byte[0]), sent)).send(new byte[11]);
+
+		final FramedIpcClient sender = new FramedIpcClient(
+				new StreamIpcClient(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream()), 10);
+		assertThrows(IllegalArgumentException.class, () -> sender.send(new byte[11]));
+
+		final FramedIpcClient receiver = new FramedIpcClient(
+				new StreamIpcClient(new ByteArrayInputStream(sent.toByteArray()), new ByteArrayOutputStream()), 10);
+		assertThrows(IOException.class, receiver::receive);
+
+		// negative lengths can only come from corrupted frames
+		final FramedIpcClient corruptedReceiver = new FramedIpcClient(new StreamIpcClient(
+				new ByteArrayInputStream(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF }),
+				new ByteArrayOutputStream()));
+		assertThrows(IOException.class, corruptedReceiver::receive);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId());
+
+		final AtomicReference<String> reply = new AtomicReference<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {
+					final FramedIpcClient client = new FramedIpcClient(otherInstanceClient);
+					final String message = new String(client.receive(), StandardCharsets.UTF_8);
+					client.send((message + " back").getBytes(StandardCharsets.UTF_8));
+				},
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {
+					final FramedIpcClient client = new FramedIpcClient(firstInstanceClient);
+					client.send("hello".getBytes(StandardCharsets.UTF_8));
+					reply.set(new String(client.receive(), StandardCharsets.UTF_8));
+				});
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertEquals("hello back", reply.get());
+		} finally {
+			first.unlock();
+		}
+	}
+
+	private static class StreamIpcClient implements IpcClient {
+
+		private final InputStream is;
+		private final OutputStream os;
+
+		StreamIpcClient(InputStream is, OutputStream os) {
+			this.is = is;
+			this.os = os;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return is;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return os;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
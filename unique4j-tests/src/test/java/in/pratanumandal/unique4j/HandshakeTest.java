@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.*;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class HandshakeTest {
+
+	@Parameterized.Parameters(name = "nonBlockingServer={0}")
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] { { false }, { true } });
+	}
+
+	private final boolean nonBlockingServer;
+
+	public HandshakeTest(boolean nonBlockingServer) {
+		this.nonBlockingServer = nonBlockingServer;
+	}
+
+	private Unique4jConfig newConfig() {
+		return Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(new UnixSocketChannelIpcFactory())
+				.nonBlockingServer(nonBlockingServer);
+	}
+
+	@Test
+	public void testNegotiation() throws IOException {
+		final Unique4jConfig config = newConfig();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(otherInstanceClient -> {}, firstInstanceClient -> {});
+
+		assertTrue(first.tryLock());
+		try (IpcClient client = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId())) {
+			final Handshake.Negotiated negotiated = Handshake.connect(
+					config.appId(), false, false,
+					new DataInputStream(client.getInputStream()),
+					new DataOutputStream(client.getOutputStream()));
+			assertNotNull(negotiated);
+			assertEquals(Handshake.VERSION, negotiated.version);
+			assertFalse(negotiated.isSession());
+			// sessions are only offered by first instances with a session listener, and not needed for a message
+			assertFalse(negotiated.has(Handshake.CAPABILITY_SESSIONS));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testSessionRefused() throws IOException {
+		final Unique4jConfig config = newConfig();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(otherInstanceClient -> {}, firstInstanceClient -> {});
+
+		assertTrue(first.tryLock());
+		try (IpcClient client = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId())) {
+			Handshake.connect(
+					config.appId(), true, false,
+					new DataInputStream(client.getInputStream()),
+					new DataOutputStream(client.getOutputStream()));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testAppIdMismatch() throws IOException {
+		final Unique4jConfig config = newConfig();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(otherInstanceClient -> {}, firstInstanceClient -> {});
+
+		assertTrue(first.tryLock());
+		try (IpcClient client = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId())) {
+			assertNull(Handshake.connect(
+					config.appId() + "-other", false, false,
+					new DataInputStream(client.getInputStream()),
+					new DataOutputStream(client.getOutputStream())));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testLegacyOtherInstance() throws IOException, InterruptedException {
+		final Unique4jConfig config = newConfig();
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> received.add(new DataInputStream(otherInstanceClient.getInputStream()).readUTF()),
+				firstInstanceClient -> {});
+
+		assertTrue(first.tryLock());
+		try (IpcClient client = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId())) {
+			final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+			dos.writeInt(-1);
+			dos.flush();
+			assertEquals(config.appId(), new DataInputStream(client.getInputStream()).readUTF());
+
+			dos.writeUTF("from the past");
+			dos.flush();
+			client.shutdownOutput();
+			assertEquals("from the past", received.poll(10, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testLegacyFirstInstance() throws Exception {
+		final Unique4jConfig config = newConfig();
+		Files.createDirectories(config.lockFolder().toPath());
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (IpcServer server = config.ipcFactory().createIpcServer(config.lockFolder(), config.appId())) {
+			final Future<String> received = executor.submit(() -> {
+				try (IpcClient client = server.accept()) {
+					final DataInputStream dis = new DataInputStream(client.getInputStream());
+					final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+					// what released versions do: ignore the hello and reply with the app id
+					dis.readInt();
+					dos.writeUTF(config.appId());
+					dos.flush();
+					return dis.readUTF();
+				}
+			});
+
+			try (IpcClient client = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId())) {
+				final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+				assertSame(Handshake.Negotiated.LEGACY, Handshake.connect(
+						config.appId(), false, false,
+						new DataInputStream(client.getInputStream()),
+						dos));
+
+				// nothing else was sent during the handshake, so the message comes right after the hello
+				dos.writeUTF("to the past");
+				dos.flush();
+				assertEquals("to the past", received.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class KeyedLockTest {
+
+	private static final int KEYS = 50;
+
+	@Parameterized.Parameters
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] {
+				{ new EphemeralPortSocketIpcFactory(InetAddress.getLoopbackAddress()) },
+				{ new UnixSocketChannelIpcFactory() },
+		});
+	}
+
+	private final IpcFactory ipcFactory;
+
+	public KeyedLockTest(IpcFactory ipcFactory) {
+		this.ipcFactory = ipcFactory;
+	}
+
+	private Unique4jConfig newConfig() {
+		return Unique4jConfig.createDefault(getAppId()).ipcFactory(ipcFactory);
+	}
+
+	@Test
+	public void testKeysShareOneServer() throws IOException, InterruptedException {
+		final Unique4jConfig config = newConfig();
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		final Unique4jLock[] locks = new Unique4jLock[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			final String key = "workspace-" + i;
+			locks[i] = Unique4j.withConfig(config).newLock(
+					key,
+					otherInstanceClient -> received.add(key + ": " + new DataInputStream(otherInstanceClient.getInputStream()).readUTF()),
+					firstInstanceClient -> {});
+			assertTrue(locks[i].tryLock());
+		}
+
+		try {
+			assertEquals(1, Objects.requireNonNull(new File(config.lockFolder(), "servers").listFiles(File::isDirectory)).length);
+
+			for (int i = KEYS - 1; i >= 0; i--) {
+				final Unique4jLock other = Unique4j.withConfig(config).newLock(
+						"workspace-" + i,
+						otherInstanceClient -> fail("The key is already held"),
+						firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello"));
+				assertFalse(other.tryLock());
+				assertEquals("workspace-" + i + ": hello", received.poll(5, TimeUnit.SECONDS));
+			}
+
+			// releasing a key doesn't affect the other ones
+			locks[0].unlock();
+			final Unique4jLock relocked = Unique4j.withConfig(config).newLock("workspace-0", otherInstanceClient -> {}, firstInstanceClient -> {});
+			assertTrue(relocked.tryLock());
+			relocked.unlock();
+			locks[0] = null;
+
+			assertFalse(Unique4j.withConfig(config).newLock(
+					"workspace-1",
+					otherInstanceClient -> fail("The key is already held"),
+					firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("still there")
+			).tryLock());
+			assertEquals("workspace-1: still there", received.poll(5, TimeUnit.SECONDS));
+		} finally {
+			for (Unique4jLock lock : locks) {
+				if (lock != null)
+					lock.unlock();
+			}
+		}
+
+		// the server is closed along with the last key
+		assertEquals(0, Objects.requireNonNull(new File(config.lockFolder(), "servers").listFiles(File::isDirectory)).length);
+	}
+
+	@Test
+	public void testUnknownKey() throws IOException {
+		final Unique4jConfig config = newConfig();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock("held", otherInstanceClient -> {}, firstInstanceClient -> {});
+
+		assertTrue(first.tryLock());
+		try {
+			final File[] servers = Objects.requireNonNull(new File(config.lockFolder(), "servers").listFiles(File::isDirectory));
+			assertEquals(1, servers.length);
+
+			try (IpcClient client = config.ipcFactory().createIpcClient(servers[0], config.appId());
+				 DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+				 DataInputStream dis = new DataInputStream(client.getInputStream())) {
+				assertThrows(Handshake.UnknownKeyException.class,
+						() -> Handshake.connectKeyed(config.appId(), KeyedIpcServer.keyId("not held"), dis, dos));
+			}
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testStaleServersAreSwept() throws IOException {
+		final Unique4jConfig config = newConfig();
+		// left behind by a process which died
+		final File stale = new File(new File(config.lockFolder(), "servers"), "0123456789abcdef");
+		assertTrue(stale.mkdirs());
+		assertTrue(new File(stale, "server.lock").createNewFile());
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock("key", otherInstanceClient -> {}, firstInstanceClient -> {});
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(stale.exists());
+		} finally {
+			first.unlock();
+		}
+	}
+}
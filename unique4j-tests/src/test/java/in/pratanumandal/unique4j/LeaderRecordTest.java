@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+public class LeaderRecordTest {
+
+	@Test
+	public void testPublishedWhileLocked() throws Exception {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(new UnixSocketChannelIpcFactory())
+				.leaderHeartbeatInterval(Duration.ofMillis(10));
+		final File record = new File(config.lockFolder(), LeaderRecord.FILE_NAME);
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(client -> {}, client -> {});
+		assertTrue(first.tryLock());
+		try {
+			assertTrue(record.isFile());
+			// still fresh long after the heartbeat interval
+			Thread.sleep(200);
+			LeaderRecord.check(config.lockFolder());
+
+			final Unique4jLock other = Unique4j.withConfig(config).newLock(client -> {}, client -> {});
+			assertFalse(other.tryLock());
+		} finally {
+			first.unlock();
+		}
+
+		assertFalse(record.exists());
+	}
+
+	@Test(timeout = 10_000)
+	public void testWedgedLeader() throws Exception {
+		final long lastHeartbeat = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1);
+		final IOException ex = connectToFakeLeader(ProcessHandle.current().pid(), 0, lastHeartbeat);
+		assertTrue(ex.getMessage(), ex.getMessage().contains("not responding"));
+	}
+
+	@Test(timeout = 10_000)
+	public void testDeadLeader() throws Exception {
+		final String command = ProcessHandle.current().info().command().orElse("java");
+		final Process process = new ProcessBuilder(command, "-version").redirectErrorStream(true).start();
+		final long pid = process.pid();
+		final long startMillis = process.info().startInstant().map(i -> i.toEpochMilli()).orElse(0L);
+		process.getInputStream().transferTo(OutputStream.nullOutputStream());
+		process.waitFor();
+
+		final IOException ex = connectToFakeLeader(pid, startMillis, System.currentTimeMillis());
+		assertTrue(ex.getMessage(), ex.getMessage().contains("not running anymore"));
+	}
+
+	/**
+	 * Tries to lock while a fake first instance, which never answers, holds the lock,
+	 * so that it could only ever fail because of the record
+	 */
+	private IOException connectToFakeLeader(long pid, long startMillis, long heartbeatMillis) throws Exception {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(new UnixSocketChannelIpcFactory())
+				.retryPolicy(RetryPolicy.immediate(0));
+		config.lockFolder().mkdirs();
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		final List<IpcClient> accepted = new CopyOnWriteArrayList<>();
+		try (FileChannel lockChannel = FileChannel.open(
+				new File(config.lockFolder(), "app.lock").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			 FileLock ignored = lockChannel.lock();
+			 IpcServer server = config.ipcFactory().createIpcServer(config.lockFolder(), config.appId())) {
+			executor.submit(() -> {
+				while (!server.isClosed())
+					accepted.add(server.accept());
+				return null;
+			});
+			AtomicFiles.replace(
+					new File(config.lockFolder(), LeaderRecord.FILE_NAME).toPath(),
+					LeaderRecord.encode(pid, startMillis, 1000, heartbeatMillis, "fake"));
+
+			final Unique4jLock other = Unique4j.withConfig(config).newLock(client -> {}, client -> {});
+			try {
+				other.tryLock();
+				fail("Connected to a first instance which never answers");
+				return null;
+			} catch (IOException ex) {
+				assertTrue(accepted.isEmpty());
+				return ex;
+			}
+		} finally {
+			executor.shutdownNow();
+			for (IpcClient client : accepted)
+				client.close();
+		}
+	}
+}
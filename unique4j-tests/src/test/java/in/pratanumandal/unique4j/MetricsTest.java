@@ -0,0 +1,205 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class MetricsTest {
+
+	@Parameterized.Parameters
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] {
+				{ new EphemeralPortSocketIpcFactory(InetAddress.getLoopbackAddress()), false },
+				{ new UnixSocketChannelIpcFactory(), true }
+		});
+	}
+
+	private final IpcFactory ipcFactory;
+	private final boolean nonBlockingServer;
+
+	public MetricsTest(IpcFactory ipcFactory, boolean nonBlockingServer) {
+		this.ipcFactory = ipcFactory;
+		this.nonBlockingServer = nonBlockingServer;
+	}
+
+	@Test(timeout = 30_000)
+	public void testLockAndHandlerMetrics() throws IOException, InterruptedException {
+		final RecordingMetricsListener metrics = new RecordingMetricsListener();
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(ipcFactory)
+				.nonBlockingServer(nonBlockingServer)
+				.metricsListener(metrics);
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> new DataInputStream(otherInstanceClient.getInputStream()).readUTF(),
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {
+					final DataOutputStream dos = new DataOutputStream(firstInstanceClient.getOutputStream());
+					dos.writeUTF("hello");
+					dos.flush();
+					firstInstanceClient.shutdownOutput();
+				});
+
+		assertTrue(first.tryLock());
+		try {
+			assertEquals("lockAcquired 0", metrics.events.poll(10, TimeUnit.SECONDS));
+
+			assertFalse(other.tryLock());
+			// events of the two sides can interleave
+			final List<String> events = new CopyOnWriteArrayList<>();
+			for (int i = 0; i < 5; i++)
+				events.add(metrics.events.poll(10, TimeUnit.SECONDS));
+			assertTrue(events.toString(), events.containsAll(Arrays.asList(
+					"connectionAccepted", "connectedToFirstInstance",
+					"firstInstanceFound 0", "handlerStarted", "handlerFinished")));
+			assertTrue(events.indexOf("connectionAccepted") < events.indexOf("handlerStarted"));
+			assertTrue(events.indexOf("handlerStarted") < events.indexOf("handlerFinished"));
+			assertTrue(events.indexOf("connectedToFirstInstance") < events.indexOf("firstInstanceFound 0"));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test(timeout = 30_000)
+	public void testLockFailed() throws IOException, InterruptedException {
+		final RecordingMetricsListener metrics = new RecordingMetricsListener();
+
+		final File notAFolder = File.createTempFile("unique4j", ".tmp");
+		notAFolder.deleteOnExit();
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(ipcFactory)
+				.lockFolder(notAFolder)
+				.retryPolicy(RetryPolicy.immediate(2))
+				.metricsListener(metrics);
+
+		final Unique4jLock lock = Unique4j.withConfig(config).newLock(otherInstanceClient -> {}, firstInstanceClient -> {});
+		assertThrows(IOException.class, lock::tryLock);
+		assertEquals("lockFailed 2", metrics.events.poll(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testEarlyMessageQueuedTime() throws IOException, InterruptedException {
+		final RecordingMetricsListener metrics = new RecordingMetricsListener();
+		final EnqueueingFirstInstance enqueueing = new EnqueueingFirstInstance(
+				10, 1024 * 1024, 1024, Duration.ofSeconds(10), EarlyMessageOverflowPolicy.REJECT,
+				(s, c, t) -> { throw new AssertionError(t); },
+				metrics);
+
+		enqueueing.onOtherInstanceStarted(new IpcClient() {
+			@Override
+			public InputStream getInputStream() {
+				return new ByteArrayInputStream("early".getBytes(StandardCharsets.UTF_8));
+			}
+
+			@Override
+			public OutputStream getOutputStream() {
+				return new ByteArrayOutputStream();
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		Thread.sleep(50);
+		enqueueing.setActualFirstInstance(client -> {});
+
+		assertEquals("earlyMessageDelivered", metrics.events.poll());
+		assertTrue(metrics.earlyMessageQueuedNanos >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+	private static class RecordingMetricsListener implements MetricsListener {
+
+		final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+		volatile long earlyMessageQueuedNanos;
+
+		@Override
+		public void lockAcquired(long durationNanos, int retries) {
+			events.add("lockAcquired " + retries);
+		}
+
+		@Override
+		public void firstInstanceFound(long durationNanos, int retries) {
+			events.add("firstInstanceFound " + retries);
+		}
+
+		@Override
+		public void lockFailed(long durationNanos, int retries, Throwable cause) {
+			events.add("lockFailed " + retries);
+		}
+
+		@Override
+		public void connectedToFirstInstance(long connectNanos, long handshakeNanos) {
+			assertTrue(connectNanos >= 0);
+			assertTrue(handshakeNanos >= 0);
+			events.add("connectedToFirstInstance");
+		}
+
+		@Override
+		public void connectionAccepted() {
+			events.add("connectionAccepted");
+		}
+
+		@Override
+		public void acceptFailed(Throwable cause) {
+			events.add("acceptFailed");
+		}
+
+		@Override
+		public void handlerStarted() {
+			events.add("handlerStarted");
+		}
+
+		@Override
+		public void handlerFinished(long durationNanos) {
+			events.add("handlerFinished");
+		}
+
+		@Override
+		public void earlyMessageDelivered(long queuedNanos) {
+			earlyMessageQueuedNanos = queuedNanos;
+			events.add("earlyMessageDelivered");
+		}
+	}
+}
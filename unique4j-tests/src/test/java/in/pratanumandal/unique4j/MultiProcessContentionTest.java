@@ -0,0 +1,338 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.junixsocket.AFUNIXSocketIpcFactory;
+import in.pratanumandal.unique4j.sharedmemory.SharedMemoryIpcFactory;
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+/**
+ * Forks real JVMs which all call {@link Unique4jLock#tryLock()} at the same moment, like when a user opens
+ * a bunch of files at once, while randomly killing the leader, then checks that there was only ever one leader
+ * at a time and that every message acknowledged by a leader was actually received.
+ *
+ * Can be scaled up with the {@code unique4j.contention.processes}, {@code unique4j.contention.holdMillis}
+ * and {@code unique4j.contention.killProbability} system properties.
+ */
+@RunWith(Parameterized.class)
+public class MultiProcessContentionTest {
+
+	private static final int PROCESSES = Integer.getInteger("unique4j.contention.processes", 8);
+	private static final long HOLD_MILLIS = Long.getLong("unique4j.contention.holdMillis", 200);
+	private static final double KILL_PROBABILITY = Double.parseDouble(System.getProperty("unique4j.contention.killProbability", "0.5"));
+	private static final long TIMEOUT_SECONDS = 60;
+
+	private static final String LEADER_MARKER = "leader";
+
+	enum Transport {
+		DYNAMIC_PORT(() -> new DynamicPortSocketIpcFactory(InetAddress.getLoopbackAddress(), 3000)),
+		EPHEMERAL_PORT(() -> new EphemeralPortSocketIpcFactory(InetAddress.getLoopbackAddress())),
+		JUNIXSOCKET(AFUNIXSocketIpcFactory::new),
+		UNIX_SOCKET_CHANNEL(UnixSocketChannelIpcFactory::new),
+		SHARED_MEMORY(SharedMemoryIpcFactory::new);
+
+		final Supplier<IpcFactory> factory;
+
+		Transport(Supplier<IpcFactory> factory) {
+			this.factory = factory;
+		}
+	}
+
+	@Parameterized.Parameters(name = "{0}")
+	public static Collection<Object[]> data() {
+		final List<Object[]> data = new ArrayList<>();
+		for (Transport transport : Transport.values())
+			data.add(new Object[] { transport });
+		return data;
+	}
+
+	private final Transport transport;
+
+	public MultiProcessContentionTest(Transport transport) {
+		this.transport = transport;
+	}
+
+	@Test
+	public void testLaunchStorm() throws Exception {
+		// lock folders outlive the JVM, so make sure no other run ever used this one
+		final String appId = getAppId() + "-" + ProcessHandle.current().pid() + "-" + transport;
+		final Path marker = Unique4jConfig.createDefault(appId).lockFolder().toPath().resolve(LEADER_MARKER);
+
+		final BlockingQueue<String[]> events = new LinkedBlockingQueue<>();
+		final List<ChildProcess> children = new ArrayList<>();
+		final ScheduledExecutorService killer = Executors.newSingleThreadScheduledExecutor();
+		try {
+			for (int id = 0; id < PROCESSES; id++)
+				children.add(new ChildProcess(id, appId, events));
+
+			// wait for all the JVMs to be up, then let them go at the same time
+			int ready = 0;
+			while (ready < PROCESSES) {
+				final String[] event = pollEvent(events, children);
+				if (event[1].equals("READY"))
+					ready++;
+			}
+			for (ChildProcess child : children)
+				child.go();
+
+			final Set<Integer> killed = ConcurrentHashMap.newKeySet();
+			int done = 0;
+			while (done < PROCESSES) {
+				final String[] event = pollEvent(events, children);
+				switch (event[1]) {
+					case "LEADER":
+						if (ThreadLocalRandom.current().nextDouble() < KILL_PROBABILITY) {
+							final ChildProcess leader = children.get(Integer.parseInt(event[0]));
+							killer.schedule(
+									() -> killLeader(leader, marker, killed),
+									ThreadLocalRandom.current().nextLong(HOLD_MILLIS), TimeUnit.MILLISECONDS);
+						}
+						break;
+					case "EXITED":
+						done++;
+						break;
+				}
+			}
+
+			final List<Long> decisionNanos = new ArrayList<>();
+			final Set<String> received = new HashSet<>();
+			final Set<String> acknowledged = new HashSet<>();
+			int leaders = 0;
+			for (ChildProcess child : children) {
+				for (String line : child.output) {
+					final String[] tokens = line.split(" ");
+					switch (tokens[0]) {
+						case "VIOLATION":
+							fail("Two leaders at the same time: " + line + "\n" + dump(children));
+							break;
+						case "RECEIVED":
+							received.add(tokens[1]);
+							break;
+						case "DECISION":
+							decisionNanos.add(Long.parseLong(tokens[3]));
+							if (tokens[2].equals("leader"))
+								leaders++;
+							else
+								acknowledged.add(tokens[1]);
+							break;
+					}
+				}
+
+				if (!killed.contains(child.id)) {
+					assertEquals("Process " + child.id + " failed\n" + dump(children), 0, child.process.exitValue());
+					assertTrue("Process " + child.id + " never decided\n" + dump(children),
+							child.output.stream().anyMatch(line -> line.startsWith("DECISION ")));
+				}
+			}
+
+			assertTrue("No leader was ever elected", leaders > 0);
+			acknowledged.removeAll(received);
+			assertTrue("Lost messages from " + acknowledged + "\n" + dump(children), acknowledged.isEmpty());
+
+			Collections.sort(decisionNanos);
+			System.out.printf(Locale.ROOT,
+					"%s: %d processes, %d leaders (%d killed), time-to-decision p50=%.1fms p99=%.1fms max=%.1fms%n",
+					transport, PROCESSES, leaders, killed.size(),
+					percentile(decisionNanos, 0.5) / 1e6,
+					percentile(decisionNanos, 0.99) / 1e6,
+					decisionNanos.get(decisionNanos.size() - 1) / 1e6);
+		} finally {
+			killer.shutdownNow();
+			for (ChildProcess child : children)
+				child.process.destroyForcibly();
+		}
+	}
+
+	private static String[] pollEvent(BlockingQueue<String[]> events, List<ChildProcess> children) throws InterruptedException {
+		final String[] event = events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		if (event == null)
+			fail("Timed out waiting for the processes\n" + dump(children));
+		return event;
+	}
+
+	private static void killLeader(ChildProcess leader, Path marker, Set<Integer> killed) {
+		// the leader can't be replaced while it's alive, so remove its marker before killing it,
+		// which the next leader would otherwise find
+		try {
+			if (String.valueOf(leader.id).equals(Files.readString(marker)))
+				Files.deleteIfExists(marker);
+		} catch (IOException ex) {
+			// it was already released
+		}
+
+		killed.add(leader.id);
+		// Process#destroyForcibly() would also close the pipes, losing what it wrote but wasn't read yet
+		leader.process.toHandle().destroyForcibly();
+	}
+
+	private static long percentile(List<Long> sorted, double percentile) {
+		return sorted.get(Math.max(0, (int) Math.ceil(percentile * sorted.size()) - 1));
+	}
+
+	private static String dump(List<ChildProcess> children) {
+		final StringBuilder sb = new StringBuilder();
+		for (ChildProcess child : children)
+			sb.append("--- process ").append(child.id).append('\n').append(String.join("\n", child.output)).append('\n');
+		return sb.toString();
+	}
+
+	private final class ChildProcess {
+
+		final int id;
+		final Process process;
+		final List<String> output = new CopyOnWriteArrayList<>();
+
+		ChildProcess(int id, String appId, BlockingQueue<String[]> events) throws IOException {
+			this.id = id;
+			this.process = new ProcessBuilder(
+					Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+					"-cp", System.getProperty("java.class.path"),
+					Child.class.getName(),
+					transport.name(), appId, String.valueOf(id), String.valueOf(HOLD_MILLIS))
+					.redirectErrorStream(true)
+					.start();
+
+			final Thread reader = new Thread(() -> {
+				try (BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = br.readLine()) != null) {
+						output.add(line);
+						events.add(new String[] { String.valueOf(id), line.split(" ")[0] });
+					}
+				} catch (IOException ex) {
+					output.add("Failed to read output: " + ex);
+				}
+
+				try {
+					process.waitFor();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				events.add(new String[] { String.valueOf(id), "EXITED" });
+			}, "contention-reader-" + id);
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		void go() throws IOException {
+			final OutputStream os = process.getOutputStream();
+			os.write('\n');
+			os.flush();
+		}
+	}
+
+	/** Single instance of the storm, which reports what happens on its standard output */
+	public static final class Child {
+
+		private static final long DEADLINE_NANOS = TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS / 2);
+
+		public static void main(String[] args) throws Exception {
+			final Transport transport = Transport.valueOf(args[0]);
+			final String appId = args[1];
+			final String id = args[2];
+			final long holdMillis = Long.parseLong(args[3]);
+
+			final Unique4jConfig config = Unique4jConfig.createDefault(appId)
+					.ipcFactory(transport.factory.get())
+					.exceptionHandler((server, client, t) -> {});
+			final Path marker = config.lockFolder().toPath().resolve(LEADER_MARKER);
+
+			final Unique4jLock lock = Unique4j.withConfig(config).newLock(
+					otherInstanceClient -> {
+						final String message = new DataInputStream(otherInstanceClient.getInputStream()).readUTF();
+						// reported before acknowledging it, so an acknowledged message is never missing from the output
+						report("RECEIVED " + message);
+						otherInstanceClient.getOutputStream().write(1);
+						otherInstanceClient.getOutputStream().flush();
+					},
+					firstInstanceClient -> {
+						final DataOutputStream dos = new DataOutputStream(firstInstanceClient.getOutputStream());
+						dos.writeUTF(id);
+						dos.flush();
+						if (firstInstanceClient.getInputStream().read() != 1)
+							throw new EOFException("Leader died before acknowledging the message");
+					});
+
+			report("READY");
+			new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+
+			final long startNanos = System.nanoTime();
+			while (true) {
+				final boolean leader;
+				try {
+					leader = lock.tryLock();
+				} catch (IOException ex) {
+					// the leader went away while talking to it, which can only be told apart from a lost message
+					// by whoever is going to be the next leader
+					if (System.nanoTime() - startNanos > DEADLINE_NANOS) {
+						report("GAVE_UP " + id + " " + ex);
+						System.exit(1);
+					}
+					continue;
+				}
+
+				final long decisionNanos = System.nanoTime() - startNanos;
+				if (!leader) {
+					report("DECISION " + id + " other " + decisionNanos);
+					System.exit(0);
+				}
+
+				try {
+					Files.writeString(marker, id, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				} catch (FileAlreadyExistsException ex) {
+					report("VIOLATION " + id + " became leader while " + Files.readString(marker) + " still was");
+				}
+				report("DECISION " + id + " leader " + decisionNanos);
+				report("LEADER " + id);
+
+				Thread.sleep(holdMillis);
+
+				if (id.equals(readQuietly(marker)))
+					Files.deleteIfExists(marker);
+				lock.unlock();
+				System.exit(0);
+			}
+		}
+
+		private static synchronized void report(String line) {
+			System.out.println(line);
+			System.out.flush();
+		}
+
+		private static String readQuietly(Path file) {
+			try {
+				return Files.readString(file);
+			} catch (IOException ex) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+public class NonBlockingServerTest {
+
+	private static Unique4jConfig newConfig(ExecutorService executor) {
+		return Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(new UnixSocketChannelIpcFactory())
+				.executorService(executor)
+				.nonBlockingServer(true);
+	}
+
+	@Test
+	public void testMessage() throws IOException, InterruptedException {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final Unique4jConfig config = newConfig(executor);
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> received.add(new DataInputStream(otherInstanceClient.getInputStream()).readUTF()),
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello\nworld"));
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertEquals("hello\nworld", received.poll(10, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testReply() throws IOException {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final Unique4jConfig config = newConfig(executor);
+
+		final AtomicReference<String> reply = new AtomicReference<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {
+					final String message = new DataInputStream(otherInstanceClient.getInputStream()).readUTF();
+					new DataOutputStream(otherInstanceClient.getOutputStream()).writeUTF(message + " back");
+				},
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {
+					new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello");
+					// the message is only delivered once the whole of it was received
+					firstInstanceClient.shutdownOutput();
+					reply.set(new DataInputStream(firstInstanceClient.getInputStream()).readUTF());
+				});
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertEquals("hello back", reply.get());
+		} finally {
+			first.unlock();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testReplyWithoutShutdownOutput() throws IOException {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final Unique4jConfig config = newConfig(executor);
+
+		final AtomicReference<String> reply = new AtomicReference<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {
+					final String message = new DataInputStream(otherInstanceClient.getInputStream()).readUTF();
+					new DataOutputStream(otherInstanceClient.getOutputStream()).writeUTF(message + " back");
+				},
+				firstInstanceClient -> {
+					new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello");
+					// the message ends as soon as it waits for the reply
+					reply.set(new DataInputStream(firstInstanceClient.getInputStream()).readUTF());
+				});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {
+					new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello");
+					reply.set(new DataInputStream(firstInstanceClient.getInputStream()).readUTF());
+				});
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertEquals("hello back", reply.get());
+		} finally {
+			first.unlock();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testUnframedMessage() throws IOException, InterruptedException {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final Unique4jConfig config = newConfig(executor);
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> received.add(new DataInputStream(otherInstanceClient.getInputStream()).readUTF()),
+				firstInstanceClient -> {});
+
+		assertTrue(first.tryLock());
+		// an other instance which doesn't know about framing, so its message ends once it shuts down its output
+		try (IpcClient client = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId())) {
+			final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+			dos.writeInt(Handshake.hello(0));
+			dos.flush();
+			new DataInputStream(client.getInputStream()).readFully(new byte[Handshake.SERVER_HELLO_SIZE]);
+
+			dos.writeUTF("unframed");
+			dos.flush();
+			client.shutdownOutput();
+			assertEquals("unframed", received.poll(10, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSlowClientsDoNotPinThreads() throws IOException, InterruptedException {
+		// one thread for the selector loop, one for the handlers
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final Unique4jConfig config = newConfig(executor);
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> received.add(new DataInputStream(otherInstanceClient.getInputStream()).readUTF()),
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("not stuck"));
+
+		final List<IpcClient> slowClients = new ArrayList<>();
+		assertTrue(first.tryLock());
+		try {
+			// connect, do the handshake, then never send anything
+			for (int i = 0; i < 10; i++) {
+				final IpcClient client = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId());
+				slowClients.add(client);
+
+				final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+				dos.writeInt(-1);
+				dos.flush();
+				assertEquals(config.appId(), new DataInputStream(client.getInputStream()).readUTF());
+			}
+
+			assertFalse(other.tryLock());
+			assertEquals("not stuck", received.poll(10, TimeUnit.SECONDS));
+		} finally {
+			for (IpcClient client : slowClients)
+				client.close();
+			first.unlock();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testOversizedMessageIsRejected() throws IOException, InterruptedException {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final BlockingQueue<Throwable> exceptions = new LinkedBlockingQueue<>();
+		final Unique4jConfig config = newConfig(executor)
+				.maxMessageSize(1024 * 1024)
+				.exceptionHandler((server, client, t) -> exceptions.add(t));
+
+		final BlockingQueue<Integer> received = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> received.add(otherInstanceClient.getInputStream().available()),
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {
+					final byte[] chunk = new byte[64 * 1024];
+					try {
+						for (int written = 0; written <= config.maxMessageSize(); written += chunk.length)
+							firstInstanceClient.getOutputStream().write(chunk);
+						firstInstanceClient.shutdownOutput();
+					} catch (IOException ex) {
+						// the first instance may close the connection before the whole message was written
+					}
+				});
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+
+			final Throwable t = exceptions.poll(10, TimeUnit.SECONDS);
+			assertTrue(String.valueOf(t), t instanceof IOException);
+			assertTrue(t.getMessage(), t.getMessage().contains("exceeds the max size"));
+			assertNull(received.poll(1, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+			executor.shutdownNow();
+		}
+	}
+}
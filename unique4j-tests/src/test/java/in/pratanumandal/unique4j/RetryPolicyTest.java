@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+	@Test
+	public void testImmediate() {
+		final RetryPolicy policy = RetryPolicy.immediate(3);
+		assertEquals(0, policy.nextRetryDelayNanos(0, 0));
+		assertEquals(0, policy.nextRetryDelayNanos(2, Long.MAX_VALUE));
+		assertTrue(policy.nextRetryDelayNanos(3, 0) < 0);
+	}
+
+	@Test
+	public void testExponentialBackoff() {
+		final ExponentialBackoffRetryPolicy policy = RetryPolicy.exponentialBackoff()
+				.withInitialDelay(Duration.ofMillis(10))
+				.withMaxDelay(Duration.ofMillis(100))
+				.withMultiplier(2)
+				.withJitter(0)
+				.withDeadline(Duration.ofSeconds(1));
+
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(10), policy.nextRetryDelayNanos(0, 0));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(20), policy.nextRetryDelayNanos(1, 0));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(80), policy.nextRetryDelayNanos(3, 0));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), policy.nextRetryDelayNanos(4, 0));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), policy.nextRetryDelayNanos(Integer.MAX_VALUE, 0));
+		// never sleep past the deadline
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(5), policy.nextRetryDelayNanos(4, TimeUnit.MILLISECONDS.toNanos(995)));
+		assertTrue(policy.nextRetryDelayNanos(0, TimeUnit.SECONDS.toNanos(1)) < 0);
+	}
+
+	@Test
+	public void testExponentialBackoffJitter() {
+		final ExponentialBackoffRetryPolicy policy = RetryPolicy.exponentialBackoff()
+				.withInitialDelay(Duration.ofMillis(100))
+				.withMaxDelay(Duration.ofMillis(100))
+				.withJitter(0.5);
+
+		for (int i = 0; i < 1000; i++) {
+			final long delay = policy.nextRetryDelayNanos(i, 0);
+			assertTrue(delay >= TimeUnit.MILLISECONDS.toNanos(50));
+			assertTrue(delay <= TimeUnit.MILLISECONDS.toNanos(100));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidJitter() {
+		RetryPolicy.exponentialBackoff().withJitter(2);
+	}
+
+	@Test
+	public void testWakeOnLockFolderChange() throws IOException, InterruptedException {
+		final Unique4jConfig config = newWakeOnLockFolderChangeConfig();
+		assertWokenUpOnUnlock(
+				Unique4j.withConfig(config).newLock(
+						otherInstanceClient -> {},
+						firstInstanceClient -> {}),
+				Unique4j.withConfig(config).newLock(
+						otherInstanceClient -> {},
+						firstInstanceClient -> {}),
+				new File(config.lockFolder(), EphemeralPortSocketIpcFactory.ENDPOINT_FILE_NAME));
+	}
+
+	@Test
+	public void testWakeOnKeyedLockFolderChange() throws IOException, InterruptedException {
+		final Unique4jConfig config = newWakeOnLockFolderChangeConfig();
+		// keyed lock files are in a folder of their own, which has to be watched instead
+		assertWokenUpOnUnlock(
+				Unique4j.withConfig(config).newLock("key",
+						otherInstanceClient -> {},
+						firstInstanceClient -> {}),
+				Unique4j.withConfig(config).newLock("key",
+						otherInstanceClient -> {},
+						firstInstanceClient -> {}),
+				new File(new File(config.lockFolder(), "keys"), KeyedIpcServer.keyFileName(KeyedIpcServer.keyId("key")) + ".server"));
+	}
+
+	private static Unique4jConfig newWakeOnLockFolderChangeConfig() {
+		return Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(new EphemeralPortSocketIpcFactory())
+				.retryPolicy(RetryPolicy.exponentialBackoff()
+						.withInitialDelay(Duration.ofSeconds(30))
+						.withMaxDelay(Duration.ofSeconds(30))
+						.withJitter(0)
+						.withDeadline(Duration.ofSeconds(60))
+						.withWakeOnLockFolderChange(true));
+	}
+
+	/**
+	 * @param endpointFile file telling other instances where to find the first one,
+	 *                     corrupted so that the other instance has to wait to retry
+	 */
+	private static void assertWokenUpOnUnlock(Unique4jLock first, Unique4jLock second, File endpointFile)
+			throws IOException, InterruptedException {
+		assertTrue(first.tryLock());
+		try {
+			// make the first instance unreachable, so the other instance has to wait to retry
+			FileUtils.writeStringToFile(endpointFile, "corrupted", StandardCharsets.UTF_8);
+
+			final Thread unlocker = new Thread(() -> {
+				try {
+					Thread.sleep(500);
+					first.unlock();
+				} catch (InterruptedException | IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			unlocker.start();
+
+			// the policy would sleep for 30 seconds, but the first instance touching
+			// its lock file on unlock should wake it up way earlier
+			final long start = System.nanoTime();
+			assertTrue(second.tryLock());
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(15));
+			unlocker.join();
+		} finally {
+			if (first.isHeldByCurrentAppInstance())
+				first.unlock();
+			if (second.isHeldByCurrentAppInstance())
+				second.unlock();
+		}
+	}
+}
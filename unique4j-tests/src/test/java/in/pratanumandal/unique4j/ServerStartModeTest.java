@@ -0,0 +1,148 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+public class ServerStartModeTest {
+
+	@Test
+	public void testLockOnly() throws IOException {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.serverStartMode(ServerStartMode.LOCK_ONLY);
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> fail("No other instance should connect"),
+				firstInstanceClient -> fail("No first instance should be reachable"));
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> fail("No other instance should connect"),
+				firstInstanceClient -> fail("No first instance should be reachable"));
+
+		assertTrue(first.tryLock());
+		try {
+			try (IpcClient ignored = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId())) {
+				fail("No server should have been started");
+			} catch (IOException ex) {
+				// expected
+			}
+
+			assertFalse(other.tryLock());
+		} finally {
+			first.unlock();
+		}
+
+		assertTrue(other.tryLock());
+		other.unlock();
+	}
+
+	@Test
+	public void testDeferred() throws IOException, InterruptedException {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId());
+		final SlowServerIpcFactory slowFactory = new SlowServerIpcFactory(config.ipcFactory());
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(Unique4jConfig.createDefault(config.appId())
+				.ipcFactory(slowFactory)
+				.serverStartMode(ServerStartMode.DEFERRED)).newLock(
+				otherInstanceClient -> received.add(new DataInputStream(otherInstanceClient.getInputStream()).readUTF()),
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello"));
+
+		assertTrue(first.tryLock());
+		try {
+			// the lock is returned while the server is still binding
+			assertEquals(1, slowFactory.started.getCount());
+
+			// arrives during the gap, and retries until the server is up
+			assertFalse(other.tryLock());
+			assertEquals(0, slowFactory.started.getCount());
+			assertEquals("hello", received.poll(10, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testDeferredUnlockWhileStarting() throws IOException {
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId());
+		final SlowServerIpcFactory slowFactory = new SlowServerIpcFactory(config.ipcFactory());
+
+		final Unique4jLock first = Unique4j.withConfig(Unique4jConfig.createDefault(config.appId())
+				.ipcFactory(slowFactory)
+				.serverStartMode(ServerStartMode.DEFERRED)).newLock(otherInstanceClient -> {}, firstInstanceClient -> {});
+
+		assertTrue(first.tryLock());
+		first.unlock();
+
+		// unlocking waited for the server to start, and then closed it
+		assertEquals(0, slowFactory.started.getCount());
+		try (IpcClient ignored = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId())) {
+			fail("The server should have been closed");
+		} catch (IOException ex) {
+			// expected
+		}
+
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(otherInstanceClient -> {}, firstInstanceClient -> {});
+		assertTrue(other.tryLock());
+		other.unlock();
+	}
+
+	private static class SlowServerIpcFactory implements IpcFactory {
+
+		private static final long BIND_DELAY_MILLIS = 500;
+
+		private final IpcFactory delegate;
+		final CountDownLatch started = new CountDownLatch(1);
+
+		SlowServerIpcFactory(IpcFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public IpcServer createIpcServer(File parentDirectory, String appId) throws IOException {
+			try {
+				Thread.sleep(BIND_DELAY_MILLIS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException(ex);
+			}
+
+			final IpcServer server = delegate.createIpcServer(parentDirectory, appId);
+			started.countDown();
+			return server;
+		}
+
+		@Override
+		public IpcClient createIpcClient(File parentDirectory, String appId) throws IOException {
+			return delegate.createIpcClient(parentDirectory, appId);
+		}
+	}
+}
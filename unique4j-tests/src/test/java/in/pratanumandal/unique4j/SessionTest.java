@@ -0,0 +1,392 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.junixsocket.AFUNIXSocketIpcFactory;
+import in.pratanumandal.unique4j.sharedmemory.SharedMemoryIpcFactory;
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class SessionTest {
+
+	@Parameterized.Parameters
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] {
+				{ new EphemeralPortSocketIpcFactory(InetAddress.getLoopbackAddress()), false },
+				{ new AFUNIXSocketIpcFactory(), false },
+				{ new UnixSocketChannelIpcFactory(), false },
+				{ new UnixSocketChannelIpcFactory(), true },
+				{ new SharedMemoryIpcFactory(), false }
+		});
+	}
+
+	private final IpcFactory ipcFactory;
+	private final boolean nonBlockingServer;
+
+	public SessionTest(IpcFactory ipcFactory, boolean nonBlockingServer) {
+		this.ipcFactory = ipcFactory;
+		this.nonBlockingServer = nonBlockingServer;
+	}
+
+	private Unique4jConfig newConfig() {
+		return Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(ipcFactory)
+				.nonBlockingServer(nonBlockingServer)
+				.sessionKeepaliveInterval(Duration.ofMillis(100))
+				.sessionIdleTimeout(Duration.ofMillis(500));
+	}
+
+	@Test
+	public void testBidirectional() throws IOException, InterruptedException {
+		final Unique4jConfig config = newConfig();
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {},
+				new SessionListener() {
+					@Override
+					public void onOpen(IpcSession session) throws IOException {
+						session.send(bytes("welcome"));
+					}
+
+					@Override
+					public void onMessage(IpcSession session, byte[] message) throws IOException {
+						session.send(bytes("echo " + string(message)));
+					}
+				});
+
+		assertTrue(first.tryLock());
+		try (IpcSession session = Unique4j.withConfig(config).openSession(messageQueue(otherReceived))) {
+			assertEquals("welcome", otherReceived.poll(10, TimeUnit.SECONDS));
+			for (int i = 0; i < 10; i++) {
+				session.send(bytes("message " + i));
+				assertEquals("echo message " + i, otherReceived.poll(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testKeepalive() throws IOException, InterruptedException {
+		final Unique4jConfig config = newConfig();
+
+		final BlockingQueue<IpcSession> firstClosed = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {},
+				new SessionListener() {
+					@Override
+					public void onMessage(IpcSession session, byte[] message) throws IOException {
+						session.send(message);
+					}
+
+					@Override
+					public void onClose(IpcSession session) {
+						firstClosed.add(session);
+					}
+				});
+
+		assertTrue(first.tryLock());
+		try (IpcSession session = Unique4j.withConfig(config).openSession(messageQueue(otherReceived))) {
+			// way longer than the idle timeout, but keepalives are sent by both sides
+			Thread.sleep(1500);
+			assertTrue(session.isOpen());
+			assertTrue(firstClosed.isEmpty());
+
+			session.send(bytes("still there?"));
+			assertEquals("still there?", otherReceived.poll(10, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testIdleReaping() throws IOException, InterruptedException {
+		final Unique4jConfig config = newConfig();
+
+		final BlockingQueue<IpcSession> firstClosed = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {},
+				new SessionListener() {
+					@Override
+					public void onMessage(IpcSession session, byte[] message) {
+					}
+
+					@Override
+					public void onClose(IpcSession session) {
+						firstClosed.add(session);
+					}
+				});
+
+		assertTrue(first.tryLock());
+		try (IpcClient client = config.ipcFactory().createIpcClient(config.lockFolder(), config.appId())) {
+			// open a session, then never send anything, not even keepalives
+			final Handshake.Negotiated negotiated = Handshake.connect(
+					config.appId(), true, false,
+					new DataInputStream(client.getInputStream()),
+					new DataOutputStream(client.getOutputStream()));
+			assertNotNull(negotiated);
+			assertTrue(negotiated.isSession());
+
+			final IpcSession reaped = firstClosed.poll(10, TimeUnit.SECONDS);
+			assertNotNull(reaped);
+			assertFalse(reaped.isOpen());
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testReconnect() throws IOException, InterruptedException {
+		final Unique4jConfig config = newConfig();
+
+		final BlockingQueue<String> firstReceived = new LinkedBlockingQueue<>();
+		final BlockingQueue<IpcSession> firstOpened = new LinkedBlockingQueue<>();
+		final SessionListener firstListener = new SessionListener() {
+			@Override
+			public void onOpen(IpcSession session) {
+				firstOpened.add(session);
+			}
+
+			@Override
+			public void onMessage(IpcSession session, byte[] message) {
+				firstReceived.add(string(message));
+			}
+		};
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(otherInstanceClient -> {}, firstInstanceClient -> {}, firstListener);
+		final Unique4jLock restarted = Unique4j.withConfig(config).newLock(otherInstanceClient -> {}, firstInstanceClient -> {}, firstListener);
+
+		final BlockingQueue<IpcSession> otherOpened = new LinkedBlockingQueue<>();
+		assertTrue(first.tryLock());
+		try (IpcSession session = Unique4j.withConfig(config).openSession(new SessionListener() {
+			@Override
+			public void onOpen(IpcSession session) {
+				otherOpened.add(session);
+			}
+
+			@Override
+			public void onMessage(IpcSession session, byte[] message) {
+			}
+		})) {
+			assertNotNull(otherOpened.poll(10, TimeUnit.SECONDS));
+			assertNotNull(firstOpened.poll(10, TimeUnit.SECONDS));
+			session.send(bytes("before"));
+			assertEquals("before", firstReceived.poll(10, TimeUnit.SECONDS));
+
+			// restart the first instance
+			first.unlock();
+			assertTrue(restarted.tryLock());
+
+			assertNotNull(otherOpened.poll(10, TimeUnit.SECONDS));
+			assertNotNull(firstOpened.poll(10, TimeUnit.SECONDS));
+			assertTrue(session.isOpen());
+			session.send(bytes("after"));
+			assertEquals("after", firstReceived.poll(10, TimeUnit.SECONDS));
+		} finally {
+			if (first.isHeldByCurrentAppInstance())
+				first.unlock();
+			if (restarted.isHeldByCurrentAppInstance())
+				restarted.unlock();
+		}
+	}
+
+	@Test
+	public void testRefused() throws IOException {
+		final Unique4jConfig config = newConfig().retryPolicy(RetryPolicy.immediate(0));
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(otherInstanceClient -> {}, firstInstanceClient -> {});
+		assertTrue(first.tryLock());
+		try {
+			assertThrows(IOException.class, () -> Unique4j.withConfig(config).openSession((session, message) -> {}));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testBroadcast() throws IOException, InterruptedException {
+		final Unique4jConfig config = newConfig();
+
+		final CountDownLatch opened = new CountDownLatch(2);
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {},
+				new SessionListener() {
+					@Override
+					public void onOpen(IpcSession session) {
+						opened.countDown();
+					}
+
+					@Override
+					public void onMessage(IpcSession session, byte[] message) {
+					}
+				});
+
+		final BlockingQueue<String> otherReceived2 = new LinkedBlockingQueue<>();
+		assertTrue(first.tryLock());
+		try (IpcSession session1 = Unique4j.withConfig(config).openSession(messageQueue(otherReceived));
+			 IpcSession session2 = Unique4j.withConfig(config).openSession(messageQueue(otherReceived2))) {
+			assertTrue(opened.await(10, TimeUnit.SECONDS));
+
+			for (int i = 0; i < 10; i++)
+				assertEquals(2, first.broadcast(bytes("broadcast " + i)));
+			for (int i = 0; i < 10; i++) {
+				assertEquals("broadcast " + i, otherReceived.poll(10, TimeUnit.SECONDS));
+				assertEquals("broadcast " + i, otherReceived2.poll(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testBroadcastSlowConsumer() throws IOException, InterruptedException {
+		final AtomicInteger overflows = new AtomicInteger();
+		final Unique4jConfig config = newConfig()
+				// don't let the slow consumer be reaped as idle instead
+				.sessionIdleTimeout(Duration.ofSeconds(30))
+				.broadcastQueueSize(2)
+				.broadcastOverflowPolicy(BroadcastOverflowPolicy.DISCONNECT)
+				.metricsListener(new MetricsListener() {
+					@Override
+					public void broadcastOverflowed() {
+						overflows.incrementAndGet();
+					}
+				});
+
+		final CountDownLatch opened = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {},
+				new SessionListener() {
+					@Override
+					public void onOpen(IpcSession session) {
+						opened.countDown();
+					}
+
+					@Override
+					public void onMessage(IpcSession session, byte[] message) {
+					}
+
+					@Override
+					public void onClose(IpcSession session) {
+						closed.countDown();
+					}
+				});
+
+		final CountDownLatch consumerRelease = new CountDownLatch(1);
+		assertTrue(first.tryLock());
+		try (IpcSession ignored = Unique4j.withConfig(config).openSession((session, message) -> {
+			try {
+				consumerRelease.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		})) {
+			assertTrue(opened.await(10, TimeUnit.SECONDS));
+
+			// way more than what fits in the buffers of any transport
+			final byte[] message = new byte[64 * 1024];
+			final long startNanos = System.nanoTime();
+			int sent = 0;
+			while (closed.getCount() > 0 && sent++ < 1000)
+				first.broadcast(message);
+
+			assertTrue("The slow consumer should have been disconnected", closed.await(10, TimeUnit.SECONDS));
+			assertTrue(overflows.get() > 0);
+			assertTrue("Broadcasting should never block on the slow consumer",
+					System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(5));
+		} finally {
+			consumerRelease.countDown();
+			first.unlock();
+		}
+	}
+
+	@Test
+	public void testSessionsDontHoldConnections() throws IOException, InterruptedException {
+		final Unique4jConfig config = newConfig().maxConcurrentConnections(1);
+
+		final CountDownLatch opened = new CountDownLatch(2);
+		final BlockingQueue<String> firstReceived = new LinkedBlockingQueue<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> firstReceived.add(new DataInputStream(otherInstanceClient.getInputStream()).readUTF()),
+				firstInstanceClient -> {},
+				new SessionListener() {
+					@Override
+					public void onOpen(IpcSession session) {
+						opened.countDown();
+					}
+
+					@Override
+					public void onMessage(IpcSession session, byte[] message) {
+					}
+				});
+
+		assertTrue(first.tryLock());
+		try (IpcSession session1 = Unique4j.withConfig(config).openSession(messageQueue(otherReceived));
+			 IpcSession session2 = Unique4j.withConfig(config).openSession(messageQueue(otherReceived))) {
+			assertTrue(opened.await(10, TimeUnit.SECONDS));
+
+			// open sessions don't count against the limit, so messages still get through
+			assertFalse(Unique4j.withConfig(config).newLock(
+					otherInstanceClient -> {},
+					firstInstanceClient -> new DataOutputStream(firstInstanceClient.getOutputStream()).writeUTF("hello")
+			).tryLock());
+			assertEquals("hello", firstReceived.poll(10, TimeUnit.SECONDS));
+		} finally {
+			first.unlock();
+		}
+	}
+
+	private final BlockingQueue<String> otherReceived = new LinkedBlockingQueue<>();
+
+	private static SessionListener messageQueue(BlockingQueue<String> queue) {
+		return (session, message) -> queue.add(string(message));
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(byte[] bytes) {
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.sharedmemory.SharedMemoryIpcFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+public class SharedMemoryIpcFactoryTest {
+
+	@Test(timeout = 30_000)
+	public void testPayloadBiggerThanRing() throws IOException {
+		// much smaller than the payload, so both sides have to wait for each other
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId()).ipcFactory(new SharedMemoryIpcFactory(1024));
+
+		final byte[] payload = new byte[1024 * 1024];
+		ThreadLocalRandom.current().nextBytes(payload);
+
+		final AtomicReference<byte[]> echoed = new AtomicReference<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {
+					final FramedIpcClient client = new FramedIpcClient(otherInstanceClient);
+					client.send(client.receive());
+				},
+				firstInstanceClient -> {});
+		final Unique4jLock other = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {},
+				firstInstanceClient -> {
+					final FramedIpcClient client = new FramedIpcClient(firstInstanceClient);
+					client.send(payload);
+					echoed.set(client.receive());
+				});
+
+		assertTrue(first.tryLock());
+		try {
+			assertFalse(other.tryLock());
+			assertArrayEquals(payload, echoed.get());
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test(timeout = 30_000)
+	public void testEndOfStream() throws IOException {
+		final File folder = Files.createTempDirectory("unique4j").toFile();
+
+		final SharedMemoryIpcFactory factory = new SharedMemoryIpcFactory();
+		try (IpcServer server = factory.createIpcServer(folder, "");
+			 IpcClient client = factory.createIpcClient(folder, "");
+			 IpcClient accepted = server.accept()) {
+
+			client.getOutputStream().write(new byte[] { 1, 2, 3 });
+			client.shutdownOutput();
+			assertArrayEquals(new byte[] { 1, 2, 3 }, accepted.getInputStream().readAllBytes());
+
+			// can still reply after the other side shut down its output
+			accepted.getOutputStream().write(4);
+			accepted.close();
+			assertEquals(4, client.getInputStream().read());
+			assertEquals(-1, client.getInputStream().read());
+			assertThrows(IOException.class, () -> client.getOutputStream().write(5));
+		}
+
+		// connection files are cleaned up
+		final String[] files = folder.list((dir, name) -> name.endsWith(".conn"));
+		assertNotNull(files);
+		assertEquals(0, files.length);
+	}
+
+	@Test(timeout = 30_000)
+	public void testCloseBeforeAccept() throws IOException {
+		final File folder = Files.createTempDirectory("unique4j").toFile();
+
+		final SharedMemoryIpcFactory factory = new SharedMemoryIpcFactory();
+		try (IpcServer server = factory.createIpcServer(folder, "")) {
+			try (IpcClient client = factory.createIpcClient(folder, "")) {
+				client.getOutputStream().write(new byte[] { 1, 2, 3 });
+			}
+
+			// what was written is still delivered once the server gets to accept the connection
+			try (IpcClient accepted = server.accept()) {
+				assertArrayEquals(new byte[] { 1, 2, 3 }, accepted.getInputStream().readAllBytes());
+			}
+
+			// while the ones the server never gets to accept are deleted once it's closed
+			factory.createIpcClient(folder, "").close();
+		}
+
+		final String[] files = folder.list((dir, name) -> name.endsWith(".conn"));
+		assertNotNull(files);
+		assertEquals(0, files.length);
+	}
+
+	@Test(timeout = 30_000)
+	public void testNoServer() throws IOException {
+		final File folder = Files.createTempDirectory("unique4j").toFile();
+
+		final SharedMemoryIpcFactory factory = new SharedMemoryIpcFactory();
+		assertThrows(IOException.class, () -> factory.createIpcClient(folder, ""));
+
+		factory.createIpcServer(folder, "").close();
+		assertThrows(IOException.class, () -> factory.createIpcClient(folder, ""));
+	}
+
+	@Test(timeout = 30_000)
+	public void testIdleSidesAreWokenUp() throws Exception {
+		final File folder = Files.createTempDirectory("unique4j").toFile();
+
+		final SharedMemoryIpcFactory factory = new SharedMemoryIpcFactory();
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (IpcServer server = factory.createIpcServer(folder, "")) {
+			// idle waits also wake up on their own every 100ms, 50ms later on average,
+			// so the total over a few rounds tells them apart from being woken up
+			long acceptNanos = 0;
+			long readNanos = 0;
+			for (int i = 0; i < 10; i++) {
+				final Future<IpcClient> accepted = executor.submit(server::accept);
+				Thread.sleep(150);
+
+				long start = System.nanoTime();
+				try (IpcClient client = factory.createIpcClient(folder, "");
+					 IpcClient serverClient = accepted.get()) {
+					acceptNanos += System.nanoTime() - start;
+
+					final Future<Integer> read = executor.submit(() -> serverClient.getInputStream().read());
+					Thread.sleep(150);
+
+					start = System.nanoTime();
+					client.getOutputStream().write(42);
+					assertEquals(42, (int) read.get());
+					readNanos += System.nanoTime() - start;
+				}
+			}
+
+			assertTrue("Accepts took " + acceptNanos + "ns", acceptNanos < TimeUnit.MILLISECONDS.toNanos(200));
+			assertTrue("Reads took " + readNanos + "ns", readNanos < TimeUnit.MILLISECONDS.toNanos(200));
+
+			// closing the server wakes up the accepting thread too
+			final Future<IpcClient> accepted = executor.submit(server::accept);
+			Thread.sleep(200);
+			server.close();
+			final ExecutionException ex = assertThrows(ExecutionException.class, () -> accepted.get(50, TimeUnit.MILLISECONDS));
+			assertTrue(String.valueOf(ex.getCause()), ex.getCause() instanceof IOException);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
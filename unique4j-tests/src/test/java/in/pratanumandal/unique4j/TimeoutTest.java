@@ -0,0 +1,222 @@
+/*
+ * Copyright 2022 Francesco Ferlin
+ * Copyright 2019 Pratanu Mandal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package in.pratanumandal.unique4j;
+
+import in.pratanumandal.unique4j.junixsocket.AFUNIXSocketIpcFactory;
+import in.pratanumandal.unique4j.sharedmemory.SharedMemoryIpcFactory;
+import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static in.pratanumandal.unique4j.Unique4jTest.getAppId;
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class TimeoutTest {
+
+	@Parameterized.Parameters(name = "{0}, nonBlockingServer={1}")
+	public static Collection<Object[]> data() {
+		return Arrays.asList(new Object[][] {
+				{ new EphemeralPortSocketIpcFactory(InetAddress.getLoopbackAddress()), false },
+				{ new AFUNIXSocketIpcFactory(), false },
+				{ new UnixSocketChannelIpcFactory(), false },
+				{ new UnixSocketChannelIpcFactory(), true },
+				{ new SharedMemoryIpcFactory(), false }
+		});
+	}
+
+	private final IpcFactory ipcFactory;
+	private final boolean nonBlockingServer;
+
+	public TimeoutTest(IpcFactory ipcFactory, boolean nonBlockingServer) {
+		this.ipcFactory = ipcFactory;
+		this.nonBlockingServer = nonBlockingServer;
+	}
+
+	private Unique4jConfig createConfig(AtomicInteger timedOut) {
+		return Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(ipcFactory)
+				.nonBlockingServer(nonBlockingServer)
+				.handshakeTimeout(Duration.ofMillis(300))
+				.readTimeout(Duration.ofMillis(300))
+				.messageBufferTimeout(Duration.ofMillis(300))
+				.retryPolicy(RetryPolicy.immediate(0))
+				.exceptionHandler((s, c, e) -> {})
+				.metricsListener(new MetricsListener() {
+					@Override
+					public void connectionTimedOut() {
+						timedOut.incrementAndGet();
+					}
+				});
+	}
+
+	@Test(timeout = 10_000)
+	public void testFirstInstanceNeverAnswers() throws Exception {
+		Assume.assumeFalse(nonBlockingServer);
+
+		final AtomicInteger timedOut = new AtomicInteger();
+		final Unique4jConfig config = createConfig(timedOut);
+		config.lockFolder().mkdirs();
+
+		// holds the lock and accepts, but never gets to answer
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		final List<IpcClient> accepted = new CopyOnWriteArrayList<>();
+		try (FileChannel lockChannel = FileChannel.open(
+				new File(config.lockFolder(), "app.lock").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			 FileLock ignored = lockChannel.lock();
+			 IpcServer server = ipcFactory.createIpcServer(config.lockFolder(), config.appId())) {
+			executor.submit(() -> {
+				while (!server.isClosed())
+					accepted.add(server.accept());
+				return null;
+			});
+
+			final Unique4jLock other = Unique4j.withConfig(config).newLock(client -> {}, client -> {});
+			try {
+				other.tryLock();
+				fail("Got an answer from a first instance which never answers");
+			} catch (SocketTimeoutException ex) {
+				// expected
+			}
+			assertEquals(1, timedOut.get());
+		} finally {
+			executor.shutdownNow();
+			for (IpcClient client : accepted)
+				client.close();
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void testOtherInstanceNeverSendsHello() throws Exception {
+		final AtomicInteger timedOut = new AtomicInteger();
+		final Unique4jConfig config = createConfig(timedOut);
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(client -> {}, client -> {});
+		assertTrue(first.tryLock());
+		try (IpcClient client = ipcFactory.createIpcClient(config.lockFolder(), config.appId())) {
+			// the first instance hangs up on it, instead of keeping a thread or a connection slot forever
+			try {
+				assertEquals(-1, client.getInputStream().read());
+			} catch (IOException ex) {
+				// just as good
+			}
+			assertEquals(1, timedOut.get());
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void testMessageNeverSent() throws Exception {
+		final AtomicInteger timedOut = new AtomicInteger();
+		final Unique4jConfig config = createConfig(timedOut);
+
+		final CompletableFuture<Throwable> readFailure = new CompletableFuture<>();
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(
+				otherInstanceClient -> {
+					try {
+						new DataInputStream(otherInstanceClient.getInputStream()).readUTF();
+						readFailure.complete(null);
+					} catch (IOException ex) {
+						readFailure.complete(ex);
+					}
+				},
+				firstInstanceClient -> {});
+		assertTrue(first.tryLock());
+		try {
+			final CountDownLatch release = new CountDownLatch(1);
+			final ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				final Future<Boolean> other = executor.submit(() -> Unique4j.withConfig(config).newLock(
+						otherInstanceClient -> {},
+						// connected, but stalls before sending anything
+						firstInstanceClient -> {
+							try {
+								release.await();
+							} catch (InterruptedException ex) {
+								Thread.currentThread().interrupt();
+							}
+						}
+				).tryLock());
+
+				if (nonBlockingServer) {
+					// the handler only runs once the whole message was received, so it never does
+					while (timedOut.get() == 0)
+						Thread.sleep(10);
+					assertFalse(readFailure.isDone());
+				} else {
+					assertTrue(readFailure.get() instanceof SocketTimeoutException);
+				}
+				assertEquals(1, timedOut.get());
+
+				release.countDown();
+				assertFalse(other.get());
+			} finally {
+				executor.shutdownNow();
+			}
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void testConnectToFullBacklog() throws Exception {
+		// junixsocket 2.4 ignores the connect timeout, and shared memory has no backlog
+		Assume.assumeTrue(ipcFactory instanceof SocketIpcFactory || ipcFactory instanceof SocketChannelIpcFactory);
+		Assume.assumeFalse(ipcFactory instanceof AFUNIXSocketIpcFactory);
+		Assume.assumeFalse(nonBlockingServer);
+
+		final Unique4jConfig config = createConfig(new AtomicInteger());
+		config.lockFolder().mkdirs();
+
+		final List<IpcClient> connected = new ArrayList<>();
+		try (IpcServer ignored = ipcFactory.createIpcServer(config.lockFolder(), config.appId(), 1)) {
+			// never accepted, so it fills up at some point, after which connecting fails instead of blocking forever
+			IOException failure = null;
+			for (int i = 0; i < 64 && failure == null; i++) {
+				try {
+					connected.add(ipcFactory.createIpcClient(config.lockFolder(), config.appId(), 300));
+				} catch (IOException ex) {
+					failure = ex;
+				}
+			}
+			assertNotNull(failure);
+		} finally {
+			for (IpcClient client : connected)
+				client.close();
+		}
+	}
+}
@@ -17,6 +17,7 @@
 package in.pratanumandal.unique4j;
 
 import in.pratanumandal.unique4j.junixsocket.AFUNIXSocketIpcFactory;
+import in.pratanumandal.unique4j.sharedmemory.SharedMemoryIpcFactory;
 import in.pratanumandal.unique4j.unixsocketchannel.UnixSocketChannelIpcFactory;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -24,8 +25,10 @@ import org.junit.runners.Parameterized;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -35,6 +38,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(Parameterized.class)
@@ -49,8 +53,10 @@ public class Unique4jTest {
 	public static Collection<Object[]> data() {
 		return Arrays.asList(new Object[][] {
 				{ new DynamicPortSocketIpcFactory(InetAddress.getLoopbackAddress(), 3000) },
+				{ new EphemeralPortSocketIpcFactory(InetAddress.getLoopbackAddress()) },
 				{ new AFUNIXSocketIpcFactory() },
-				{ new UnixSocketChannelIpcFactory() }
+				{ new UnixSocketChannelIpcFactory() },
+				{ new SharedMemoryIpcFactory() }
 		});
 	}
 
@@ -184,6 +190,29 @@ public class Unique4jTest {
 		}
 	}
 
+	@Test
+	public void testMissingLockFolder() throws IOException {
+		final File lockFolder = new File(Files.createTempDirectory("unique4j").toFile(), "nested/folder");
+		final Unique4jConfig config = Unique4jConfig.createDefault(getAppId())
+				.ipcFactory(ipcFactory)
+				.lockFolder(lockFolder)
+				.exceptionHandler((s, c, e) -> {});
+
+		final Unique4jLock first = Unique4j.withConfig(config).newLock(client -> {}, client -> {});
+		assertTrue(first.tryLock());
+		first.unlock();
+
+		// kept, so that it's the same file for everyone trying to lock it
+		final File lockFile = new File(lockFolder, "app.lock");
+		assertTrue(lockFile.isFile());
+
+		final Unique4jLock second = Unique4j.withConfig(config).newLock(client -> {}, client -> {});
+		assertTrue(second.tryLock());
+		second.unlock();
+		assertFalse(first.isHeldByCurrentAppInstance());
+		assertTrue(lockFile.isFile());
+	}
+
 	private Unique4jLock initializeUnique4j(Unique4jConfig config) throws IOException {
 
 		final AtomicReference<Unique4jLock> uniqueRef = new AtomicReference<>();
@@ -16,7 +16,12 @@ public class UnixSocketChannelIpcFactory extends SocketChannelIpcFactory {
 
     @Override
     public IpcServer createIpcServer(File parentDirectory, String appId) throws IOException {
-        return new SocketChannelIpcFactory.SocketChannelIpcServer(createServerSocket(parentDirectory, appId)) {
+        return createIpcServer(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public IpcServer createIpcServer(File parentDirectory, String appId, int backlog) throws IOException {
+        return new SocketChannelIpcFactory.SocketChannelIpcServer(createServerSocket(parentDirectory, appId, backlog)) {
             @Override
             public void close() throws IOException {
                 final Path file = isClosed() ?
@@ -32,21 +37,29 @@ public class UnixSocketChannelIpcFactory extends SocketChannelIpcFactory {
 
     @Override
     protected ServerSocketChannel createServerSocket(File parentDirectory, String appId) throws IOException {
+        return createServerSocket(parentDirectory, appId, 0);
+    }
+
+    @Override
+    protected ServerSocketChannel createServerSocket(File parentDirectory, String appId, int backlog) throws IOException {
         Path socketPath = parentDirectory.toPath().resolve("app.socket");
         Files.deleteIfExists(socketPath);
 
         UnixDomainSocketAddress socketAddress = UnixDomainSocketAddress.of(socketPath);
         ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
-        serverChannel.bind(socketAddress);
+        serverChannel.bind(socketAddress, backlog);
         return serverChannel;
     }
 
     @Override
     protected SocketChannel createClientSocket(File parentDirectory, String appId) throws IOException {
+        return createClientSocket(parentDirectory, appId, 0);
+    }
+
+    @Override
+    protected SocketChannel createClientSocket(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
         Path socketPath = parentDirectory.toPath().resolve("app.socket");
         UnixDomainSocketAddress socketAddress = UnixDomainSocketAddress.of(socketPath);
-        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
-        channel.connect(socketAddress);
-        return channel;
+        return connect(SocketChannel.open(StandardProtocolFamily.UNIX), socketAddress, connectTimeoutMillis);
     }
 }
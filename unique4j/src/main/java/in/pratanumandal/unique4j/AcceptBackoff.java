@@ -0,0 +1,29 @@
+package in.pratanumandal.unique4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delay before accepting again after {@code accept()} failed, doubling on each consecutive failure,
+ * so that errors which don't go away by themselves (ex. running out of file descriptors)
+ * don't turn the accept loop into a busy spin.
+ *
+ * Capped well below the time unlocking waits for the accept loop to stop.
+ */
+final class AcceptBackoff {
+
+    private static final long MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private long delayNanos;
+
+    /** Called after a failure, returns how long to wait */
+    long nextDelayNanos() {
+        delayNanos = delayNanos == 0 ? MIN_DELAY_NANOS : Math.min(delayNanos * 2, MAX_DELAY_NANOS);
+        return delayNanos;
+    }
+
+    /** Called after a successful accept */
+    void reset() {
+        delayNanos = 0;
+    }
+}
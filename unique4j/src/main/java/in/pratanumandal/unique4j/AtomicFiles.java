@@ -0,0 +1,40 @@
+package in.pratanumandal.unique4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/** Files which other instances read while they might be getting replaced */
+final class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    /** Replaces the content of the file, so that it's never seen half-written */
+    static void replace(Path file, ByteBuffer content) throws IOException {
+        // write it fully in a temp file in the same folder, then move it in place
+        final Path tmpFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+                while (content.hasRemaining())
+                    channel.write(content);
+            }
+
+            try {
+                Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+
+            try {
+                Files.deleteIfExists(tmpFile);
+            } catch (IOException deleteEx) {
+                ex.addSuppressed(deleteEx);
+            }
+
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package in.pratanumandal.unique4j;
+
+/**
+ * What to do with a message broadcast by the first instance to a session whose queue of messages
+ * still waiting to be sent is already full, because the other instance is not keeping up.
+ *
+ * @see Unique4jConfig#broadcastQueueSize()
+ * @see Unique4jLock#broadcast(byte[])
+ */
+public enum BroadcastOverflowPolicy {
+    /** Discard the oldest queued message to make room for the new one */
+    DROP_OLDEST,
+    /** Discard the new message */
+    DROP_NEWEST,
+    /**
+     * Close the session, discarding all the queued messages. As with any dropped connection, the other instance
+     * reconnects, and can re-sync in {@link SessionListener#onOpen(IpcSession)}
+     */
+    DISCONNECT
+}
@@ -0,0 +1,70 @@
+package in.pratanumandal.unique4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * IpcClient whose whole input was already received, while the output is still sent to the actual client,
+ * if it's still connected
+ */
+class BufferedIpcClient implements IpcClient {
+
+    private final IpcClient delegate;
+    private final InputStream is;
+
+    BufferedIpcClient(IpcClient delegate, byte[] buffer, int length) {
+        this.delegate = delegate;
+        this.is = new ByteArrayInputStream(buffer, 0, length);
+    }
+
+    /** @return a client for a message whose connection was already closed */
+    static BufferedIpcClient disconnected(byte[] message) {
+        return new BufferedIpcClient(null, message, message.length);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return is;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (delegate == null)
+            throw new IOException("Other instance already disconnected");
+        return delegate.getOutputStream();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        if (delegate != null)
+            delegate.shutdownOutput();
+    }
+
+    @Override
+    public void sendFileDescriptors(FileDescriptor... fileDescriptors) throws IOException {
+        if (delegate == null)
+            throw new IOException("Other instance already disconnected");
+        delegate.sendFileDescriptors(fileDescriptors);
+    }
+
+    @Override
+    public FileDescriptor[] receiveFileDescriptors() throws IOException {
+        if (delegate == null)
+            throw new IOException("Other instance already disconnected");
+        return delegate.receiveFileDescriptors();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate != null)
+            delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferedIpcClient{" + delegate + '}';
+    }
+}
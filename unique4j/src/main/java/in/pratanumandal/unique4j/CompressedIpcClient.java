@@ -0,0 +1,434 @@
+package in.pratanumandal.unique4j;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * IpcClient compressing what's sent and decompressing what's received, used by both sides once they agreed
+ * on {@link Handshake#CAPABILITY_COMPRESSION}.
+ *
+ * What's written is buffered up to {@link #MAX_BLOCK_SIZE} bytes, and sent as a block on flush, or once the buffer
+ * is full. Each block is made of a big-endian int header, whose highest bit tells whether the block is compressed,
+ * followed by as many bytes as the rest of the header says. Blocks smaller than the threshold,
+ * or which don't get any smaller, are sent as they are, others are deflated on their own, so that
+ * no state has to be kept in sync between blocks. After a block which doesn't get any smaller,
+ * a growing number of blocks are sent as they are without even trying.
+ *
+ * As the handlers of plain clients don't have to flush before waiting for a reply, or before closing the client,
+ * pending output is flushed before blocking on a read, and on {@link #shutdownOutput()} or {@link #close()}.
+ *
+ * On the first instance, it can sit above a {@link MessageIpcClient}, whose message stream is then inflated the same way.
+ */
+final class CompressedIpcClient implements MessageIpcClient {
+
+    /** Biggest block, before compression */
+    static final int MAX_BLOCK_SIZE = 64 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    static final int HEADER_SIZE = Integer.BYTES;
+    private static final int COMPRESSED = 0x80000000;
+    /** most blocks sent as they are after blocks which didn't get any smaller, before trying again */
+    private static final int MAX_SKIPPED_BLOCKS = 16;
+
+    private final IpcClient delegate;
+    private final int threshold;
+    private CompressedOutputStream os;
+    private CompressedInputStream is;
+    private CompressedInputStream messageIs;
+
+    CompressedIpcClient(IpcClient delegate, int threshold) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+    }
+
+    /** Wraps the client if compression was negotiated, otherwise returns it as it is */
+    static IpcClient wrap(ImmutableConfig config, IpcClient client, Handshake.Negotiated negotiated) {
+        return negotiated.has(Handshake.CAPABILITY_COMPRESSION)
+                ? new CompressedIpcClient(client, config.getCompressionThreshold())
+                : client;
+    }
+
+    /** Returns the client below the compression, or the client itself if it isn't compressed */
+    static IpcClient unwrap(IpcClient client) {
+        return client instanceof CompressedIpcClient ? ((CompressedIpcClient) client).delegate : client;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (is == null)
+            is = new CompressedInputStream(delegate.getInputStream(), (CompressedOutputStream) getOutputStream());
+        return is;
+    }
+
+    @Override
+    public synchronized InputStream getMessageInputStream() throws IOException {
+        if (!(delegate instanceof MessageIpcClient))
+            return getInputStream();
+        if (messageIs == null)
+            messageIs = new CompressedInputStream(
+                    ((MessageIpcClient) delegate).getMessageInputStream(), (CompressedOutputStream) getOutputStream());
+        return messageIs;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (os == null)
+            os = new CompressedOutputStream(delegate.getOutputStream(), threshold);
+        return os;
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        final CompressedOutputStream os;
+        synchronized (this) {
+            os = this.os;
+        }
+        if (os != null)
+            os.flush();
+        delegate.shutdownOutput();
+    }
+
+    /** Sent after what's still buffered, outside of any block */
+    @Override
+    public void sendFileDescriptors(FileDescriptor... fileDescriptors) throws IOException {
+        final CompressedOutputStream os;
+        synchronized (this) {
+            os = this.os;
+        }
+        if (os != null)
+            os.flushPending();
+        delegate.sendFileDescriptors(fileDescriptors);
+    }
+
+    /** Received in between blocks, after whatever was inflated was read */
+    @Override
+    public FileDescriptor[] receiveFileDescriptors() throws IOException {
+        final CompressedOutputStream os;
+        final CompressedInputStream is;
+        synchronized (this) {
+            os = this.os;
+            is = this.is;
+        }
+        if (is != null && is.inBlock())
+            throw new IOException("Can't receive file descriptors in the middle of a block");
+        // the other side might be waiting for what was written so far, before sending them
+        if (os != null)
+            os.flushPending();
+        return delegate.receiveFileDescriptors();
+    }
+
+    @Override
+    public void close() throws IOException {
+        final CompressedOutputStream os;
+        final CompressedInputStream is;
+        final CompressedInputStream messageIs;
+        synchronized (this) {
+            os = this.os;
+            is = this.is;
+            messageIs = this.messageIs;
+        }
+        try (IpcClient ignored = delegate) {
+            if (os != null)
+                os.flushPending();
+        } finally {
+            if (os != null)
+                os.end();
+            if (is != null)
+                is.end();
+            if (messageIs != null)
+                messageIs.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedIpcClient{" + delegate + ", threshold=" + threshold + '}';
+    }
+
+    private static final class CompressedOutputStream extends OutputStream {
+
+        private final OutputStream delegate;
+        private final int threshold;
+        /** header followed by the buffered block, which grows up to {@link #MAX_BLOCK_SIZE} as needed */
+        private byte[] block = new byte[HEADER_SIZE + INITIAL_BUFFER_SIZE];
+        private int count;
+        /** header and deflated block, which is only sent if it's smaller than the block itself */
+        private byte[] deflated;
+        private Deflater deflater;
+        private boolean ended;
+        /** blocks to send as they are, as the previous ones didn't compress (ex. already compressed data) */
+        private int skippedBlocks;
+        private int nextSkippedBlocks = 1;
+
+        CompressedOutputStream(OutputStream delegate, int threshold) {
+            this.delegate = delegate;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            ensureRemaining();
+            block[HEADER_SIZE + count++] = (byte) b;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if ((off | len) < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+
+            while (len > 0) {
+                ensureRemaining();
+                final int n = Math.min(len, block.length - HEADER_SIZE - count);
+                System.arraycopy(b, off, block, HEADER_SIZE + count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            writeBlock();
+            delegate.flush();
+        }
+
+        /** Sends what's still buffered, if anything */
+        synchronized void flushPending() throws IOException {
+            if (count > 0)
+                flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (OutputStream ignored = delegate) {
+                flushPending();
+            } finally {
+                end();
+            }
+        }
+
+        synchronized void end() {
+            ended = true;
+            if (deflater != null)
+                deflater.end();
+        }
+
+        /** Grows the buffer, or sends the block once it's as big as it gets */
+        private void ensureRemaining() throws IOException {
+            if (HEADER_SIZE + count < block.length)
+                return;
+            if (count < MAX_BLOCK_SIZE)
+                block = Arrays.copyOf(block, HEADER_SIZE + Math.min(count * 2, MAX_BLOCK_SIZE));
+            else
+                writeBlock();
+        }
+
+        private void writeBlock() throws IOException {
+            if (count == 0)
+                return;
+            if (ended)
+                throw new IOException("Stream closed");
+
+            int length = 0;
+            if (count >= threshold) {
+                if (skippedBlocks > 0)
+                    skippedBlocks--;
+                else
+                    length = deflate();
+            }
+
+            if (length > 0) {
+                putHeader(deflated, COMPRESSED | length);
+                delegate.write(deflated, 0, HEADER_SIZE + length);
+            } else {
+                // header and block at once, so they don't end up in separate packets
+                putHeader(block, count);
+                delegate.write(block, 0, HEADER_SIZE + count);
+            }
+            count = 0;
+        }
+
+        /** @return length of the deflated block, or 0 if it isn't smaller */
+        private int deflate() {
+            if (deflater == null)
+                deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.reset();
+            deflater.setInput(block, HEADER_SIZE, count);
+            deflater.finish();
+
+            // at most as many bytes as the block itself, so that it's left as it is when it doesn't compress
+            final int limit = HEADER_SIZE + count - 1;
+            if (deflated == null || deflated.length < limit)
+                deflated = new byte[block.length];
+            int length = HEADER_SIZE;
+            while (!deflater.finished() && length < limit)
+                length += deflater.deflate(deflated, length, limit - length);
+            if (deflater.finished()) {
+                nextSkippedBlocks = 1;
+                return length - HEADER_SIZE;
+            }
+
+            // deflating what doesn't compress costs way more than sending it, so back off
+            skippedBlocks = nextSkippedBlocks;
+            nextSkippedBlocks = Math.min(nextSkippedBlocks * 2, MAX_SKIPPED_BLOCKS);
+            return 0;
+        }
+
+        private static void putHeader(byte[] block, int header) {
+            block[0] = (byte) (header >>> 24);
+            block[1] = (byte) (header >>> 16);
+            block[2] = (byte) (header >>> 8);
+            block[3] = (byte) header;
+        }
+    }
+
+    private static final class CompressedInputStream extends InputStream {
+
+        private final DataInputStream delegate;
+        private final CompressedOutputStream os;
+        private final byte[] header = new byte[HEADER_SIZE];
+        private final byte[] single = new byte[1];
+        /** only ever written to, to find out whether a block inflates to more than the buffer */
+        private final byte[] overflow = new byte[1];
+        /** remaining bytes of the current uncompressed block, which are read straight from the delegate */
+        private int rawRemaining;
+        /** inflated current block */
+        private byte[] buffer;
+        private int position;
+        private int limit;
+        private byte[] compressed;
+        private Inflater inflater;
+        private boolean ended;
+
+        CompressedInputStream(InputStream delegate, CompressedOutputStream os) {
+            this.delegate = new DataInputStream(delegate);
+            this.os = os;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if ((off | len) < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (len == 0)
+                return 0;
+
+            while (position == limit && rawRemaining == 0) {
+                if (!nextBlock())
+                    return -1;
+            }
+
+            if (rawRemaining > 0) {
+                final int n = delegate.read(b, off, Math.min(len, rawRemaining));
+                if (n < 0)
+                    throw new EOFException("Connection closed in the middle of a block");
+                rawRemaining -= n;
+                return n;
+            }
+
+            final int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return rawRemaining > 0
+                    ? Math.min(rawRemaining, delegate.available())
+                    : limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (InputStream ignored = delegate) {
+                end();
+            }
+        }
+
+        synchronized void end() {
+            ended = true;
+            if (inflater != null)
+                inflater.end();
+        }
+
+        /** Whether the current block wasn't fully read yet */
+        boolean inBlock() {
+            return position < limit || rawRemaining > 0;
+        }
+
+        /** @return false at the end of the stream */
+        private boolean nextBlock() throws IOException {
+            // the other side might be waiting for what was written so far, before replying
+            os.flushPending();
+
+            final int first = delegate.read();
+            if (first < 0)
+                return false;
+            header[0] = (byte) first;
+            delegate.readFully(header, 1, HEADER_SIZE - 1);
+
+            final int value = (header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | header[3] & 0xFF;
+            final int length = value & ~COMPRESSED;
+            if (length > MAX_BLOCK_SIZE)
+                throw new IOException("Received block of " + length + " bytes, max block size is " + MAX_BLOCK_SIZE);
+
+            if ((value & COMPRESSED) == 0) {
+                rawRemaining = length;
+                return true;
+            }
+
+            if (compressed == null)
+                compressed = new byte[MAX_BLOCK_SIZE];
+            delegate.readFully(compressed, 0, length);
+            inflate(length);
+            return true;
+        }
+
+        private synchronized void inflate(int length) throws IOException {
+            if (ended)
+                throw new IOException("Stream closed");
+            if (inflater == null) {
+                inflater = new Inflater();
+                buffer = new byte[MAX_BLOCK_SIZE];
+            }
+            inflater.reset();
+            inflater.setInput(compressed, 0, length);
+
+            // a block never inflates to more than the max block size, so that a corrupted or malicious one can't
+            // make it allocate arbitrary amounts of memory
+            try {
+                int inflated = 0;
+                while (!inflater.finished()) {
+                    // a full buffer might only be finished once the end of the deflated block is read too
+                    final int n = inflated < buffer.length
+                            ? inflater.inflate(buffer, inflated, buffer.length - inflated)
+                            : inflater.inflate(overflow);
+                    if (n == 0 && !inflater.finished())
+                        break;
+                    if (inflated == buffer.length)
+                        throw new IOException("Received compressed block inflating to more than " + MAX_BLOCK_SIZE + " bytes");
+                    inflated += n;
+                }
+                if (!inflater.finished() || inflater.getRemaining() > 0)
+                    throw new IOException("Received corrupted compressed block");
+                position = 0;
+                limit = inflated;
+            } catch (DataFormatException ex) {
+                throw new IOException("Received corrupted compressed block", ex);
+            }
+        }
+    }
+}
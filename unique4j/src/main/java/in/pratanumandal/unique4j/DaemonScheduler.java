@@ -0,0 +1,32 @@
+package in.pratanumandal.unique4j;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Single thread shared by all the locks of this process for short periodic or delayed tasks,
+ * like heartbeats and timeouts, so that none of them needs a thread of its own.
+ *
+ * Tasks must never block, as they would delay all the others.
+ */
+final class DaemonScheduler {
+
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    private DaemonScheduler() {
+    }
+
+    static synchronized ScheduledExecutorService get() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+                final Thread thread = new Thread(r, "Unique4j-scheduler");
+                // never keep the JVM alive just for heartbeats and timeouts
+                thread.setDaemon(true);
+                return thread;
+            });
+            // timeouts are mostly cancelled, don't keep them around until they would have expired
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return scheduler;
+    }
+}
@@ -0,0 +1,297 @@
+package in.pratanumandal.unique4j;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IpcClient which is closed once the other side doesn't make progress in time, so that no thread is ever
+ * blocked on it forever, whatever the transport: closing a client wakes up whoever is blocked on it.
+ *
+ * It has both an overall deadline, for the handshake, and a timeout for each read, which are checked
+ * on the {@link DaemonScheduler}. The check is only scheduled while one of them is pending,
+ * and reads don't reschedule it unless it's not already, so reading doesn't cost a task each time.
+ */
+final class DeadlineIpcClient implements IpcClient {
+
+    private final ImmutableConfig config;
+    private final IpcClient delegate;
+    private final InputStream is;
+    private final OutputStream os;
+
+    /** when the client is closed, as {@link System#nanoTime()}, only if {@link #hasDeadline} */
+    private volatile long deadlineNanos;
+    private volatile boolean hasDeadline;
+    private volatile long readTimeoutNanos;
+    /** when the pending read started, only if {@link #reading} */
+    private volatile long readStartNanos;
+    private volatile boolean reading;
+    private volatile boolean expired;
+
+    /** next check, or null if none is scheduled, guarded by this */
+    private ScheduledFuture<?> check;
+    /** when the next check runs, guarded by this */
+    private long checkNanos;
+
+    private DeadlineIpcClient(ImmutableConfig config, IpcClient delegate) throws IOException {
+        this.config = config;
+        this.delegate = delegate;
+        this.is = new DeadlineInputStream(delegate.getInputStream());
+        this.os = new DeadlineOutputStream(delegate.getOutputStream());
+    }
+
+    /** Wraps the client, closing it if that fails */
+    static DeadlineIpcClient wrap(ImmutableConfig config, IpcClient client) throws IOException {
+        try {
+            return new DeadlineIpcClient(config, client);
+        } catch (IOException | RuntimeException ex) {
+            try {
+                client.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
+    /** Closes the client after the given time from now, unless cleared by passing zero */
+    void deadline(Duration timeout) {
+        if (timeout.isZero()) {
+            hasDeadline = false;
+            return;
+        }
+
+        deadlineNanos = System.nanoTime() + timeout.toNanos();
+        hasDeadline = true;
+        arm();
+    }
+
+    /** Closes the client if a read waits for longer than the given time, zero disables it */
+    void readTimeout(Duration timeout) {
+        readTimeoutNanos = timeout.toNanos();
+    }
+
+    /** @return when the next check is needed, as {@link System#nanoTime()}, only if {@link #isPending()} */
+    private long nextCheckNanos() {
+        final long readDeadlineNanos = readStartNanos + readTimeoutNanos;
+        if (!hasDeadline)
+            return readDeadlineNanos;
+        if (!reading || readTimeoutNanos <= 0)
+            return deadlineNanos;
+        return readDeadlineNanos - deadlineNanos < 0 ? readDeadlineNanos : deadlineNanos;
+    }
+
+    private boolean isPending() {
+        return !expired && (hasDeadline || (reading && readTimeoutNanos > 0));
+    }
+
+    private synchronized void arm() {
+        if (!isPending())
+            return;
+
+        final long next = nextCheckNanos();
+        // an earlier one already covers it
+        if (check != null && checkNanos - next <= 0)
+            return;
+
+        if (check != null)
+            check.cancel(false);
+        checkNanos = next;
+        check = DaemonScheduler.get().schedule(this::check, next - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private void check() {
+        synchronized (this) {
+            check = null;
+            if (!isPending())
+                return;
+
+            final long next = nextCheckNanos();
+            if (next - System.nanoTime() > 0) {
+                // moved on in the meantime
+                checkNanos = next;
+                check = DaemonScheduler.get().schedule(this::check, next - System.nanoTime(), TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            expired = true;
+        }
+
+        config.getMetricsListener().connectionTimedOut();
+        try {
+            delegate.close();
+        } catch (IOException ex) {
+            config.getExceptionHandler().unexpectedException(null, this, ex);
+        }
+    }
+
+    /** Reports failures caused by closing the client as timeouts */
+    private IOException translate(IOException ex) {
+        if (!expired || ex instanceof SocketTimeoutException)
+            return ex;
+
+        final SocketTimeoutException timeoutEx = new SocketTimeoutException(hasDeadline
+                ? "Handshake timed out"
+                : "Read timed out after " + TimeUnit.NANOSECONDS.toMillis(readTimeoutNanos) + "ms");
+        timeoutEx.initCause(ex);
+        return timeoutEx;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return is;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return os;
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        delegate.shutdownOutput();
+    }
+
+    @Override
+    public void sendFileDescriptors(FileDescriptor... fileDescriptors) throws IOException {
+        try {
+            delegate.sendFileDescriptors(fileDescriptors);
+        } catch (IOException ex) {
+            throw translate(ex);
+        }
+    }
+
+    @Override
+    public FileDescriptor[] receiveFileDescriptors() throws IOException {
+        final boolean timed = startRead();
+        try {
+            return delegate.receiveFileDescriptors();
+        } catch (IOException ex) {
+            throw translate(ex);
+        } finally {
+            if (timed)
+                reading = false;
+        }
+    }
+
+    /**
+     * Starts the read timeout, if any, which has to be ended by clearing {@link #reading}
+     *
+     * @return whether the read is timed
+     */
+    private boolean startRead() {
+        final boolean timed = readTimeoutNanos > 0;
+        if (timed) {
+            readStartNanos = System.nanoTime();
+            reading = true;
+            arm();
+        }
+        return timed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            hasDeadline = false;
+            reading = false;
+            if (check != null)
+                check.cancel(false);
+            check = null;
+        }
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return "DeadlineIpcClient{" + delegate + '}';
+    }
+
+    private class DeadlineInputStream extends InputStream {
+
+        private final InputStream in;
+        private final byte[] single = new byte[1];
+
+        DeadlineInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final boolean timed = startRead();
+            try {
+                final int read = in.read(b, off, len);
+                // closing might just look like the end of the stream
+                if (read < 0 && expired)
+                    throw translate(new IOException("Connection closed"));
+                return read;
+            } catch (IOException ex) {
+                throw translate(ex);
+            } finally {
+                if (timed)
+                    reading = false;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            DeadlineIpcClient.this.close();
+        }
+    }
+
+    private class DeadlineOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        DeadlineOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException ex) {
+                throw translate(ex);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException ex) {
+                throw translate(ex);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                throw translate(ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            DeadlineIpcClient.this.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package in.pratanumandal.unique4j;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor used by a lock when none was set in its {@link Unique4jConfig#executorService()},
+ * and the ones running sessions.
+ *
+ * Replaced in the multi-release jar by a Java 21 version using virtual threads.
+ */
+final class DefaultExecutors {
+
+    private static final int POOL_SIZE = 5;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private DefaultExecutors() {
+    }
+
+    static ExecutorService newDefaultExecutor(String appId) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                POOL_SIZE, POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    final Thread thread = new Thread(r, "Unique4j-" + appId + "-" + threadCount.getAndIncrement());
+                    // never keep the JVM alive just to serve other instances
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // threads are only started on submit, let the handler ones die again once idle
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates an executor running each task on a thread of its own, as the receiving loop of a session
+     * and the task sending to it last as long as the session, so they mustn't hold the threads handling other instances
+     */
+    static ExecutorService newSessionExecutor(String appId) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(
+                0, Integer.MAX_VALUE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                r -> {
+                    final Thread thread = new Thread(r, "Unique4j-" + appId + "-session-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
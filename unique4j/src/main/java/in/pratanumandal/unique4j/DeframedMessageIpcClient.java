@@ -0,0 +1,194 @@
+package in.pratanumandal.unique4j;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * IpcClient used by the first instance once it agreed on {@link Handshake#CAPABILITY_MESSAGE_FRAMING}
+ * with an other instance, which sends its message as frames through a {@link FramedMessageIpcClient}.
+ *
+ * Handlers read the message as it was written, followed by whatever the other instance sends as it is
+ * after the empty frame which ends it, so that they can keep on talking, while the
+ * {@link #getMessageInputStream() message stream} ends along with the message.
+ * A disconnection in between frames ends the message too, one in the middle of a frame is an error.
+ *
+ * Closing a connection whose input wasn't read whole resets it, which might drop a reply still in flight,
+ * so the server {@link #skipMessage(IpcClient) skips} what's left of the message before closing it.
+ */
+final class DeframedMessageIpcClient implements MessageIpcClient {
+
+    private final IpcClient delegate;
+    private DeframingInputStream is;
+    private InputStream messageIs;
+
+    DeframedMessageIpcClient(IpcClient delegate) {
+        this.delegate = delegate;
+    }
+
+    /** Wraps the client if message framing was negotiated, otherwise returns it as it is */
+    static IpcClient wrap(IpcClient client, Handshake.Negotiated negotiated) {
+        return negotiated.has(Handshake.CAPABILITY_MESSAGE_FRAMING)
+                ? new DeframedMessageIpcClient(client)
+                : client;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (is == null)
+            is = new DeframingInputStream(delegate.getInputStream());
+        return is;
+    }
+
+    @Override
+    public synchronized InputStream getMessageInputStream() throws IOException {
+        if (messageIs == null) {
+            final DeframingInputStream is = (DeframingInputStream) getInputStream();
+            messageIs = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    return is.readByte(true);
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return is.read(b, off, len, true);
+                }
+
+                @Override
+                public int available() throws IOException {
+                    return is.available(true);
+                }
+            };
+        }
+        return messageIs;
+    }
+
+    /**
+     * Reads and discards what's left of the message, if the client was wrapped, which the other instance ends
+     * as soon as it waits for a reply, so it's not left unread once the connection is closed
+     */
+    static void skipMessage(IpcClient client) {
+        if (!(client instanceof DeframedMessageIpcClient))
+            return;
+
+        try {
+            final InputStream is = ((DeframedMessageIpcClient) client).getMessageInputStream();
+            final byte[] buffer = new byte[1024];
+            while (is.read(buffer) != -1)
+                ;
+        } catch (IOException ex) {
+            // the other instance already disconnected, so there's nothing left to reset
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return delegate.getOutputStream();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        delegate.shutdownOutput();
+    }
+
+    @Override
+    public void sendFileDescriptors(FileDescriptor... fileDescriptors) throws IOException {
+        delegate.sendFileDescriptors(fileDescriptors);
+    }
+
+    @Override
+    public FileDescriptor[] receiveFileDescriptors() throws IOException {
+        return delegate.receiveFileDescriptors();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return "DeframedMessageIpcClient{" + delegate + '}';
+    }
+
+    private static final class DeframingInputStream extends InputStream {
+
+        private final DataInputStream delegate;
+        private final byte[] header = new byte[FramedIpcClient.HEADER_SIZE];
+        private final byte[] single = new byte[1];
+        /** bytes of the current frame which still have to be read */
+        private int frameRemaining;
+        /** whether the message is over, after which the rest is read as it is */
+        private boolean ended;
+
+        DeframingInputStream(InputStream delegate) {
+            this.delegate = new DataInputStream(delegate);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return readByte(false);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return read(b, off, len, false);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return available(false);
+        }
+
+        int readByte(boolean messageOnly) throws IOException {
+            return read(single, 0, 1, messageOnly) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        int read(byte[] b, int off, int len, boolean messageOnly) throws IOException {
+            if ((off | len) < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (len == 0)
+                return 0;
+
+            while (!ended && frameRemaining == 0)
+                nextFrame();
+
+            if (ended)
+                return messageOnly ? -1 : delegate.read(b, off, len);
+
+            final int n = delegate.read(b, off, Math.min(len, frameRemaining));
+            if (n < 0)
+                throw new EOFException("Other instance disconnected in the middle of its message");
+            frameRemaining -= n;
+            return n;
+        }
+
+        int available(boolean messageOnly) throws IOException {
+            if (ended)
+                return messageOnly ? 0 : delegate.available();
+            return Math.min(frameRemaining, delegate.available());
+        }
+
+        private void nextFrame() throws IOException {
+            final int first = delegate.read();
+            if (first < 0) {
+                // disconnected without sending the empty frame, which ends the message just as well
+                ended = true;
+                return;
+            }
+            header[0] = (byte) first;
+            delegate.readFully(header, 1, header.length - 1);
+
+            final int length = (header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | header[3] & 0xFF;
+            if (length < 0)
+                throw new IOException("Received frame of " + length + " bytes");
+            if (length == 0)
+                ended = true;
+            frameRemaining = length;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package in.pratanumandal.unique4j;
+
+/**
+ * In which order the {@link FirstInstance} handler is invoked for the messages of other instances,
+ * relative to the order in which their connections were accepted by the first instance.
+ *
+ * Sessions are never ordered, as they're long-lived.
+ *
+ * @see Unique4jConfig#deliveryOrder()
+ */
+public enum DeliveryOrder {
+    /** Invoke the handler as soon as each message is received, so that a later message might overtake an earlier one */
+    UNORDERED,
+    /**
+     * Invoke the handler for the messages sent by the same process in the order they arrived,
+     * while the ones from different processes still run in parallel.
+     * Messages from other instances running older versions of the library are not ordered
+     */
+    PER_SENDER,
+    /** Invoke the handler for a single message at a time, in the order they arrived */
+    GLOBAL
+}
@@ -0,0 +1,80 @@
+package in.pratanumandal.unique4j;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * IpcClient handed to the {@link FirstInstance} handler of a single message, which the server closes
+ * once the handler returns, unless the handler {@link #detach() detached} the connection to reply later,
+ * ex. once the actual handler is registered, without keeping a thread busy until then.
+ */
+final class DetachableIpcClient implements MessageIpcClient {
+
+    private final IpcClient delegate;
+    private volatile boolean detached;
+
+    DetachableIpcClient(IpcClient delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Takes the connection over, so that it's not closed once the handler returns
+     *
+     * @return the actual client, which the caller has to close
+     */
+    IpcClient detach() {
+        detached = true;
+        return delegate;
+    }
+
+    boolean isDetached() {
+        return detached;
+    }
+
+    IpcClient getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return delegate.getInputStream();
+    }
+
+    @Override
+    public InputStream getMessageInputStream() throws IOException {
+        return MessageIpcClient.messageInputStream(delegate);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return delegate.getOutputStream();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        delegate.shutdownOutput();
+    }
+
+    @Override
+    public void sendFileDescriptors(FileDescriptor... fileDescriptors) throws IOException {
+        delegate.sendFileDescriptors(fileDescriptors);
+    }
+
+    @Override
+    public FileDescriptor[] receiveFileDescriptors() throws IOException {
+        return delegate.receiveFileDescriptors();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!detached)
+            delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return "DetachableIpcClient{" + delegate + '}';
+    }
+}
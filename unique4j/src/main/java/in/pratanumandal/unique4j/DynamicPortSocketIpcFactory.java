@@ -18,6 +18,7 @@ package in.pratanumandal.unique4j;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.Charset;
@@ -47,7 +48,12 @@ public class DynamicPortSocketIpcFactory extends SocketIpcFactory implements Por
 
     @Override
     public IpcServer createIpcServer(File parentDirectory, String appId) throws IOException {
-        final ServerSocket socket = createServerSocket(parentDirectory, appId);
+        return createIpcServer(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public IpcServer createIpcServer(File parentDirectory, String appId, int backlog) throws IOException {
+        final ServerSocket socket = createServerSocket(parentDirectory, appId, backlog);
 
         final File portFile = new File(parentDirectory, "app.port");
         try(BufferedWriter bw = Files.newBufferedWriter(portFile.toPath(), charset)) {
@@ -74,11 +80,16 @@ public class DynamicPortSocketIpcFactory extends SocketIpcFactory implements Por
 
     @Override
     public ServerSocket createServerSocket(File parentDirectory, String appId) {
+        return createServerSocket(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(File parentDirectory, String appId, int backlog) {
         // use dynamic port policy
         actualPort = port;
         while (true) {
             try {
-                return new ServerSocket(actualPort, 0, address);
+                return new ServerSocket(actualPort, backlog, address);
             } catch (IOException e) {
                 actualPort++;
             }
@@ -87,6 +98,11 @@ public class DynamicPortSocketIpcFactory extends SocketIpcFactory implements Por
 
     @Override
     public Socket createClientSocket(File parentDirectory, String appId) throws IOException {
+        return createClientSocket(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public Socket createClientSocket(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
         final File portFile = new File(parentDirectory, "app.port");
         try(BufferedReader br = Files.newBufferedReader(portFile.toPath(), charset)) {
             try {
@@ -95,7 +111,7 @@ public class DynamicPortSocketIpcFactory extends SocketIpcFactory implements Por
                 throw new IOException("Corrupted port file " + portFile, ex);
             }
 
-            return new Socket(address, actualPort);
+            return connect(new Socket(), new InetSocketAddress(address, actualPort), connectTimeoutMillis);
         }
     }
 
@@ -0,0 +1,16 @@
+package in.pratanumandal.unique4j;
+
+/**
+ * What to do with a message sent by an other instance while the first instance is still starting up,
+ * when the queue of early messages is already full.
+ *
+ * @see Unique4jConfig#earlyMessageQueueSize()
+ */
+public enum EarlyMessageOverflowPolicy {
+    /** Discard the oldest queued message to make room for the new one */
+    DROP_OLDEST,
+    /** Read and discard the new message */
+    DROP_NEWEST,
+    /** Close the connection without even reading the new message */
+    REJECT
+}
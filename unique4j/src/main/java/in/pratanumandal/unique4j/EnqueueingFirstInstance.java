@@ -1,44 +1,266 @@
 package in.pratanumandal.unique4j;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.concurrent.locks.Condition;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * FirstInstance which, until the actual one is set, reads the messages of other instances into a bounded queue
+ * and releases their threads, instead of keeping executor threads waiting.
+ * Each message must be received within the {@link Unique4jConfig#messageBufferTimeout()},
+ * otherwise its connection is closed and the message dropped. The connections of queued messages are
+ * {@link DetachableIpcClient#detach() detached} from the server, so that the actual one can still reply to them.
+ */
 class EnqueueingFirstInstance implements FirstInstance {
 
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final int maxQueuedMessages;
+    private final int maxQueuedBytes;
+    private final int maxMessageSize;
+    private final long messageBufferTimeoutNanos;
+    private final EarlyMessageOverflowPolicy overflowPolicy;
+    private final UnexpectedExceptionHandler exceptionHandler;
+    private final MetricsListener metrics;
+
     private final Lock actualFirstInstanceLock = new ReentrantLock();
-    private final Condition actualFirstInstanceSetCondition = actualFirstInstanceLock.newCondition();
+    private final Deque<QueuedMessage> queuedMessages = new ArrayDeque<>();
+    private long queuedBytes;
     private volatile boolean isActualFirstInstanceSet;
     private volatile FirstInstance actualFirstInstance;
 
+    EnqueueingFirstInstance(int maxQueuedMessages,
+                            int maxQueuedBytes,
+                            int maxMessageSize,
+                            Duration messageBufferTimeout,
+                            EarlyMessageOverflowPolicy overflowPolicy,
+                            UnexpectedExceptionHandler exceptionHandler,
+                            MetricsListener metrics) {
+        this.maxQueuedMessages = maxQueuedMessages;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.maxMessageSize = maxMessageSize;
+        this.messageBufferTimeoutNanos = messageBufferTimeout.toNanos();
+        this.overflowPolicy = overflowPolicy;
+        this.exceptionHandler = exceptionHandler;
+        this.metrics = metrics;
+    }
+
     @Override
     public void onOtherInstanceStarted(IpcClient otherInstanceClient) throws IOException, InterruptedException {
         if(!isActualFirstInstanceSet) {
             actualFirstInstanceLock.lock();
             try {
-                while (!isActualFirstInstanceSet)
-                    actualFirstInstanceSetCondition.await();
+                if (!isActualFirstInstanceSet &&
+                        overflowPolicy == EarlyMessageOverflowPolicy.REJECT &&
+                        (queuedMessages.size() >= maxQueuedMessages || queuedBytes >= maxQueuedBytes))
+                    return;
             } finally {
                 actualFirstInstanceLock.unlock();
             }
+
+            if(!isActualFirstInstanceSet) {
+                // don't hold the lock while reading, so the actual FirstInstance can be set in the meantime
+                final byte[] message = readMessage(otherInstanceClient);
+
+                final List<QueuedMessage> dropped;
+                actualFirstInstanceLock.lock();
+                try {
+                    if (!isActualFirstInstanceSet) {
+                        // keep the connection open, so that the actual FirstInstance can still reply
+                        final IpcClient replyClient = otherInstanceClient instanceof DetachableIpcClient
+                                ? ((DetachableIpcClient) otherInstanceClient).detach()
+                                : null;
+                        dropped = enqueue(new QueuedMessage(message, replyClient, System.nanoTime()));
+                    } else {
+                        dropped = null;
+                    }
+                } finally {
+                    actualFirstInstanceLock.unlock();
+                }
+
+                if (dropped != null) {
+                    dropped.forEach(this::close);
+                    return;
+                }
+
+                // the actual FirstInstance was set while reading
+                final FirstInstance actualFirstInstance = this.actualFirstInstance;
+                if(actualFirstInstance != null)
+                    actualFirstInstance.onOtherInstanceStarted(new BufferedIpcClient(otherInstanceClient, message, message.length));
+                return;
+            }
         }
 
         if(actualFirstInstance != null)
             actualFirstInstance.onOtherInstanceStarted(otherInstanceClient);
     }
 
+    private byte[] readMessage(IpcClient otherInstanceClient) throws IOException {
+        // no handler is waiting on it yet, so bound the whole message and not just each read
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final ScheduledFuture<?> timeout = messageBufferTimeoutNanos > 0
+                ? DaemonScheduler.get().schedule(() -> {
+                    timedOut.set(true);
+                    metrics.connectionTimedOut();
+                    try {
+                        otherInstanceClient.close();
+                    } catch (IOException ex) {
+                        exceptionHandler.unexpectedException(null, otherInstanceClient, ex);
+                    }
+                }, messageBufferTimeoutNanos, TimeUnit.NANOSECONDS)
+                : null;
+
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        try {
+            // stops where the other instance ended its message, if it can tell, otherwise once it shuts down its output
+            final InputStream is = MessageIpcClient.messageInputStream(otherInstanceClient);
+            final byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                if (message.size() + read > maxMessageSize)
+                    throw new IOException("Message of other instance received before startup exceeds the max size of " + maxMessageSize);
+                message.write(buffer, 0, read);
+            }
+        } catch (IOException ex) {
+            throw timedOut.get() ? timeoutException(ex) : ex;
+        } finally {
+            if (timeout != null)
+                timeout.cancel(false);
+        }
+
+        // closing it might have looked like the end of the message
+        if (timedOut.get())
+            throw timeoutException(null);
+        return message.toByteArray();
+    }
+
+    private SocketTimeoutException timeoutException(IOException cause) {
+        final SocketTimeoutException timeoutEx = new SocketTimeoutException(
+                "Message of other instance not received within " + TimeUnit.NANOSECONDS.toMillis(messageBufferTimeoutNanos) + "ms");
+        if (cause != null)
+            timeoutEx.initCause(cause);
+        return timeoutEx;
+    }
+
+    /** @return the messages dropped to make room for the new one, or the new one itself if it was dropped */
+    private List<QueuedMessage> enqueue(QueuedMessage message) {
+        final List<QueuedMessage> dropped = new ArrayList<>();
+        while (queuedMessages.size() >= maxQueuedMessages || queuedBytes + message.message.length > maxQueuedBytes) {
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    final QueuedMessage oldest = queuedMessages.pollFirst();
+                    if (oldest == null) {
+                        // doesn't fit even in an empty queue
+                        dropped.add(message);
+                        return dropped;
+                    }
+                    queuedBytes -= oldest.message.length;
+                    dropped.add(oldest);
+                    break;
+                case DROP_NEWEST:
+                case REJECT:
+                    dropped.add(message);
+                    return dropped;
+                default:
+                    throw new AssertionError("Unknown policy " + overflowPolicy);
+            }
+        }
+
+        queuedMessages.addLast(message);
+        queuedBytes += message.message.length;
+        return dropped;
+    }
+
     void setActualFirstInstance(FirstInstance firstInstance) {
+        final List<QueuedMessage> messages;
         actualFirstInstanceLock.lock();
         try {
             if(isActualFirstInstanceSet)
                 throw new UnsupportedOperationException("FirstInstance was already set");
 
-            actualFirstInstance = firstInstance;
-            isActualFirstInstanceSet = true;
-            actualFirstInstanceSetCondition.signalAll();
+            messages = setActualFirstInstance0(firstInstance);
         } finally {
             actualFirstInstanceLock.unlock();
         }
+
+        if(firstInstance == null) {
+            messages.forEach(this::close);
+            return;
+        }
+
+        for (QueuedMessage message : messages) {
+            // connections of other instances running older versions may already be closed, so replies can't be sent
+            final IpcClient client = new BufferedIpcClient(message.replyClient, message.message, message.message.length);
+            metrics.earlyMessageDelivered(System.nanoTime() - message.enqueuedNanos);
+            try {
+                firstInstance.onOtherInstanceStarted(client);
+            } catch (Throwable t) {
+                exceptionHandler.unexpectedException(null, client, t);
+            } finally {
+                close(message);
+            }
+        }
+    }
+
+    /** Drops the messages which are still queued, closing their connections, unless the actual FirstInstance was set */
+    void close() {
+        final List<QueuedMessage> messages;
+        actualFirstInstanceLock.lock();
+        try {
+            if(isActualFirstInstanceSet)
+                return;
+
+            // messages still in-flight are then just dropped
+            messages = setActualFirstInstance0(null);
+        } finally {
+            actualFirstInstanceLock.unlock();
+        }
+        messages.forEach(this::close);
+    }
+
+    private List<QueuedMessage> setActualFirstInstance0(FirstInstance firstInstance) {
+        actualFirstInstance = firstInstance;
+        isActualFirstInstanceSet = true;
+
+        final List<QueuedMessage> messages = new ArrayList<>(queuedMessages);
+        queuedMessages.clear();
+        queuedBytes = 0;
+        return messages;
+    }
+
+    private void close(QueuedMessage message) {
+        if (message.replyClient == null)
+            return;
+
+        try {
+            message.replyClient.close();
+        } catch (IOException ex) {
+            exceptionHandler.unexpectedException(null, message.replyClient, ex);
+        }
+    }
+
+    private static final class QueuedMessage {
+
+        final byte[] message;
+        /** connection to reply on, or null if it's not kept open */
+        final IpcClient replyClient;
+        final long enqueuedNanos;
+
+        QueuedMessage(byte[] message, IpcClient replyClient, long enqueuedNanos) {
+            this.message = message;
+            this.replyClient = replyClient;
+            this.enqueuedNanos = enqueuedNanos;
+        }
     }
 }
@@ -0,0 +1,145 @@
+package in.pratanumandal.unique4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Binds a TCP socket on an ephemeral port chosen by the OS, then publishes it to the other instances
+ * in a fixed-layout binary endpoint record which is atomically replaced, so a client can never see it half-written.
+ *
+ * The record is {@link #RECORD_SIZE} bytes, big endian:
+ * <pre>
+ * | magic (int) | version (int) | port (int) | ~port (int) |
+ * </pre>
+ */
+public class EphemeralPortSocketIpcFactory extends SocketIpcFactory implements PortIpcFactory {
+
+    static final String ENDPOINT_FILE_NAME = "app.endpoint";
+    static final int RECORD_MAGIC = 0x55344A50; // U4JP
+    static final int RECORD_VERSION = 1;
+    static final int RECORD_SIZE = 16;
+
+    private final InetAddress address;
+
+    private volatile int actualPort = -1;
+
+    public EphemeralPortSocketIpcFactory() {
+        this(InetAddress.getLoopbackAddress());
+    }
+
+    public EphemeralPortSocketIpcFactory(InetAddress address) {
+        this.address = address;
+    }
+
+    @Override
+    public IpcServer createIpcServer(File parentDirectory, String appId) throws IOException {
+        return createIpcServer(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public IpcServer createIpcServer(File parentDirectory, String appId, int backlog) throws IOException {
+        final ServerSocket socket = createServerSocket(parentDirectory, appId, backlog);
+
+        final Path endpointFile = parentDirectory.toPath().resolve(ENDPOINT_FILE_NAME);
+        try {
+            writeEndpointRecord(endpointFile, socket.getLocalPort());
+            return new SocketIpcServer(socket) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    Files.deleteIfExists(endpointFile);
+                }
+            };
+        } catch (IOException ex) {
+
+            try {
+                socket.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+
+            throw ex;
+        }
+    }
+
+    @Override
+    public ServerSocket createServerSocket(File parentDirectory, String appId) throws IOException {
+        return createServerSocket(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(File parentDirectory, String appId, int backlog) throws IOException {
+        final ServerSocket socket = new ServerSocket();
+        try {
+            socket.bind(new InetSocketAddress(address, 0), backlog);
+        } catch (IOException ex) {
+
+            try {
+                socket.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+
+            throw ex;
+        }
+
+        actualPort = socket.getLocalPort();
+        return socket;
+    }
+
+    @Override
+    public Socket createClientSocket(File parentDirectory, String appId) throws IOException {
+        return createClientSocket(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public Socket createClientSocket(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
+        final int port = readEndpointRecord(parentDirectory.toPath().resolve(ENDPOINT_FILE_NAME));
+        actualPort = port;
+        return connect(new Socket(), new InetSocketAddress(address, port), connectTimeoutMillis);
+    }
+
+    @Override
+    public int getPort() {
+        return actualPort;
+    }
+
+    static void writeEndpointRecord(Path endpointFile, int port) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE)
+                .putInt(RECORD_MAGIC)
+                .putInt(RECORD_VERSION)
+                .putInt(port)
+                .putInt(~port);
+        record.flip();
+
+        AtomicFiles.replace(endpointFile, record);
+    }
+
+    static int readEndpointRecord(Path endpointFile) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        try (FileChannel channel = FileChannel.open(endpointFile, StandardOpenOption.READ)) {
+            // the record is replaced atomically, so a single positional read is enough
+            channel.read(record, 0);
+        }
+        record.flip();
+
+        if (record.remaining() != RECORD_SIZE)
+            throw new IOException("Corrupted endpoint file " + endpointFile + " (truncated record)");
+
+        final int magic = record.getInt();
+        final int version = record.getInt();
+        final int port = record.getInt();
+        final int portCheck = record.getInt();
+        if (magic != RECORD_MAGIC || version != RECORD_VERSION || port != ~portCheck || port <= 0 || port > 0xFFFF)
+            throw new IOException("Corrupted endpoint file " + endpointFile);
+
+        return port;
+    }
+}
@@ -0,0 +1,166 @@
+package in.pratanumandal.unique4j;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retry policy where the n-th retry waits {@code min(maxDelay, initialDelay * multiplier^n)},
+ * randomly shortened by up to the {@code jitter} fraction, so that instances launched together
+ * don't all retry at the same moment.
+ *
+ * Stops retrying once the {@code deadline} (measured from the first attempt) expires.
+ * Instances are immutable: every {@code with} method returns a copy.
+ */
+public final class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    static final ExponentialBackoffRetryPolicy DEFAULT = new ExponentialBackoffRetryPolicy(
+            TimeUnit.MILLISECONDS.toNanos(5),
+            TimeUnit.MILLISECONDS.toNanos(250),
+            2,
+            0.5,
+            TimeUnit.SECONDS.toNanos(5),
+            false);
+
+    private final long initialDelayNanos;
+    private final long maxDelayNanos;
+    private final double multiplier;
+    private final double jitter;
+    private final long deadlineNanos;
+    private final boolean wakeOnLockFolderChange;
+
+    private ExponentialBackoffRetryPolicy(long initialDelayNanos,
+                                          long maxDelayNanos,
+                                          double multiplier,
+                                          double jitter,
+                                          long deadlineNanos,
+                                          boolean wakeOnLockFolderChange) {
+        if(initialDelayNanos < 0)
+            throw new IllegalArgumentException("Initial delay must be positive");
+        if(maxDelayNanos < initialDelayNanos)
+            throw new IllegalArgumentException("Max delay must be greater than the initial delay");
+        if(multiplier < 1)
+            throw new IllegalArgumentException("Multiplier must be at least 1");
+        if(jitter < 0 || jitter > 1)
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        if(deadlineNanos < 0)
+            throw new IllegalArgumentException("Deadline must be positive");
+
+        this.initialDelayNanos = initialDelayNanos;
+        this.maxDelayNanos = maxDelayNanos;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.deadlineNanos = deadlineNanos;
+        this.wakeOnLockFolderChange = wakeOnLockFolderChange;
+    }
+
+    @Override
+    public long nextRetryDelayNanos(int retries, long elapsedNanos) {
+        final long remainingNanos = deadlineNanos - elapsedNanos;
+        if(remainingNanos <= 0)
+            return -1;
+
+        final double exponentialDelay = initialDelayNanos * Math.pow(multiplier, retries);
+        final long delay = exponentialDelay >= maxDelayNanos ? maxDelayNanos : (long) exponentialDelay;
+        final long jitteredDelay = jitter == 0 ?
+                delay :
+                delay - (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+        return Math.min(jitteredDelay, remainingNanos);
+    }
+
+    @Override
+    public boolean isWakeOnLockFolderChange() {
+        return wakeOnLockFolderChange;
+    }
+
+    public Duration initialDelay() {
+        return Duration.ofNanos(initialDelayNanos);
+    }
+
+    public ExponentialBackoffRetryPolicy withInitialDelay(Duration initialDelay) {
+        return new ExponentialBackoffRetryPolicy(
+                initialDelay.toNanos(), Math.max(maxDelayNanos, initialDelay.toNanos()), multiplier, jitter, deadlineNanos, wakeOnLockFolderChange);
+    }
+
+    public Duration maxDelay() {
+        return Duration.ofNanos(maxDelayNanos);
+    }
+
+    public ExponentialBackoffRetryPolicy withMaxDelay(Duration maxDelay) {
+        return new ExponentialBackoffRetryPolicy(
+                initialDelayNanos, maxDelay.toNanos(), multiplier, jitter, deadlineNanos, wakeOnLockFolderChange);
+    }
+
+    public double multiplier() {
+        return multiplier;
+    }
+
+    public ExponentialBackoffRetryPolicy withMultiplier(double multiplier) {
+        return new ExponentialBackoffRetryPolicy(
+                initialDelayNanos, maxDelayNanos, multiplier, jitter, deadlineNanos, wakeOnLockFolderChange);
+    }
+
+    /**
+     * Fraction, between 0 and 1, of each delay which can be randomly cut away
+     *
+     * @return jitter fraction
+     */
+    public double jitter() {
+        return jitter;
+    }
+
+    public ExponentialBackoffRetryPolicy withJitter(double jitter) {
+        return new ExponentialBackoffRetryPolicy(
+                initialDelayNanos, maxDelayNanos, multiplier, jitter, deadlineNanos, wakeOnLockFolderChange);
+    }
+
+    /**
+     * Total time, measured from the first attempt, after which no more retries are done
+     *
+     * @return retry deadline
+     */
+    public Duration deadline() {
+        return Duration.ofNanos(deadlineNanos);
+    }
+
+    public ExponentialBackoffRetryPolicy withDeadline(Duration deadline) {
+        return new ExponentialBackoffRetryPolicy(
+                initialDelayNanos, maxDelayNanos, multiplier, jitter, deadline.toNanos(), wakeOnLockFolderChange);
+    }
+
+    public ExponentialBackoffRetryPolicy withWakeOnLockFolderChange(boolean wakeOnLockFolderChange) {
+        return new ExponentialBackoffRetryPolicy(
+                initialDelayNanos, maxDelayNanos, multiplier, jitter, deadlineNanos, wakeOnLockFolderChange);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ExponentialBackoffRetryPolicy)) return false;
+        ExponentialBackoffRetryPolicy that = (ExponentialBackoffRetryPolicy) o;
+        return initialDelayNanos == that.initialDelayNanos &&
+                maxDelayNanos == that.maxDelayNanos &&
+                Double.compare(that.multiplier, multiplier) == 0 &&
+                Double.compare(that.jitter, jitter) == 0 &&
+                deadlineNanos == that.deadlineNanos &&
+                wakeOnLockFolderChange == that.wakeOnLockFolderChange;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(initialDelayNanos, maxDelayNanos, multiplier, jitter, deadlineNanos, wakeOnLockFolderChange);
+    }
+
+    @Override
+    public String toString() {
+        return "ExponentialBackoffRetryPolicy{" +
+                "initialDelay=" + initialDelay() +
+                ", maxDelay=" + maxDelay() +
+                ", multiplier=" + multiplier +
+                ", jitter=" + jitter +
+                ", deadline=" + deadline() +
+                ", wakeOnLockFolderChange=" + wakeOnLockFolderChange +
+                '}';
+    }
+}
@@ -0,0 +1,140 @@
+package in.pratanumandal.unique4j;
+
+import java.io.DataInputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * IpcClient which sends and receives whole messages, each one as a frame made of its length,
+ * as a big-endian int, followed by its bytes.
+ *
+ * Both sides have to use it, ex. by wrapping the clients received by {@link FirstInstance} and {@link OtherInstance}:
+ * <pre>{@code
+ * firstInstanceClient -> new FramedIpcClient(firstInstanceClient).send(message)
+ * }</pre>
+ */
+public class FramedIpcClient implements IpcClient {
+
+    /** Default maximum size of a received message */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    static final int HEADER_SIZE = Integer.BYTES;
+
+    private final IpcClient delegate;
+    private final int maxFrameSize;
+
+    public FramedIpcClient(IpcClient delegate) {
+        this(delegate, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param delegate client to send and receive frames on
+     * @param maxFrameSize maximum size of the messages which can be sent or received,
+     *                     so that a corrupted or malicious length can't make it allocate arbitrary amounts of memory
+     */
+    public FramedIpcClient(IpcClient delegate, int maxFrameSize) {
+        if (maxFrameSize < 0)
+            throw new IllegalArgumentException("Max frame size must not be negative (was " + maxFrameSize + ")");
+
+        this.delegate = delegate;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void send(byte[] message) throws IOException {
+        send(message, 0, message.length);
+    }
+
+    public void send(byte[] message, int off, int len) throws IOException {
+        send(ByteBuffer.wrap(message, off, len));
+    }
+
+    /**
+     * Sends the remaining bytes of the given buffer as a single message, consuming them
+     *
+     * @param message message to send
+     * @throws IllegalArgumentException if the message is bigger than {@link #getMaxFrameSize()}
+     * @throws IOException if sending failed
+     */
+    public void send(ByteBuffer message) throws IOException {
+        final int length = message.remaining();
+        if (length > maxFrameSize)
+            throw new IllegalArgumentException("Message of " + length + " bytes exceeds the max frame size of " + maxFrameSize);
+
+        // write header and message at once, so they don't end up in separate, delayed, packets
+        final byte[] frame = new byte[HEADER_SIZE + length];
+        ByteBuffer.wrap(frame).putInt(length).put(message);
+
+        sendEncoded(frame);
+    }
+
+    /** Sends a frame which was already encoded, header included, so that it can be encoded once and sent many times */
+    void sendEncoded(byte[] frame) throws IOException {
+        final OutputStream os = delegate.getOutputStream();
+        os.write(frame);
+        os.flush();
+    }
+
+    /**
+     * Receives a whole message, blocking until it's available
+     *
+     * @return the received message
+     * @throws java.io.EOFException if the other side closed the connection
+     * @throws IOException if the received length exceeds {@link #getMaxFrameSize()} or receiving failed
+     */
+    public byte[] receive() throws IOException {
+        final DataInputStream dis = new DataInputStream(delegate.getInputStream());
+
+        final byte[] header = new byte[HEADER_SIZE];
+        dis.readFully(header);
+
+        final int length = ByteBuffer.wrap(header).getInt();
+        if (length < 0 || length > maxFrameSize)
+            throw new IOException("Received frame of " + length + " bytes, max frame size is " + maxFrameSize);
+
+        final byte[] message = new byte[length];
+        dis.readFully(message);
+        return message;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return delegate.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return delegate.getOutputStream();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        delegate.shutdownOutput();
+    }
+
+    @Override
+    public void sendFileDescriptors(FileDescriptor... fileDescriptors) throws IOException {
+        delegate.sendFileDescriptors(fileDescriptors);
+    }
+
+    @Override
+    public FileDescriptor[] receiveFileDescriptors() throws IOException {
+        return delegate.receiveFileDescriptors();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return "FramedIpcClient{" + delegate + ", maxFrameSize=" + maxFrameSize + '}';
+    }
+}
@@ -0,0 +1,211 @@
+package in.pratanumandal.unique4j;
+
+import java.io.FileDescriptor;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * IpcClient used by an other instance once it agreed on {@link Handshake#CAPABILITY_MESSAGE_FRAMING}
+ * with the first instance, so that the first instance can tell where its message ends, without waiting for it
+ * to shut down its output or to disconnect, and the other instance can then wait for a reply.
+ *
+ * What's written is buffered and sent as frames, on flush or once the buffer is full, each made of its length,
+ * as a big-endian int, followed by its bytes, same as {@link FramedIpcClient}. The message ends with an empty frame,
+ * sent before the first read, before receiving file descriptors, or once the output is shut down or the client closed,
+ * after which anything else is sent as it is. As the first instance takes a disconnection in between frames
+ * as the end of the message too, closing the client doesn't send anything if nothing was written.
+ * It sits below the {@link CompressedIpcClient}, if any, so the first instance can find the end of the message
+ * without inflating it.
+ */
+final class FramedMessageIpcClient implements IpcClient {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int HEADER_SIZE = FramedIpcClient.HEADER_SIZE;
+
+    private final IpcClient delegate;
+    private FramedMessageOutputStream os;
+    private InputStream is;
+
+    FramedMessageIpcClient(IpcClient delegate) {
+        this.delegate = delegate;
+    }
+
+    /** Wraps the client if message framing was negotiated, otherwise returns it as it is */
+    static IpcClient wrap(IpcClient client, Handshake.Negotiated negotiated) {
+        return negotiated.has(Handshake.CAPABILITY_MESSAGE_FRAMING)
+                ? new FramedMessageIpcClient(client)
+                : client;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (is == null) {
+            is = new FilterInputStream(delegate.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    // the first instance only replies once it received the whole message
+                    endMessage();
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    endMessage();
+                    return super.read(b, off, len);
+                }
+            };
+        }
+        return is;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (os == null)
+            os = new FramedMessageOutputStream(delegate.getOutputStream());
+        return os;
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        endMessage();
+        delegate.shutdownOutput();
+    }
+
+    /** Sent after what's still buffered, without ending the message */
+    @Override
+    public void sendFileDescriptors(FileDescriptor... fileDescriptors) throws IOException {
+        final FramedMessageOutputStream os;
+        synchronized (this) {
+            os = this.os;
+        }
+        if (os != null)
+            os.flush();
+        delegate.sendFileDescriptors(fileDescriptors);
+    }
+
+    @Override
+    public FileDescriptor[] receiveFileDescriptors() throws IOException {
+        endMessage();
+        return delegate.receiveFileDescriptors();
+    }
+
+    @Override
+    public void close() throws IOException {
+        final FramedMessageOutputStream os;
+        synchronized (this) {
+            os = this.os;
+        }
+        try (IpcClient ignored = delegate) {
+            if (os != null)
+                os.endWrittenMessage();
+        }
+    }
+
+    private void endMessage() throws IOException {
+        ((FramedMessageOutputStream) getOutputStream()).endMessage();
+    }
+
+    @Override
+    public String toString() {
+        return "FramedMessageIpcClient{" + delegate + '}';
+    }
+
+    private static final class FramedMessageOutputStream extends OutputStream {
+
+        private final OutputStream delegate;
+        /** header followed by the buffered frame */
+        private final byte[] frame = new byte[HEADER_SIZE + BUFFER_SIZE];
+        private int count;
+        /** whether any frame was sent */
+        private boolean written;
+        private boolean ended;
+
+        FramedMessageOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (ended) {
+                delegate.write(b);
+                return;
+            }
+
+            if (count == BUFFER_SIZE)
+                writeFrame();
+            frame[HEADER_SIZE + count++] = (byte) b;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if ((off | len) < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (ended) {
+                delegate.write(b, off, len);
+                return;
+            }
+
+            while (len > 0) {
+                if (count == BUFFER_SIZE)
+                    writeFrame();
+                final int n = Math.min(len, BUFFER_SIZE - count);
+                System.arraycopy(b, off, frame, HEADER_SIZE + count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            writeFrame();
+            delegate.flush();
+        }
+
+        /** Sends what's still buffered, followed by the empty frame, unless it was already sent */
+        synchronized void endMessage() throws IOException {
+            if (ended)
+                return;
+
+            writeFrame();
+            // the empty frame is just its header
+            writeHeader(0);
+            delegate.write(frame, 0, HEADER_SIZE);
+            delegate.flush();
+            ended = true;
+        }
+
+        /** Ends the message, unless nothing was written */
+        synchronized void endWrittenMessage() throws IOException {
+            if (written || count > 0)
+                endMessage();
+        }
+
+        private void writeFrame() throws IOException {
+            if (count == 0)
+                return;
+
+            writeHeader(count);
+            // write header and frame at once, so they don't end up in separate, delayed, packets
+            delegate.write(frame, 0, HEADER_SIZE + count);
+            count = 0;
+            written = true;
+        }
+
+        private void writeHeader(int length) {
+            frame[0] = (byte) (length >>> 24);
+            frame[1] = (byte) (length >>> 16);
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (OutputStream ignored = delegate) {
+                endWrittenMessage();
+            }
+        }
+    }
+}
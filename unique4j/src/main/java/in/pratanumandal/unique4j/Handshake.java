@@ -0,0 +1,374 @@
+package in.pratanumandal.unique4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Handshake run on each connection from an other instance to the first instance.
+ *
+ * The other instance sends a hello carrying a marker byte, its protocol version and the capabilities it wants
+ * to use on the connection, in place of the int hello of the legacy protocol. The first instance replies
+ * with a fixed size hello carrying {@link #MAGIC}, its protocol version, a hash of the app id and the capabilities
+ * it offers, which is always the same, so it can be built just once. Both then use the lowest of the two versions
+ * and the capabilities which were both asked for and offered, without any further round trip.
+ * With {@link #CAPABILITY_SENDER_ID}, the other instance then sends the id of its process, before anything else.
+ * With {@link #CAPABILITY_COMPRESSION}, everything after that is compressed, in both directions.
+ * With {@link #CAPABILITY_MESSAGE_FRAMING}, the message of the other instance is sent as frames ending with an empty one,
+ * so that the first instance knows it's over without waiting for the other instance to shut down its output.
+ * A first instance which is already serving too many connections replies with {@link #BUSY} instead, and hangs up.
+ *
+ * Keyed locks share a single server per process, which other instances only ever find through the key they're after,
+ * so they can send the {@link #KEY_SIZE} bytes id of the key right after their hello, without waiting for the hello
+ * of the server. The server then replies with {@link #UNKNOWN_KEY} instead of its hello if the key isn't held there.
+ *
+ * First instances running the legacy protocol ignore the hello and reply with {@code writeUTF(appId)} instead,
+ * which can't be mistaken for the hello of the first instance, as {@link #MAGIC} would be read as a 65535 bytes long
+ * length followed by a byte which is never valid in modified UTF-8. The other instance then goes on with the legacy
+ * exchange. Other instances running the legacy protocol send a hello without the marker byte,
+ * which the first instance answers with {@code writeUTF(appId)} in the same way.
+ */
+final class Handshake {
+
+    /** first byte of the hello of the other instance */
+    static final int HELLO_MARKER = 0x55;
+    /** first int of the hello of the first instance */
+    static final int MAGIC = 0xFFFFFF55;
+    /** sent by the first instance instead of its hello when it's already serving too many connections */
+    static final int BUSY = 0xFFFFFF42;
+    /** sent by a keyed server instead of its hello when it doesn't hold the requested key (anymore) */
+    static final int UNKNOWN_KEY = 0xFFFFFF4B;
+    static final int VERSION = 1;
+
+    /** the connection is a session, instead of a single message */
+    static final int CAPABILITY_SESSIONS = 1;
+    /** the other instance sends the id of its process after the handshake, so that its messages can be ordered */
+    static final int CAPABILITY_SENDER_ID = 1 << 1;
+    /** the other instance sends the id of a key right after its hello, only to keyed servers */
+    static final int CAPABILITY_KEYED = 1 << 2;
+    /** both instances wrap the connection in a {@link CompressedIpcClient} after the handshake */
+    static final int CAPABILITY_COMPRESSION = 1 << 3;
+    /** the other instance wraps a single message connection in a {@link FramedMessageIpcClient} after the handshake */
+    static final int CAPABILITY_MESSAGE_FRAMING = 1 << 4;
+    /** capabilities this version knows how to use, which have to fit in 16 bits */
+    static final int SUPPORTED_CAPABILITIES = CAPABILITY_SESSIONS | CAPABILITY_SENDER_ID | CAPABILITY_COMPRESSION |
+            CAPABILITY_MESSAGE_FRAMING;
+
+    /** sender id of connections which didn't send one */
+    static final long NO_SENDER = 0;
+    /** random id of this process, which only has to tell it apart from the other processes connected at the same time */
+    static final long SENDER_ID = newSenderId();
+
+    /** marker, version and wanted capabilities sent by the other instance */
+    static final int HELLO_SIZE = Integer.BYTES;
+    /** SHA-256 of the key, sent by the other instance after its hello with {@link #CAPABILITY_KEYED} */
+    static final int KEY_SIZE = 32;
+    /** magic, version, app id hash and offered capabilities sent by the first instance */
+    static final int SERVER_HELLO_SIZE = Integer.BYTES + Short.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Handshake() {
+    }
+
+    private static long newSenderId() {
+        long id;
+        while ((id = ThreadLocalRandom.current().nextLong()) == NO_SENDER)
+            ;
+        return id;
+    }
+
+    /** Stable 64-bit FNV-1a hash of the UTF-8 bytes of the app id, which is enough to tell apart different apps */
+    static long appIdHash(String appId) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : appId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /** Capabilities offered by the first instance */
+    static int offeredCapabilities(boolean sessions, DeliveryOrder deliveryOrder, boolean compression, boolean messageFraming) {
+        return (sessions ? CAPABILITY_SESSIONS : 0) |
+                (deliveryOrder != DeliveryOrder.UNORDERED ? CAPABILITY_SENDER_ID : 0) |
+                (compression ? CAPABILITY_COMPRESSION : 0) |
+                (messageFraming ? CAPABILITY_MESSAGE_FRAMING : 0);
+    }
+
+    static int hello(int wantedCapabilities) {
+        return HELLO_MARKER << 24 | VERSION << 16 | (wantedCapabilities & 0xFFFF);
+    }
+
+    /** Hello sent by the first instance */
+    static byte[] serverHello(String appId, int offeredCapabilities) {
+        return ByteBuffer.allocate(SERVER_HELLO_SIZE)
+                .putInt(MAGIC)
+                .putShort((short) VERSION)
+                .putLong(appIdHash(appId))
+                .putInt(offeredCapabilities)
+                .array();
+    }
+
+    /** Response of the first instance to other instances running the legacy protocol */
+    static byte[] legacyResponse(String appId) throws IOException {
+        final ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(response)) {
+            dos.writeUTF(appId);
+        }
+        return response.toByteArray();
+    }
+
+    /**
+     * Turns down a connection, without even reading the hello, so that the other instance retries later.
+     * Other instances running the legacy protocol just see a truncated response.
+     */
+    static void reject(IpcClient client) throws IOException {
+        try (IpcClient ignored = client) {
+            final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+            dos.writeInt(BUSY);
+            dos.flush();
+        }
+    }
+
+    /** Whether the hello was sent by an other instance running the legacy protocol */
+    static boolean isLegacy(int hello) {
+        return hello >>> 24 != HELLO_MARKER;
+    }
+
+    /**
+     * Parses the hello of the other instance, on the first instance
+     *
+     * @param offeredCapabilities capabilities offered in the hello of the first instance
+     */
+    static Negotiated parseHello(int hello, int offeredCapabilities) {
+        if (isLegacy(hello))
+            return Negotiated.LEGACY;
+
+        final int version = Math.min((hello >>> 16) & 0xFF, VERSION);
+        final int wanted = hello & 0xFFFF;
+        return new Negotiated(version, wanted, wanted & offeredCapabilities);
+    }
+
+    /**
+     * Runs the handshake on the first instance
+     *
+     * @param serverHello pre-built {@link #serverHello(String, int)}
+     * @param legacyResponse pre-built {@link #legacyResponse(String)}
+     * @param offeredCapabilities capabilities offered in the server hello
+     */
+    static Negotiated accept(DataInputStream dis,
+                             DataOutputStream dos,
+                             byte[] serverHello,
+                             byte[] legacyResponse,
+                             int offeredCapabilities) throws IOException {
+        final Negotiated negotiated = parseHello(dis.readInt(), offeredCapabilities);
+        dos.write(negotiated == Negotiated.LEGACY ? legacyResponse : serverHello);
+        dos.flush();
+        return negotiated.has(CAPABILITY_SENDER_ID) ? negotiated.withSender(dis.readLong()) : negotiated;
+    }
+
+    /**
+     * Runs the handshake on the other instance
+     *
+     * @param session whether to open a session instead of sending a single message
+     * @param compression whether to compress the connection, if the first instance offers it
+     * @return what was agreed upon, or null if the response was not from a first instance with this app id
+     * @throws SessionRefusedException if a session was asked for, but the first instance does not accept them
+     * @throws BusyException if the first instance turned down the connection, as it's serving too many already
+     */
+    static Negotiated connect(String appId, boolean session, boolean compression, DataInputStream dis, DataOutputStream dos) throws IOException {
+        // sessions are already framed
+        final int wanted = SUPPORTED_CAPABILITIES
+                & (session ? ~CAPABILITY_MESSAGE_FRAMING : ~CAPABILITY_SESSIONS)
+                & (compression ? ~0 : ~CAPABILITY_COMPRESSION);
+        dos.writeInt(hello(wanted));
+        dos.flush();
+
+        try {
+            final int first = dis.readUnsignedShort();
+            if (first != MAGIC >>> 16) {
+                // legacy first instance, which ignored the hello, so this is the length of its app id
+                if (!appId.equals(readLegacyResponse(dis, first)))
+                    return null;
+                if (session)
+                    throw new SessionRefusedException();
+                return Negotiated.LEGACY;
+            }
+
+            final int second = dis.readUnsignedShort();
+            if (second == (BUSY & 0xFFFF))
+                throw new BusyException();
+            if (second != (MAGIC & 0xFFFF))
+                return null;
+
+            final Negotiated negotiated = readServerHello(appId, wanted, dis);
+            if (negotiated == null)
+                return null;
+            if (negotiated.isRefusedSession())
+                throw new SessionRefusedException();
+            if (negotiated.has(CAPABILITY_SENDER_ID)) {
+                dos.writeLong(SENDER_ID);
+                dos.flush();
+                return negotiated.withSender(SENDER_ID);
+            }
+            return negotiated;
+        } catch (EOFException | UTFDataFormatException ex) {
+            // the first instance is probably shutting down
+            return null;
+        }
+    }
+
+    /**
+     * Runs the handshake with a keyed server on the other instance
+     *
+     * @param key id of the key, {@link #KEY_SIZE} bytes long
+     * @return what was agreed upon, or null if the response was not from a keyed server with this app id
+     * @throws UnknownKeyException if the server doesn't hold the key
+     * @throws BusyException if the server turned down the connection, as it's serving too many already
+     */
+    static Negotiated connectKeyed(String appId, byte[] key, DataInputStream dis, DataOutputStream dos) throws IOException {
+        // the key goes along with the hello, so it doesn't cost an other round trip
+        dos.write(ByteBuffer.allocate(HELLO_SIZE + KEY_SIZE).putInt(hello(CAPABILITY_KEYED)).put(key).array());
+        dos.flush();
+
+        try {
+            final int marker = dis.readInt();
+            if (marker == BUSY)
+                throw new BusyException();
+            if (marker == UNKNOWN_KEY)
+                throw new UnknownKeyException();
+            if (marker != MAGIC)
+                return null;
+
+            final Negotiated negotiated = readServerHello(appId, CAPABILITY_KEYED, dis);
+            return negotiated != null && negotiated.has(CAPABILITY_KEYED) ? negotiated : null;
+        } catch (EOFException ex) {
+            // the server is probably shutting down
+            return null;
+        }
+    }
+
+    /**
+     * Runs the handshake on a keyed server
+     *
+     * @param serverHello pre-built {@link #serverHello(String, int)}, offering {@link #CAPABILITY_KEYED}
+     * @param isHeld whether the key with the given id is held by this server
+     * @return id of the requested key, or null if the other instance didn't ask for a key held by this server
+     */
+    static byte[] acceptKeyed(DataInputStream dis,
+                              DataOutputStream dos,
+                              byte[] serverHello,
+                              Predicate<byte[]> isHeld) throws IOException {
+        final Negotiated negotiated = parseHello(dis.readInt(), CAPABILITY_KEYED);
+        if (!negotiated.has(CAPABILITY_KEYED))
+            return null;
+
+        final byte[] key = new byte[KEY_SIZE];
+        dis.readFully(key);
+        if (!isHeld.test(key)) {
+            dos.writeInt(UNKNOWN_KEY);
+            dos.flush();
+            return null;
+        }
+
+        dos.write(serverHello);
+        dos.flush();
+        return key;
+    }
+
+    /** Reads what follows {@link #MAGIC} in the hello of the first instance */
+    private static Negotiated readServerHello(String appId, int wanted, DataInputStream dis) throws IOException {
+        final int serverVersion = dis.readUnsignedShort();
+        final long appIdHash = dis.readLong();
+        final int offered = dis.readInt();
+        if (serverVersion < 1 || appIdHash != appIdHash(appId))
+            return null;
+
+        return new Negotiated(Math.min(serverVersion, VERSION), wanted, wanted & offered);
+    }
+
+    private static String readLegacyResponse(DataInputStream dis, int length) throws IOException {
+        final byte[] utf = new byte[length + 2];
+        utf[0] = (byte) (length >>> 8);
+        utf[1] = (byte) length;
+        dis.readFully(utf, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+    }
+
+    /** What the two instances agreed upon */
+    static final class Negotiated {
+
+        /** legacy protocol, single message, no capabilities */
+        static final Negotiated LEGACY = new Negotiated(0, 0, 0);
+
+        final int version;
+        /** capabilities the other instance asked for */
+        final int wanted;
+        /** capabilities both instances are going to use */
+        final int capabilities;
+        /** id of the process of the other instance, or {@link #NO_SENDER} */
+        final long sender;
+
+        Negotiated(int version, int wanted, int capabilities) {
+            this(version, wanted, capabilities, NO_SENDER);
+        }
+
+        private Negotiated(int version, int wanted, int capabilities, long sender) {
+            this.version = version;
+            this.wanted = wanted;
+            this.capabilities = capabilities;
+            this.sender = sender;
+        }
+
+        Negotiated withSender(long sender) {
+            return new Negotiated(version, wanted, capabilities, sender);
+        }
+
+        boolean has(int capability) {
+            return (capabilities & capability) != 0;
+        }
+
+        boolean isSession() {
+            return has(CAPABILITY_SESSIONS);
+        }
+
+        /** The other instance asked for a session, but the first instance doesn't accept them, so it just hangs up */
+        boolean isRefusedSession() {
+            return (wanted & ~capabilities & CAPABILITY_SESSIONS) != 0;
+        }
+    }
+
+    /** The first instance does not accept sessions */
+    static final class SessionRefusedException extends IOException {
+
+        SessionRefusedException() {
+            super("First instance does not accept sessions");
+        }
+    }
+
+    /** The keyed server doesn't hold the requested key, which was probably just released */
+    static final class UnknownKeyException extends IOException {
+
+        UnknownKeyException() {
+            super("Key is not held by the server");
+        }
+    }
+
+    /** The first instance is serving too many connections, and turned this one down */
+    static final class BusyException extends IOException {
+
+        BusyException() {
+            super("First instance is busy");
+        }
+    }
+}
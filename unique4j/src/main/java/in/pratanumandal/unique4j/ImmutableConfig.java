@@ -1,6 +1,7 @@
 package in.pratanumandal.unique4j;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 
@@ -10,13 +11,86 @@ class ImmutableConfig {
     private final File lockFile;
     private final IpcFactory ipcFactory;
     private final ExecutorService executorService;
+    private final boolean nonBlockingServer;
+    private final RetryPolicy retryPolicy;
+    private final Duration sessionKeepaliveInterval;
+    private final Duration sessionIdleTimeout;
+    private final int earlyMessageQueueSize;
+    private final int earlyMessageQueueMaxBytes;
+    private final EarlyMessageOverflowPolicy earlyMessageOverflowPolicy;
+    private final MetricsListener metricsListener;
+    private final ServerStartMode serverStartMode;
+    private final int acceptBacklog;
+    private final int maxConcurrentConnections;
+    private final DeliveryOrder deliveryOrder;
+    private final int broadcastQueueSize;
+    private final BroadcastOverflowPolicy broadcastOverflowPolicy;
+    private final Duration leaderHeartbeatInterval;
+    private final Duration connectTimeout;
+    private final Duration handshakeTimeout;
+    private final Duration readTimeout;
+    private final Duration messageBufferTimeout;
+    private final int maxMessageSize;
+    private final boolean compressionEnabled;
+    private final int compressionThreshold;
     private final UnexpectedExceptionHandler exceptionHandler;
 
     public ImmutableConfig(Unique4jConfig config) {
         this.appId = Objects.requireNonNull(config.appId());
         this.lockFile = Objects.requireNonNull(config.lockFolder());
         this.ipcFactory = Objects.requireNonNull(config.ipcFactory());
-        this.executorService = Objects.requireNonNull(config.executorService());
+        this.executorService = config.executorService();
+        this.nonBlockingServer = config.nonBlockingServer();
+        this.retryPolicy = Objects.requireNonNull(config.retryPolicy());
+        this.sessionKeepaliveInterval = Objects.requireNonNull(config.sessionKeepaliveInterval());
+        this.sessionIdleTimeout = Objects.requireNonNull(config.sessionIdleTimeout());
+        if (sessionKeepaliveInterval.isNegative() || sessionKeepaliveInterval.isZero())
+            throw new IllegalArgumentException("Session keepalive interval must be positive (was " + sessionKeepaliveInterval + ")");
+        if (sessionIdleTimeout.compareTo(sessionKeepaliveInterval) <= 0)
+            throw new IllegalArgumentException("Session idle timeout (" + sessionIdleTimeout + ") " +
+                    "must be bigger than the keepalive interval (" + sessionKeepaliveInterval + ")");
+        this.earlyMessageQueueSize = config.earlyMessageQueueSize();
+        if (earlyMessageQueueSize < 0)
+            throw new IllegalArgumentException("Early message queue size must not be negative (was " + earlyMessageQueueSize + ")");
+        this.earlyMessageQueueMaxBytes = config.earlyMessageQueueMaxBytes();
+        if (earlyMessageQueueMaxBytes < 0)
+            throw new IllegalArgumentException("Early message queue max bytes must not be negative (was " + earlyMessageQueueMaxBytes + ")");
+        this.earlyMessageOverflowPolicy = Objects.requireNonNull(config.earlyMessageOverflowPolicy());
+        this.metricsListener = Objects.requireNonNull(config.metricsListener());
+        this.serverStartMode = Objects.requireNonNull(config.serverStartMode());
+        this.acceptBacklog = config.acceptBacklog();
+        if (acceptBacklog < 0)
+            throw new IllegalArgumentException("Accept backlog must not be negative (was " + acceptBacklog + ")");
+        this.maxConcurrentConnections = config.maxConcurrentConnections();
+        if (maxConcurrentConnections <= 0)
+            throw new IllegalArgumentException("Max concurrent connections must be positive (was " + maxConcurrentConnections + ")");
+        this.deliveryOrder = Objects.requireNonNull(config.deliveryOrder());
+        this.broadcastQueueSize = config.broadcastQueueSize();
+        if (broadcastQueueSize <= 0)
+            throw new IllegalArgumentException("Broadcast queue size must be positive (was " + broadcastQueueSize + ")");
+        this.broadcastOverflowPolicy = Objects.requireNonNull(config.broadcastOverflowPolicy());
+        this.leaderHeartbeatInterval = Objects.requireNonNull(config.leaderHeartbeatInterval());
+        if (leaderHeartbeatInterval.toMillis() <= 0)
+            throw new IllegalArgumentException("Leader heartbeat interval must be at least a millisecond (was " + leaderHeartbeatInterval + ")");
+        this.connectTimeout = Objects.requireNonNull(config.connectTimeout());
+        if (connectTimeout.isNegative())
+            throw new IllegalArgumentException("Connect timeout must not be negative (was " + connectTimeout + ")");
+        this.handshakeTimeout = Objects.requireNonNull(config.handshakeTimeout());
+        if (handshakeTimeout.isNegative())
+            throw new IllegalArgumentException("Handshake timeout must not be negative (was " + handshakeTimeout + ")");
+        this.readTimeout = Objects.requireNonNull(config.readTimeout());
+        if (readTimeout.isNegative())
+            throw new IllegalArgumentException("Read timeout must not be negative (was " + readTimeout + ")");
+        this.messageBufferTimeout = Objects.requireNonNull(config.messageBufferTimeout());
+        if (messageBufferTimeout.isNegative())
+            throw new IllegalArgumentException("Message buffer timeout must not be negative (was " + messageBufferTimeout + ")");
+        this.maxMessageSize = config.maxMessageSize();
+        if (maxMessageSize < 0)
+            throw new IllegalArgumentException("Max message size must not be negative (was " + maxMessageSize + ")");
+        this.compressionEnabled = config.compressionEnabled();
+        this.compressionThreshold = config.compressionThreshold();
+        if (compressionThreshold < 0)
+            throw new IllegalArgumentException("Compression threshold must not be negative (was " + compressionThreshold + ")");
         this.exceptionHandler = Objects.requireNonNull(config.exceptionHandler());
     }
 
@@ -32,10 +106,107 @@ class ImmutableConfig {
         return ipcFactory;
     }
 
+    /** @return the executor set by the user, or null if the lock should create its own */
     public ExecutorService getExecutorService() {
         return executorService;
     }
 
+    public boolean isNonBlockingServer() {
+        return nonBlockingServer;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public Duration getSessionKeepaliveInterval() {
+        return sessionKeepaliveInterval;
+    }
+
+    public Duration getSessionIdleTimeout() {
+        return sessionIdleTimeout;
+    }
+
+    public int getEarlyMessageQueueSize() {
+        return earlyMessageQueueSize;
+    }
+
+    public int getEarlyMessageQueueMaxBytes() {
+        return earlyMessageQueueMaxBytes;
+    }
+
+    public EarlyMessageOverflowPolicy getEarlyMessageOverflowPolicy() {
+        return earlyMessageOverflowPolicy;
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    public ServerStartMode getServerStartMode() {
+        return serverStartMode;
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public int getMaxConcurrentConnections() {
+        return maxConcurrentConnections;
+    }
+
+    public DeliveryOrder getDeliveryOrder() {
+        return deliveryOrder;
+    }
+
+    public int getBroadcastQueueSize() {
+        return broadcastQueueSize;
+    }
+
+    public BroadcastOverflowPolicy getBroadcastOverflowPolicy() {
+        return broadcastOverflowPolicy;
+    }
+
+    public Duration getLeaderHeartbeatInterval() {
+        return leaderHeartbeatInterval;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /** Gets the connect timeout as expected by {@link IpcFactory#createIpcClient(File, String, int)} */
+    public int getConnectTimeoutMillis() {
+        if (connectTimeout.isZero())
+            return 0;
+        // don't round a tiny timeout down to no timeout at all
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, connectTimeout.toMillis()));
+    }
+
+    public Duration getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public Duration getMessageBufferTimeout() {
+        return messageBufferTimeout;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
     public UnexpectedExceptionHandler getExceptionHandler() {
         return exceptionHandler;
     }
@@ -1,6 +1,7 @@
 package in.pratanumandal.unique4j;
 
 import java.io.Closeable;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,4 +11,46 @@ public interface IpcClient extends Closeable {
     InputStream getInputStream() throws IOException;
 
     OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Signals the end of the stream to the other side, while still allowing to read from this client.
+     *
+     * When talking to a first instance using a {@link Unique4jConfig#nonBlockingServer(boolean) non-blocking server},
+     * this has to be called before waiting for a reply, as the message is only delivered once fully received.
+     *
+     * @throws UnsupportedOperationException if the implementation doesn't support half-closing
+     */
+    default void shutdownOutput() throws IOException {
+        throw new UnsupportedOperationException("Half-closing is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Sends open file descriptors (ex. of a file, a pipe or a socket) to the other side, which gets its own
+     * copies with {@link #receiveFileDescriptors()}, so that it can take over the resource itself,
+     * instead of re-opening it by path or having its contents copied through the connection.
+     *
+     * They're sent along with a single byte, after whatever was written before, so the other side has to call
+     * {@link #receiveFileDescriptors()} at the same point of the exchange, without having read ahead.
+     * The file descriptors can be closed once this returns.
+     *
+     * @param fileDescriptors file descriptors to send, at least one
+     * @throws UnsupportedOperationException if the implementation can't pass file descriptors
+     * (ex. anything but {@code AFUNIXSocketIpcFactory})
+     */
+    default void sendFileDescriptors(FileDescriptor... fileDescriptors) throws IOException {
+        throw new UnsupportedOperationException("Passing file descriptors is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Receives the file descriptors sent by the other side with {@link #sendFileDescriptors(FileDescriptor...)},
+     * blocking until they arrive.
+     *
+     * @return received file descriptors, which are owned by the caller
+     * @throws java.io.EOFException if the other side closed the connection
+     * @throws IOException if what was received is not file descriptors, or receiving failed
+     * @throws UnsupportedOperationException if the implementation can't pass file descriptors
+     */
+    default FileDescriptor[] receiveFileDescriptors() throws IOException {
+        throw new UnsupportedOperationException("Passing file descriptors is not supported by " + getClass().getName());
+    }
 }
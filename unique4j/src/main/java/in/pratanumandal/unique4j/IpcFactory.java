@@ -7,5 +7,27 @@ public interface IpcFactory {
 
     IpcServer createIpcServer(File parentDirectory, String appId) throws IOException;
 
+    /**
+     * Creates the server, letting the OS queue up to the given number of connections waiting to be accepted.
+     *
+     * Factories which have no such queue can ignore it, which is what the default implementation does.
+     *
+     * @param backlog max number of pending connections, or 0 to use the implementation default
+     */
+    default IpcServer createIpcServer(File parentDirectory, String appId, int backlog) throws IOException {
+        return createIpcServer(parentDirectory, appId);
+    }
+
     IpcClient createIpcClient(File parentDirectory, String appId) throws IOException;
+
+    /**
+     * Creates a client, giving up if the connection can't be established within the given timeout.
+     *
+     * Factories which can't bound the time it takes can ignore it, which is what the default implementation does.
+     *
+     * @param connectTimeoutMillis max time to wait for the connection, or 0 to wait indefinitely
+     */
+    default IpcClient createIpcClient(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
+        return createIpcClient(parentDirectory, appId);
+    }
 }
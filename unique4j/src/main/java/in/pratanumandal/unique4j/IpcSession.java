@@ -0,0 +1,35 @@
+package in.pratanumandal.unique4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Long-lived connection between an other instance and the first instance,
+ * on which both sides can send messages at any time.
+ *
+ * Idle connections are kept alive, and dead ones reaped, according to {@link Unique4jConfig#sessionKeepaliveInterval()}
+ * and {@link Unique4jConfig#sessionIdleTimeout()}.
+ * Sessions opened by other instances transparently reconnect if the first instance restarts.
+ *
+ * @see Unique4j.InstanceSelector#openSession(SessionListener)
+ * @see Unique4j.InstanceSelector#newLock(FirstInstance, OtherInstance, SessionListener)
+ */
+public interface IpcSession extends Closeable {
+
+    /**
+     * Sends a message, which the other side receives as a whole in {@link SessionListener#onMessage(IpcSession, byte[])}.
+     *
+     * While the session is reconnecting, this blocks until it either reconnects or gives up.
+     * Messages sent right as the connection drops might be lost, so listeners should re-sync
+     * any needed state in {@link SessionListener#onOpen(IpcSession)}.
+     *
+     * @param message message to send
+     * @throws IOException if the session is closed or sending failed
+     */
+    void send(byte[] message) throws IOException;
+
+    boolean isOpen();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,361 @@
+package in.pratanumandal.unique4j;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Server shared by all the keyed locks held by this process for the same lock folder,
+ * so that holding many keys doesn't cost a listening endpoint and an accept loop each.
+ *
+ * Each key has its own lock file in {@value #KEYS_FOLDER_NAME}, next to which its holder publishes the name
+ * of the folder of its server in {@value #SERVERS_FOLDER_NAME}, where the {@link IpcFactory} creates the endpoint.
+ * Other instances look it up, then ask for the key in the handshake, see {@link Handshake#CAPABILITY_KEYED}.
+ *
+ * The server is started by the first key acquired, with the config of its lock, and closed once the last one is released.
+ * The folder of each server is locked while it runs, so that the ones left behind by crashed processes can be cleaned up.
+ */
+final class KeyedIpcServer {
+
+    static final String KEYS_FOLDER_NAME = "keys";
+    static final String SERVERS_FOLDER_NAME = "servers";
+    private static final String SERVER_LOCK_FILE_NAME = "server.lock";
+    /** held while starting a server or cleaning up stale ones, so that a server being started is never cleaned up */
+    private static final String SWEEP_LOCK_FILE_NAME = "sweep.lock";
+    private static final long ACCEPT_LOOP_SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    /** running servers by lock folder, guarded by itself */
+    private static final Map<File, KeyedIpcServer> SERVERS = new HashMap<>();
+
+    private final ImmutableConfig config;
+    private final File serversKey;
+    private final String name;
+    private final File folder;
+    private final FileChannel folderLockChannel;
+    private final FileLock folderLock;
+    private final IpcServer server;
+    private final LeaderRecord leaderRecord;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Future<?> acceptLoop;
+    /** handlers of the held keys, by key id */
+    private final Map<ByteBuffer, FirstInstance> handlers = new ConcurrentHashMap<>();
+    /** number of held keys, guarded by {@link #SERVERS} */
+    private int references;
+
+    private KeyedIpcServer(ImmutableConfig config, File serversKey) throws IOException {
+        this.config = config;
+        this.serversKey = serversKey;
+
+        final Path serversFolder = config.getLockFolder().toPath().resolve(SERVERS_FOLDER_NAME);
+        Files.createDirectories(serversFolder);
+
+        long id;
+        while ((id = ThreadLocalRandom.current().nextLong()) == 0)
+            ;
+        this.name = String.format("%016x", id);
+        this.folder = serversFolder.resolve(name).toFile();
+
+        try (FileChannel sweepChannel = FileChannel.open(
+                serversFolder.resolve(SWEEP_LOCK_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = sweepChannel.lock()) {
+            sweepStaleServers(serversFolder);
+
+            Files.createDirectories(folder.toPath());
+            this.folderLockChannel = FileChannel.open(
+                    folder.toPath().resolve(SERVER_LOCK_FILE_NAME),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                this.folderLock = folderLockChannel.lock();
+            } catch (IOException | RuntimeException ex) {
+                folderLockChannel.close();
+                throw ex;
+            }
+        }
+
+        IpcServer server = null;
+        LeaderRecord leaderRecord = null;
+        ExecutorService ownedExecutor = null;
+        try {
+            this.server = server = config.getIpcFactory().createIpcServer(folder, config.getAppId(), config.getAcceptBacklog());
+            this.leaderRecord = leaderRecord = LeaderRecord.tryPublish(config, folder, server);
+
+            this.ownsExecutor = config.getExecutorService() == null;
+            this.executor = ownsExecutor
+                    ? ownedExecutor = DefaultExecutors.newDefaultExecutor(config.getAppId())
+                    : config.getExecutorService();
+            this.acceptLoop = executor.submit(this::acceptLoop);
+        } catch (IOException | RuntimeException ex) {
+            try {
+                if (ownedExecutor != null)
+                    ownedExecutor.shutdown();
+                if (leaderRecord != null)
+                    leaderRecord.close();
+                if (server != null)
+                    server.close();
+                folderLock.release();
+                folderLockChannel.close();
+                deleteFolder(folder.toPath());
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the server of this process for the lock folder of the config, starting it if needed,
+     * which has to be matched by a call to {@link #release()}
+     */
+    static KeyedIpcServer acquire(ImmutableConfig config) throws IOException {
+        final File serversKey = config.getLockFolder().getAbsoluteFile();
+        while (true) {
+            synchronized (SERVERS) {
+                final KeyedIpcServer server = SERVERS.get(serversKey);
+                if (server != null) {
+                    server.references++;
+                    return server;
+                }
+            }
+
+            // started outside of the monitor, as it waits for a lock shared with other processes,
+            // which would hold up the keys of all the other lock folders
+            final KeyedIpcServer started = new KeyedIpcServer(config, serversKey);
+            synchronized (SERVERS) {
+                if (SERVERS.putIfAbsent(serversKey, started) == null) {
+                    started.references++;
+                    return started;
+                }
+            }
+
+            // an other thread started one in the meantime, use that one instead
+            started.close();
+        }
+    }
+
+    void release() throws IOException {
+        synchronized (SERVERS) {
+            if (--references > 0)
+                return;
+            SERVERS.remove(serversKey);
+        }
+
+        close();
+    }
+
+    /** Id of the key sent in the handshake, and used to name its files */
+    static byte[] keyId(String key) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError("SHA-256 is supported by every Java platform", ex);
+        }
+    }
+
+    static String keyFileName(byte[] keyId) {
+        final StringBuilder sb = new StringBuilder(keyId.length * 2);
+        for (byte b : keyId)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    static File keysFolder(ImmutableConfig config) {
+        return new File(config.getLockFolder(), KEYS_FOLDER_NAME);
+    }
+
+    private static Path pointerFile(ImmutableConfig config, byte[] keyId) {
+        return keysFolder(config).toPath().resolve(keyFileName(keyId) + ".server");
+    }
+
+    /** Starts routing connections for the key to the handler, and tells other instances where to find it */
+    void register(byte[] keyId, FirstInstance handler) throws IOException {
+        handlers.put(ByteBuffer.wrap(keyId), handler != null ? handler : client -> {});
+        try {
+            AtomicFiles.replace(pointerFile(config, keyId), ByteBuffer.wrap(name.getBytes(StandardCharsets.US_ASCII)));
+        } catch (IOException | RuntimeException ex) {
+            handlers.remove(ByteBuffer.wrap(keyId));
+            throw ex;
+        }
+    }
+
+    /** Stops routing connections for the key, which must still be locked so that no one else is publishing it */
+    void unregister(byte[] keyId) {
+        handlers.remove(ByteBuffer.wrap(keyId));
+        try {
+            Files.deleteIfExists(pointerFile(config, keyId));
+        } catch (IOException ex) {
+            // other instances just fail to connect to it, and retry
+            config.getExceptionHandler().unexpectedException(server, null, ex);
+        }
+    }
+
+    /** Folder of the server holding the key, as published by its holder */
+    static File lookup(ImmutableConfig config, byte[] keyId) throws IOException {
+        final byte[] name = Files.readAllBytes(pointerFile(config, keyId));
+        if (name.length != 16)
+            throw new IOException("Corrupted server pointer for key " + keyFileName(keyId));
+        for (byte c : name) {
+            if (Character.digit(c, 16) < 0)
+                throw new IOException("Corrupted server pointer for key " + keyFileName(keyId));
+        }
+
+        return new File(new File(config.getLockFolder(), SERVERS_FOLDER_NAME), new String(name, StandardCharsets.US_ASCII));
+    }
+
+    private void acceptLoop() {
+        final byte[] serverHello = Handshake.serverHello(config.getAppId(), Handshake.CAPABILITY_KEYED);
+        final Semaphore permits = new Semaphore(config.getMaxConcurrentConnections());
+        final AcceptBackoff backoff = new AcceptBackoff();
+        while (!server.isClosed()) {
+            final IpcClient client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    config.getMetricsListener().acceptFailed(e);
+                    config.getExceptionHandler().unexpectedException(server, null, e);
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(backoff.nextDelayNanos());
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            backoff.reset();
+            config.getMetricsListener().connectionAccepted();
+            LifecycleEvents.connectionAccepted(config.getAppId());
+
+            if (!permits.tryAcquire()) {
+                Unique4jIpcLock.reject(config, server, client);
+                continue;
+            }
+
+            try {
+                executor.submit(() -> {
+                    try (DeadlineIpcClient timedClient = DeadlineIpcClient.wrap(config, client)) {
+                        serve(timedClient, serverHello);
+                    } catch (Throwable t) {
+                        config.getExceptionHandler().unexpectedException(server, null, t);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                Unique4jIpcLock.reject(config, server, client);
+            }
+        }
+    }
+
+    private void serve(DeadlineIpcClient client, byte[] serverHello) throws IOException, InterruptedException {
+        client.deadline(config.getHandshakeTimeout());
+        final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+        final DataInputStream dis = new DataInputStream(client.getInputStream());
+
+        final byte[] keyId;
+        final LifecycleEvent handshakeEvent = LifecycleEvents.handshake(config.getAppId(), true);
+        try {
+            keyId = Handshake.acceptKeyed(dis, dos, serverHello, id -> handlers.containsKey(ByteBuffer.wrap(id)));
+        } catch (IOException e) {
+            handshakeEvent.end(false);
+            config.getExceptionHandler().unexpectedException(server, client, e);
+            return;
+        }
+        handshakeEvent.end(keyId != null);
+        client.deadline(Duration.ZERO);
+        client.readTimeout(config.getReadTimeout());
+
+        // might have been released in the meantime, in which case the other instance just gets the message lost
+        final FirstInstance handler = keyId != null ? handlers.get(ByteBuffer.wrap(keyId)) : null;
+        if (handler != null)
+            Unique4jIpcLock.runHandler(config, handler, client);
+    }
+
+    private void close() throws IOException {
+        try {
+            if (leaderRecord != null)
+                leaderRecord.close();
+            server.close();
+        } finally {
+            // as with a single lock, the endpoint might only be released once the accept loop wakes up
+            try {
+                acceptLoop.get(ACCEPT_LOOP_SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException ex) {
+                config.getExceptionHandler().unexpectedException(null, null, ex);
+            }
+
+            if (ownsExecutor)
+                executor.shutdown();
+
+            try {
+                folderLock.release();
+            } finally {
+                folderLockChannel.close();
+                deleteFolder(folder.toPath());
+            }
+        }
+    }
+
+    /** Deletes the folders of the servers of processes which died without closing them */
+    private static void sweepStaleServers(Path serversFolder) throws IOException {
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(serversFolder, Files::isDirectory)) {
+            for (Path folder : folders) {
+                final boolean stale;
+                try (FileChannel channel = FileChannel.open(folder.resolve(SERVER_LOCK_FILE_NAME), StandardOpenOption.WRITE)) {
+                    final FileLock lock = channel.tryLock();
+                    stale = lock != null;
+                    if (lock != null)
+                        lock.release();
+                } catch (NoSuchFileException ex) {
+                    // not started, it was being cleaned up when its process died
+                    deleteFolder(folder);
+                    continue;
+                } catch (OverlappingFileLockException ex) {
+                    // held by this same JVM
+                    continue;
+                }
+
+                if (stale)
+                    deleteFolder(folder);
+            }
+        }
+    }
+
+    private static void deleteFolder(Path folder) {
+        try {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+                for (Path file : files)
+                    Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(folder);
+        } catch (IOException ignored) {
+            // best effort, it's going to be swept again by the next server started
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "KeyedIpcServer{" + folder + '}';
+    }
+}
@@ -0,0 +1,203 @@
+package in.pratanumandal.unique4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small memory-mapped file published by the first instance next to its endpoint, telling other instances
+ * which process it is and whether it's still responsive, so that they can skip dead or wedged ones
+ * instead of finding out when connecting to them, or reading from them, fails or hangs.
+ *
+ * It contains the pid and start time of the process, a description of the endpoint, and a heartbeat
+ * bumped at a fixed interval by the {@link DaemonScheduler}:
+ * a heartbeat older than a few intervals means the whole process is stuck (ex. suspended).
+ * Other instances only ever read it, and go ahead as before if it's missing or can't be made sense of.
+ */
+final class LeaderRecord implements Closeable {
+
+    static final String FILE_NAME = "leader.record";
+
+    // layout of the record
+    private static final int MAGIC = 0x55344C52; // "U4LR"
+    private static final int VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int PID_OFFSET = 8;
+    private static final int START_OFFSET = 16;
+    private static final int PID_NAMESPACE_OFFSET = 24;
+    private static final int INTERVAL_OFFSET = 32;
+    private static final int HEARTBEAT_COUNT_OFFSET = 40;
+    private static final int HEARTBEAT_MILLIS_OFFSET = 48;
+    private static final int ENDPOINT_LENGTH_OFFSET = 56;
+    private static final int ENDPOINT_OFFSET = 60;
+    private static final int SIZE = 256;
+
+    /** number of heartbeat intervals after which the process is considered wedged */
+    private static final int STALE_INTERVALS = 5;
+
+    /** pid namespace of this process, or 0 if unknown or there are none */
+    private static final long PID_NAMESPACE = findPidNamespace();
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ScheduledFuture<?> heartbeat;
+
+    private LeaderRecord(Path file, FileChannel channel, MappedByteBuffer buffer, long intervalMillis) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.heartbeat = DaemonScheduler.get().scheduleAtFixedRate(this::beat, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static long findPidNamespace() {
+        // pids are only comparable within the same namespace (ex. containers sharing the lock folder),
+        // only Linux has them, where the link looks like "pid:[4026531836]"
+        try {
+            final String link = Files.readSymbolicLink(Paths.get("/proc/self/ns/pid")).toString();
+            final int start = link.indexOf('['), end = link.indexOf(']');
+            return start >= 0 && end > start ? Long.parseLong(link.substring(start + 1, end)) : 0;
+        } catch (IOException | RuntimeException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Publishes the record of the server in its folder, as configured.
+     * Other instances can do without it, so failures are only reported.
+     *
+     * @return the published record, or null if it failed
+     */
+    static LeaderRecord tryPublish(ImmutableConfig config, File folder, IpcServer server) {
+        try {
+            return publish(folder, String.valueOf(server), config.getLeaderHeartbeatInterval().toMillis());
+        } catch (IOException | RuntimeException ex) {
+            config.getExceptionHandler().unexpectedException(server, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Publishes the record of this process in the folder of the endpoint
+     *
+     * @param folder folder of the endpoint
+     * @param endpoint description of the endpoint, only used in error messages
+     * @param interval heartbeat interval in milliseconds
+     */
+    static LeaderRecord publish(File folder, String endpoint, long interval) throws IOException {
+        final Path file = folder.toPath().resolve(FILE_NAME);
+        // readers never see it half-written, the record of a dead process is just replaced
+        AtomicFiles.replace(file, encode(
+                Processes.currentPid(), Processes.currentStartMillis(),
+                interval, System.currentTimeMillis(), endpoint));
+
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new LeaderRecord(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE), interval);
+        } catch (IOException | RuntimeException ex) {
+            try {
+                channel.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
+    /** Encodes a record of a process in the pid namespace of this one */
+    static ByteBuffer encode(long pid, long startMillis, long interval, long heartbeatMillis, String endpoint) {
+        final byte[] endpointBytes = endpoint.getBytes(StandardCharsets.UTF_8);
+        final int endpointLength = Math.min(endpointBytes.length, SIZE - ENDPOINT_OFFSET);
+        final ByteBuffer content = ByteBuffer.allocate(SIZE);
+        content.putInt(MAGIC_OFFSET, MAGIC);
+        content.putInt(VERSION_OFFSET, VERSION);
+        content.putLong(PID_OFFSET, pid);
+        content.putLong(START_OFFSET, startMillis);
+        content.putLong(PID_NAMESPACE_OFFSET, PID_NAMESPACE);
+        content.putLong(INTERVAL_OFFSET, interval);
+        content.putLong(HEARTBEAT_MILLIS_OFFSET, heartbeatMillis);
+        content.putInt(ENDPOINT_LENGTH_OFFSET, endpointLength);
+        content.position(ENDPOINT_OFFSET);
+        content.put(endpointBytes, 0, endpointLength);
+        content.clear();
+        return content;
+    }
+
+    private void beat() {
+        // the count is just for diagnostics, other processes go by the time, which they can compare to theirs
+        buffer.putLong(HEARTBEAT_COUNT_OFFSET, buffer.getLong(HEARTBEAT_COUNT_OFFSET) + 1);
+        buffer.putLong(HEARTBEAT_MILLIS_OFFSET, System.currentTimeMillis());
+    }
+
+    /**
+     * Checks the record published in the folder of the endpoint, if any, before connecting to it
+     *
+     * @param folder folder of the endpoint
+     * @throws IOException if the first instance is known to be dead or wedged
+     */
+    static void check(File folder) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(SIZE);
+        try (FileChannel channel = FileChannel.open(folder.toPath().resolve(FILE_NAME), StandardOpenOption.READ)) {
+            while (record.hasRemaining() && channel.read(record) >= 0)
+                ;
+        } catch (NoSuchFileException ex) {
+            // not published yet, or by a version which doesn't, so there's nothing to go by
+            return;
+        }
+
+        if (record.hasRemaining() ||
+                record.getInt(MAGIC_OFFSET) != MAGIC ||
+                record.getInt(VERSION_OFFSET) != VERSION)
+            return;
+
+        final long pid = record.getLong(PID_OFFSET);
+        final long pidNamespace = record.getLong(PID_NAMESPACE_OFFSET);
+        if (pidNamespace == PID_NAMESPACE && !Processes.isAlive(pid, record.getLong(START_OFFSET)))
+            throw new IOException("First instance at " + endpoint(record) + " (pid " + pid + ") is not running anymore");
+
+        final long interval = record.getLong(INTERVAL_OFFSET);
+        final long sinceHeartbeat = System.currentTimeMillis() - record.getLong(HEARTBEAT_MILLIS_OFFSET);
+        if (interval > 0 && sinceHeartbeat > interval * STALE_INTERVALS)
+            throw new IOException("First instance at " + endpoint(record) + " (pid " + pid + ") is not responding, " +
+                    "last heartbeat " + sinceHeartbeat + "ms ago");
+    }
+
+    private static String endpoint(ByteBuffer record) {
+        final int length = record.getInt(ENDPOINT_LENGTH_OFFSET);
+        if (length < 0 || length > SIZE - ENDPOINT_OFFSET)
+            return "?";
+        return new String(record.array(), ENDPOINT_OFFSET, length, StandardCharsets.UTF_8);
+    }
+
+    /** Stops the heartbeat and deletes the record, which must happen before the lock is released */
+    @Override
+    public void close() {
+        heartbeat.cancel(false);
+        // the mapping outlives the channel until it's garbage collected, and on Windows that prevents deleting
+        // the file, so make sure other instances ignore it even if it's left behind
+        buffer.putInt(MAGIC_OFFSET, 0);
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // replaced by the next first instance
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LeaderRecord{" + file + '}';
+    }
+}
@@ -0,0 +1,17 @@
+package in.pratanumandal.unique4j;
+
+/**
+ * Java Flight Recorder duration event, already begun when returned by {@link LifecycleEvents}
+ */
+interface LifecycleEvent {
+
+    /** Event which is never recorded */
+    LifecycleEvent NOOP = success -> {};
+
+    /**
+     * Ends the event and records it, if it's enabled in a running recording
+     *
+     * @param success whether the operation the event measures succeeded
+     */
+    void end(boolean success);
+}
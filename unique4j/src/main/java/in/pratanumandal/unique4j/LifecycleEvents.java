@@ -0,0 +1,46 @@
+package in.pratanumandal.unique4j;
+
+/**
+ * Creates the Java Flight Recorder events of the lock lifecycle.
+ *
+ * JFR is not available in Java 8, so nothing is recorded here:
+ * this is replaced in the multi-release jar by a Java 11 version which does record them.
+ */
+final class LifecycleEvents {
+
+    private LifecycleEvents() {
+    }
+
+    /** Attempt to lock the lock file */
+    static LifecycleEvent fileLock(String appId) {
+        return LifecycleEvent.NOOP;
+    }
+
+    /** Creation of the server by the first instance */
+    static LifecycleEvent serverBind(String appId) {
+        return LifecycleEvent.NOOP;
+    }
+
+    /** Connection accepted by the first instance, recorded right away */
+    static void connectionAccepted(String appId) {
+    }
+
+    /**
+     * Handshake between the first instance and an other instance
+     *
+     * @param firstInstance whether it's recorded by the first instance or by the other instance
+     */
+    static LifecycleEvent handshake(String appId, boolean firstInstance) {
+        return LifecycleEvent.NOOP;
+    }
+
+    /** Execution of the {@link FirstInstance} handler */
+    static LifecycleEvent handler(String appId) {
+        return LifecycleEvent.NOOP;
+    }
+
+    /** Release of the lock */
+    static LifecycleEvent unlock(String appId) {
+        return LifecycleEvent.NOOP;
+    }
+}
@@ -0,0 +1,54 @@
+package in.pratanumandal.unique4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/** Allows to sleep until either a timeout expires or something changes in the lock folder */
+class LockFolderWatcher implements Closeable {
+
+    private final WatchService watchService;
+
+    LockFolderWatcher(Path lockFolder) throws IOException {
+        this.watchService = lockFolder.getFileSystem().newWatchService();
+        try {
+            lockFolder.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException ex) {
+
+            try {
+                watchService.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits until either the timeout expires or the lock folder changes
+     *
+     * @param timeoutNanos max time to wait
+     * @return true if the lock folder changed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean await(long timeoutNanos) throws InterruptedException {
+        final WatchKey key = watchService.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+        if(key == null)
+            return false;
+
+        // consume everything which happened up until now, so the next call only wakes up for new changes
+        key.pollEvents();
+        key.reset();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,24 @@
+package in.pratanumandal.unique4j;
+
+/**
+ * Outcome of {@link Unique4jLock#tryLockAsync()}
+ */
+public enum LockResult {
+    /** The lock was acquired, so this is the first instance */
+    ACQUIRED,
+    /** The lock is held by the first instance, which was reached and notified */
+    FIRST_INSTANCE_FOUND;
+
+    /**
+     * Queries if the lock was acquired, as returned by {@link Unique4jLock#tryLock()}.
+     *
+     * @return {@code true} if this is the first instance
+     */
+    public boolean isAcquired() {
+        return this == ACQUIRED;
+    }
+
+    static LockResult of(boolean acquired) {
+        return acquired ? ACQUIRED : FIRST_INSTANCE_FOUND;
+    }
+}
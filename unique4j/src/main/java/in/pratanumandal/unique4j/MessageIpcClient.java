@@ -0,0 +1,27 @@
+package in.pratanumandal.unique4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * IpcClient of the first instance which can tell where the message of the other instance ends,
+ * so that it can be read whole before the other instance shuts down its output, ex. while it waits for a reply
+ */
+interface MessageIpcClient extends IpcClient {
+
+    /**
+     * @return stream of the message of the other instance alone, which ends where the message does,
+     *         while {@link #getInputStream()} goes on with whatever the other instance sends afterwards
+     */
+    InputStream getMessageInputStream() throws IOException;
+
+    /**
+     * @return stream of the message of the other instance alone, if the client can tell where it ends,
+     *         otherwise its whole input, which ends once the other instance shuts down its output
+     */
+    static InputStream messageInputStream(IpcClient client) throws IOException {
+        return client instanceof MessageIpcClient
+                ? ((MessageIpcClient) client).getMessageInputStream()
+                : client.getInputStream();
+    }
+}
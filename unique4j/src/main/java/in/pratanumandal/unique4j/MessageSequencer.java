@@ -0,0 +1,145 @@
+package in.pratanumandal.unique4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Stamps the connections accepted by the first instance with an arrival sequence number,
+ * and holds back the delivery of each message until the earlier ones it has to follow,
+ * according to the {@link DeliveryOrder}, are done.
+ *
+ * With {@link DeliveryOrder#PER_SENDER}, a message also waits for earlier connections
+ * which didn't get through the handshake yet, as they might turn out to come from the same sender.
+ * Nothing ever blocks waiting for its turn: the delivery which completes runs, or submits, the ones it was holding back.
+ */
+final class MessageSequencer {
+
+    private final DeliveryOrder order;
+    private final Executor executor;
+
+    private long nextSequence;
+    /** connections which were accepted, but whose delivery isn't done yet, by sequence number */
+    private final TreeMap<Long, Entry> pending = new TreeMap<>();
+
+    MessageSequencer(DeliveryOrder order, Executor executor) {
+        this.order = order;
+        this.executor = executor;
+    }
+
+    /** Stamps a connection which was just accepted */
+    synchronized long arrived() {
+        final long sequence = nextSequence++;
+        if (order != DeliveryOrder.UNORDERED)
+            pending.put(sequence, new Entry());
+        return sequence;
+    }
+
+    /** The connection isn't going to deliver a message (ex. the handshake failed, or it's a session) */
+    void skip(long sequence) {
+        if (order == DeliveryOrder.UNORDERED)
+            return;
+
+        final List<Map.Entry<Long, Entry>> ready;
+        synchronized (this) {
+            if (pending.remove(sequence) == null)
+                return;
+            ready = takeReady();
+        }
+        submit(ready);
+    }
+
+    /**
+     * Delivers the message of the connection, on the calling thread if it's already its turn,
+     * otherwise on the executor once the earlier deliveries it has to follow are done.
+     *
+     * @param sender id of the process which sent the message, or {@link Handshake#NO_SENDER} if unknown
+     */
+    void deliver(long sequence, long sender, Runnable delivery) {
+        if (order == DeliveryOrder.UNORDERED) {
+            delivery.run();
+            return;
+        }
+
+        final boolean runNow;
+        synchronized (this) {
+            final Entry entry = pending.get(sequence);
+            entry.identified = true;
+            entry.sender = sender;
+            entry.delivery = delivery;
+            runNow = entry.running = isTurn(sequence, entry);
+        }
+
+        if (runNow)
+            run(sequence, delivery);
+    }
+
+    private void run(long sequence, Runnable delivery) {
+        try {
+            delivery.run();
+        } finally {
+            final List<Map.Entry<Long, Entry>> ready;
+            synchronized (this) {
+                pending.remove(sequence);
+                ready = takeReady();
+            }
+            submit(ready);
+        }
+    }
+
+    private void submit(List<Map.Entry<Long, Entry>> ready) {
+        for (Map.Entry<Long, Entry> entry : ready) {
+            final long sequence = entry.getKey();
+            final Runnable delivery = entry.getValue().delivery;
+            try {
+                executor.execute(() -> run(sequence, delivery));
+            } catch (RejectedExecutionException ex) {
+                // shutting down, but the delivery still has to run to release the connection
+                run(sequence, delivery);
+            }
+        }
+    }
+
+    /** Marks as running all the deliveries whose turn has come */
+    private List<Map.Entry<Long, Entry>> takeReady() {
+        List<Map.Entry<Long, Entry>> ready = Collections.emptyList();
+        for (Map.Entry<Long, Entry> entry : pending.entrySet()) {
+            final Entry value = entry.getValue();
+            if (value.delivery == null || value.running || !isTurn(entry.getKey(), value))
+                continue;
+
+            if (ready.isEmpty())
+                ready = new ArrayList<>();
+            value.running = true;
+            ready.add(entry);
+        }
+        return ready;
+    }
+
+    private boolean isTurn(long sequence, Entry entry) {
+        final Map<Long, Entry> earlier = pending.headMap(sequence, false);
+        if (order == DeliveryOrder.GLOBAL)
+            return earlier.isEmpty();
+
+        // messages of unknown senders can't be ordered against anything
+        if (entry.sender == Handshake.NO_SENDER)
+            return true;
+        for (Entry other : earlier.values()) {
+            if (!other.identified || other.sender == entry.sender)
+                return false;
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        /** whether the sender is known, which only happens after the handshake */
+        boolean identified;
+        long sender;
+        Runnable delivery;
+        boolean running;
+    }
+}
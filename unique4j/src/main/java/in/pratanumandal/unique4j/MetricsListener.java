@@ -0,0 +1,109 @@
+package in.pratanumandal.unique4j;
+
+/**
+ * Receives measurements of what a lock is doing, to be exported to a metrics library.
+ *
+ * All methods do nothing by default, so that only the interesting ones need to be overridden.
+ * They are invoked synchronously on the threads doing the work (including the accept loop), so they must be quick
+ * and must not throw.
+ *
+ * @see Unique4jConfig#metricsListener()
+ */
+public interface MetricsListener {
+
+    /** Listener ignoring everything, used by default */
+    MetricsListener NOOP = new MetricsListener() {
+    };
+
+    /**
+     * {@link Unique4jLock#tryLock()} acquired the lock
+     *
+     * @param durationNanos time spent in tryLock
+     * @param retries number of retries done according to the {@link RetryPolicy}
+     */
+    default void lockAcquired(long durationNanos, int retries) {
+    }
+
+    /**
+     * {@link Unique4jLock#tryLock()} didn't acquire the lock, but reached the first instance
+     *
+     * @param durationNanos time spent in tryLock, including the {@link OtherInstance} handler
+     * @param retries number of retries done according to the {@link RetryPolicy}
+     */
+    default void firstInstanceFound(long durationNanos, int retries) {
+    }
+
+    /**
+     * {@link Unique4jLock#tryLock()} threw
+     *
+     * @param durationNanos time spent in tryLock
+     * @param retries number of retries done according to the {@link RetryPolicy}
+     * @param cause what was thrown
+     */
+    default void lockFailed(long durationNanos, int retries, Throwable cause) {
+    }
+
+    /**
+     * An other instance connected to the first instance and completed the handshake
+     *
+     * @param connectNanos time spent establishing the connection
+     * @param handshakeNanos time spent in the handshake, after the connection was established
+     */
+    default void connectedToFirstInstance(long connectNanos, long handshakeNanos) {
+    }
+
+    /** The first instance accepted a connection from an other instance */
+    default void connectionAccepted() {
+    }
+
+    /**
+     * The first instance failed to accept a connection
+     *
+     * @param cause the failure, which is also reported to the {@link UnexpectedExceptionHandler}
+     */
+    default void acceptFailed(Throwable cause) {
+    }
+
+    /**
+     * The first instance turned down a connection, as it was already serving
+     * {@link Unique4jConfig#maxConcurrentConnections()} connections, and the other instance is going to retry
+     */
+    default void connectionRejected() {
+    }
+
+    /**
+     * A connection was closed, on either side, as the other side didn't get through the handshake
+     * within the {@link Unique4jConfig#handshakeTimeout()}, didn't send anything for the {@link Unique4jConfig#readTimeout()},
+     * or didn't send a whole message to be buffered within the {@link Unique4jConfig#messageBufferTimeout()}
+     */
+    default void connectionTimedOut() {
+    }
+
+    /**
+     * A message broadcast by the first instance didn't fit in the queue of a session,
+     * which then applied the {@link Unique4jConfig#broadcastOverflowPolicy()}
+     */
+    default void broadcastOverflowed() {
+    }
+
+    /** The {@link FirstInstance} handler was invoked for a message, the number of in-flight handlers went up */
+    default void handlerStarted() {
+    }
+
+    /**
+     * The {@link FirstInstance} handler returned or threw, the number of in-flight handlers went down
+     *
+     * @param durationNanos time spent in the handler
+     */
+    default void handlerFinished(long durationNanos) {
+    }
+
+    /**
+     * A message received before the first instance registered its listener was delivered to it
+     *
+     * @param queuedNanos time the message spent queued
+     * @see Unique4jConfig#earlyMessageQueueSize()
+     */
+    default void earlyMessageDelivered(long queuedNanos) {
+    }
+}
@@ -1,6 +1,7 @@
 package in.pratanumandal.unique4j;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.concurrent.ExecutorService;
 
 class MutableConfig implements Unique4jConfig {
@@ -9,6 +10,28 @@ class MutableConfig implements Unique4jConfig {
     private File lockFolder;
     private IpcFactory ipcFactory;
     private ExecutorService executorService;
+    private boolean nonBlockingServer;
+    private RetryPolicy retryPolicy;
+    private Duration sessionKeepaliveInterval;
+    private Duration sessionIdleTimeout;
+    private int earlyMessageQueueSize;
+    private int earlyMessageQueueMaxBytes;
+    private EarlyMessageOverflowPolicy earlyMessageOverflowPolicy;
+    private MetricsListener metricsListener;
+    private ServerStartMode serverStartMode;
+    private int acceptBacklog;
+    private int maxConcurrentConnections;
+    private DeliveryOrder deliveryOrder;
+    private int broadcastQueueSize;
+    private BroadcastOverflowPolicy broadcastOverflowPolicy;
+    private Duration leaderHeartbeatInterval;
+    private Duration connectTimeout;
+    private Duration handshakeTimeout;
+    private Duration readTimeout;
+    private Duration messageBufferTimeout;
+    private int maxMessageSize;
+    private boolean compressionEnabled;
+    private int compressionThreshold;
     private UnexpectedExceptionHandler exceptionHandler;
 
     @Override
@@ -55,6 +78,248 @@ class MutableConfig implements Unique4jConfig {
         return this;
     }
 
+    @Override
+    public boolean nonBlockingServer() {
+        return nonBlockingServer;
+    }
+
+    @Override
+    public Unique4jConfig nonBlockingServer(boolean nonBlockingServer) {
+        this.nonBlockingServer = nonBlockingServer;
+        return this;
+    }
+
+    @Override
+    public RetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
+    @Override
+    public Unique4jConfig retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    @Override
+    public Duration sessionKeepaliveInterval() {
+        return sessionKeepaliveInterval;
+    }
+
+    @Override
+    public Unique4jConfig sessionKeepaliveInterval(Duration sessionKeepaliveInterval) {
+        this.sessionKeepaliveInterval = sessionKeepaliveInterval;
+        return this;
+    }
+
+    @Override
+    public Duration sessionIdleTimeout() {
+        return sessionIdleTimeout;
+    }
+
+    @Override
+    public Unique4jConfig sessionIdleTimeout(Duration sessionIdleTimeout) {
+        this.sessionIdleTimeout = sessionIdleTimeout;
+        return this;
+    }
+
+    @Override
+    public int earlyMessageQueueSize() {
+        return earlyMessageQueueSize;
+    }
+
+    @Override
+    public Unique4jConfig earlyMessageQueueSize(int earlyMessageQueueSize) {
+        this.earlyMessageQueueSize = earlyMessageQueueSize;
+        return this;
+    }
+
+    @Override
+    public int earlyMessageQueueMaxBytes() {
+        return earlyMessageQueueMaxBytes;
+    }
+
+    @Override
+    public Unique4jConfig earlyMessageQueueMaxBytes(int earlyMessageQueueMaxBytes) {
+        this.earlyMessageQueueMaxBytes = earlyMessageQueueMaxBytes;
+        return this;
+    }
+
+    @Override
+    public EarlyMessageOverflowPolicy earlyMessageOverflowPolicy() {
+        return earlyMessageOverflowPolicy;
+    }
+
+    @Override
+    public Unique4jConfig earlyMessageOverflowPolicy(EarlyMessageOverflowPolicy earlyMessageOverflowPolicy) {
+        this.earlyMessageOverflowPolicy = earlyMessageOverflowPolicy;
+        return this;
+    }
+
+    @Override
+    public MetricsListener metricsListener() {
+        return metricsListener;
+    }
+
+    @Override
+    public Unique4jConfig metricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
+    @Override
+    public ServerStartMode serverStartMode() {
+        return serverStartMode;
+    }
+
+    @Override
+    public Unique4jConfig serverStartMode(ServerStartMode serverStartMode) {
+        this.serverStartMode = serverStartMode;
+        return this;
+    }
+
+    @Override
+    public int acceptBacklog() {
+        return acceptBacklog;
+    }
+
+    @Override
+    public Unique4jConfig acceptBacklog(int acceptBacklog) {
+        this.acceptBacklog = acceptBacklog;
+        return this;
+    }
+
+    @Override
+    public int maxConcurrentConnections() {
+        return maxConcurrentConnections;
+    }
+
+    @Override
+    public Unique4jConfig maxConcurrentConnections(int maxConcurrentConnections) {
+        this.maxConcurrentConnections = maxConcurrentConnections;
+        return this;
+    }
+
+    @Override
+    public DeliveryOrder deliveryOrder() {
+        return deliveryOrder;
+    }
+
+    @Override
+    public Unique4jConfig deliveryOrder(DeliveryOrder deliveryOrder) {
+        this.deliveryOrder = deliveryOrder;
+        return this;
+    }
+
+    @Override
+    public int broadcastQueueSize() {
+        return broadcastQueueSize;
+    }
+
+    @Override
+    public Unique4jConfig broadcastQueueSize(int broadcastQueueSize) {
+        this.broadcastQueueSize = broadcastQueueSize;
+        return this;
+    }
+
+    @Override
+    public BroadcastOverflowPolicy broadcastOverflowPolicy() {
+        return broadcastOverflowPolicy;
+    }
+
+    @Override
+    public Unique4jConfig broadcastOverflowPolicy(BroadcastOverflowPolicy broadcastOverflowPolicy) {
+        this.broadcastOverflowPolicy = broadcastOverflowPolicy;
+        return this;
+    }
+
+    @Override
+    public Duration leaderHeartbeatInterval() {
+        return leaderHeartbeatInterval;
+    }
+
+    @Override
+    public Unique4jConfig leaderHeartbeatInterval(Duration leaderHeartbeatInterval) {
+        this.leaderHeartbeatInterval = leaderHeartbeatInterval;
+        return this;
+    }
+
+    @Override
+    public Duration connectTimeout() {
+        return connectTimeout;
+    }
+
+    @Override
+    public Unique4jConfig connectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    @Override
+    public Duration handshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    @Override
+    public Unique4jConfig handshakeTimeout(Duration handshakeTimeout) {
+        this.handshakeTimeout = handshakeTimeout;
+        return this;
+    }
+
+    @Override
+    public Duration readTimeout() {
+        return readTimeout;
+    }
+
+    @Override
+    public Unique4jConfig readTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    @Override
+    public Duration messageBufferTimeout() {
+        return messageBufferTimeout;
+    }
+
+    @Override
+    public Unique4jConfig messageBufferTimeout(Duration messageBufferTimeout) {
+        this.messageBufferTimeout = messageBufferTimeout;
+        return this;
+    }
+
+    @Override
+    public int maxMessageSize() {
+        return maxMessageSize;
+    }
+
+    @Override
+    public Unique4jConfig maxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+        return this;
+    }
+
+    @Override
+    public boolean compressionEnabled() {
+        return compressionEnabled;
+    }
+
+    @Override
+    public Unique4jConfig compressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+        return this;
+    }
+
+    @Override
+    public int compressionThreshold() {
+        return compressionThreshold;
+    }
+
+    @Override
+    public Unique4jConfig compressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
     @Override
     public UnexpectedExceptionHandler exceptionHandler() {
         return exceptionHandler;
@@ -0,0 +1,53 @@
+package in.pratanumandal.unique4j;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Identifies processes, so that other instances can tell whether the first instance is still running.
+ *
+ * Java 8 has no portable way to look up an other process, so only the pid of this one is known here:
+ * this is replaced in the multi-release jar by a Java 11 version using {@link ProcessHandle}.
+ */
+final class Processes {
+
+    /** pid of this process, or 0 if unknown */
+    private static final long CURRENT_PID = findCurrentPid();
+
+    private Processes() {
+    }
+
+    private static long findCurrentPid() {
+        // not specified, but every known implementation names the runtime "pid@hostname"
+        try {
+            final String name = ManagementFactory.getRuntimeMXBean().getName();
+            final int at = name.indexOf('@');
+            return at > 0 ? Long.parseLong(name.substring(0, at)) : 0;
+        } catch (RuntimeException | LinkageError ex) {
+            return 0;
+        }
+    }
+
+    /** Gets the pid of this process, or 0 if unknown */
+    static long currentPid() {
+        return CURRENT_PID;
+    }
+
+    /**
+     * Gets the start time of this process in milliseconds since the epoch, or 0 if unknown.
+     * It tells apart a different process which was given the same pid.
+     */
+    static long currentStartMillis() {
+        return 0;
+    }
+
+    /**
+     * Checks whether the process might still be running
+     *
+     * @param pid pid of the process, 0 if unknown
+     * @param startMillis start time of the process as returned by {@link #currentStartMillis()}, 0 if unknown
+     * @return false only if the process is known to be gone
+     */
+    static boolean isAlive(long pid, long startMillis) {
+        return true;
+    }
+}
@@ -0,0 +1,51 @@
+package in.pratanumandal.unique4j;
+
+/**
+ * Decides whether and when {@link Unique4jLock#tryLock()} should try again to acquire the lock,
+ * after failing to both acquire it and to reach the first instance (which might be, for example, shutting down).
+ */
+public interface RetryPolicy {
+
+    /**
+     * Retries back-to-back, without any delay, at most the given number of times
+     *
+     * @param maxRetries max number of retries
+     * @return retry policy
+     */
+    static RetryPolicy immediate(int maxRetries) {
+        return (retries, elapsedNanos) -> retries < maxRetries ? 0 : -1;
+    }
+
+    /**
+     * Retries with an exponentially increasing, jittered delay until a total deadline expires.
+     *
+     * @return exponential backoff policy with the default settings, which can be tweaked using its {@code with} methods
+     * @see ExponentialBackoffRetryPolicy
+     */
+    static ExponentialBackoffRetryPolicy exponentialBackoff() {
+        return ExponentialBackoffRetryPolicy.DEFAULT;
+    }
+
+    /**
+     * Method to compute the delay before the next retry.
+     *
+     * @param retries number of retries which were already done (0 after the first failed attempt)
+     * @param elapsedNanos nanoseconds elapsed since the first attempt
+     * @return nanoseconds to wait before the next attempt, or a negative value to stop retrying
+     */
+    long nextRetryDelayNanos(int retries, long elapsedNanos);
+
+    /**
+     * Whether to stop waiting for the delay returned by {@link #nextRetryDelayNanos(int, long)} and immediately retry
+     * as soon as something changes in the lock folder (ex. the first instance deleting its socket or endpoint file
+     * while shutting down), instead of sleeping the full delay.
+     *
+     * If the lock folder can't be watched (ex. on some network file systems), the failure is reported
+     * to the {@link UnexpectedExceptionHandler}, and it just sleeps.
+     *
+     * @return true to wake up when the lock folder changes
+     */
+    default boolean isWakeOnLockFolderChange() {
+        return false;
+    }
+}
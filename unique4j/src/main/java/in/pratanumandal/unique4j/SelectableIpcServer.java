@@ -0,0 +1,24 @@
+package in.pratanumandal.unique4j;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * IpcServer backed by a {@link ServerSocketChannel}, which allows it to be served by a single {@link java.nio.channels.Selector}
+ * thread instead of blocking a thread on each accept and each connection.
+ *
+ * @see Unique4jConfig#nonBlockingServer(boolean)
+ */
+public interface SelectableIpcServer extends IpcServer {
+
+    ServerSocketChannel getChannel();
+
+    /**
+     * Wraps a channel accepted from {@link #getChannel()} in an IpcClient
+     *
+     * @param channel accepted channel, in blocking mode
+     * @return IpcClient for the given channel
+     */
+    IpcClient createIpcClient(SocketChannel channel) throws IOException;
+}
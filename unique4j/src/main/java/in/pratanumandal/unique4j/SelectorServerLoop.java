@@ -0,0 +1,496 @@
+package in.pratanumandal.unique4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves other instances from a single thread, by accepting, running the handshake and reading the payload
+ * of all the connections in non-blocking mode using a {@link Selector}.
+ *
+ * The {@link FirstInstance} handler is only invoked, on the executor, once the other instance has sent its whole message:
+ * with {@link Handshake#CAPABILITY_MESSAGE_FRAMING}, once it sent the empty frame which ends it, so that the handler
+ * can still reply, otherwise, for other instances running older versions, once it shut down its output.
+ * Session connections are instead handed off to the session handler right after the handshake,
+ * which starts them on threads of their own without blocking.
+ * Connections beyond {@link Unique4jConfig#maxConcurrentConnections()}, from the time they are accepted
+ * until their handler returns or their session is started, are turned down as busy.
+ * Connections which don't get through the handshake within the {@link Unique4jConfig#handshakeTimeout()},
+ * or then don't send their whole message within the {@link Unique4jConfig#messageBufferTimeout()}, are closed,
+ * and so are the ones whose message grows past the {@link Unique4jConfig#maxMessageSize()}.
+ */
+class SelectorServerLoop implements Runnable {
+
+    private static final int INITIAL_PAYLOAD_BUFFER_SIZE = 512;
+
+    private final ImmutableConfig config;
+    private final ExecutorService executor;
+    private final SelectableIpcServer server;
+    private final FirstInstance firstInstanceHandler;
+    private final FirstInstance sessionHandler;
+
+    private final Selector selector;
+    private final SelectionKey serverKey;
+    private final Semaphore permits;
+    private final MessageSequencer sequencer;
+    private final AcceptBackoff acceptBackoff = new AcceptBackoff();
+    /** when to start accepting again after an error, or 0 if accepting */
+    private long acceptResumeNanos;
+    private final int capabilities;
+    private final ByteBuffer serverHello;
+    private final ByteBuffer legacyResponse;
+    private final long handshakeTimeoutNanos;
+    private final long messageBufferTimeoutNanos;
+    private final int maxMessageSize;
+
+    SelectorServerLoop(ImmutableConfig config,
+                       ExecutorService executor,
+                       SelectableIpcServer server,
+                       FirstInstance firstInstanceHandler,
+                       FirstInstance sessionHandler) throws IOException {
+        this.config = config;
+        this.executor = executor;
+        this.server = server;
+        this.firstInstanceHandler = firstInstanceHandler;
+        this.sessionHandler = sessionHandler;
+
+        this.capabilities = Handshake.offeredCapabilities(
+                sessionHandler != null, config.getDeliveryOrder(), config.isCompressionEnabled(), true);
+        this.serverHello = ByteBuffer.wrap(Handshake.serverHello(config.getAppId(), capabilities)).asReadOnlyBuffer();
+        this.legacyResponse = ByteBuffer.wrap(Handshake.legacyResponse(config.getAppId())).asReadOnlyBuffer();
+        this.handshakeTimeoutNanos = config.getHandshakeTimeout().toNanos();
+        this.messageBufferTimeoutNanos = config.getMessageBufferTimeout().toNanos();
+        this.maxMessageSize = config.getMaxMessageSize();
+        this.permits = new Semaphore(config.getMaxConcurrentConnections());
+        this.sequencer = new MessageSequencer(config.getDeliveryOrder(), executor);
+
+        final ServerSocketChannel serverChannel = server.getChannel();
+        this.selector = serverChannel.provider().openSelector();
+        try {
+            serverChannel.configureBlocking(false);
+            this.serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException | RuntimeException ex) {
+
+            try {
+                selector.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+
+            throw ex;
+        }
+    }
+
+    /** Wakes the loop up, so that it notices the server was closed */
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        final List<Connection> received = new ArrayList<>();
+        try {
+            while (!server.isClosed()) {
+                // wake up in time to resume accepting, or to close the next connection past its deadline
+                long wakeupNanos = expireConnections();
+                if (acceptResumeNanos != 0 && (wakeupNanos == 0 || acceptResumeNanos - wakeupNanos < 0))
+                    wakeupNanos = acceptResumeNanos;
+
+                if (wakeupNanos == 0) {
+                    selector.select();
+                } else {
+                    final long remainingNanos = wakeupNanos - System.nanoTime();
+                    if (remainingNanos > 0)
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+                    if (acceptResumeNanos != 0 && acceptResumeNanos - System.nanoTime() <= 0) {
+                        acceptResumeNanos = 0;
+                        serverKey.interestOps(SelectionKey.OP_ACCEPT);
+                    }
+                }
+
+                final Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    final SelectionKey key = iter.next();
+                    iter.remove();
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    final Connection connection = (Connection) key.attachment();
+                    try {
+                        if (connection.onReady(key)) {
+                            key.cancel();
+                            received.add(connection);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        connection.endHandshake(false);
+                        close(connection);
+                        config.getExceptionHandler().unexpectedException(server, null, e);
+                    }
+                }
+
+                if (!received.isEmpty()) {
+                    // deregister the cancelled keys, so that the channels can go back to blocking mode
+                    selector.selectNow();
+                    for (Connection connection : received)
+                        dispatch(connection);
+                    received.clear();
+                }
+            }
+        } catch (ClosedSelectorException | IOException e) {
+            if (!server.isClosed())
+                config.getExceptionHandler().unexpectedException(server, null, e);
+        } finally {
+            received.forEach(connection -> closeQuietly(connection.channel));
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection)
+                        closeQuietly(key.channel());
+                }
+                selector.close();
+            } catch (ClosedSelectorException | IOException e) {
+                config.getExceptionHandler().unexpectedException(server, null, e);
+            }
+        }
+    }
+
+    private void accept() {
+        final SocketChannel channel;
+        try {
+            channel = server.getChannel().accept();
+        } catch (IOException e) {
+            if (!server.isClosed()) {
+                config.getMetricsListener().acceptFailed(e);
+                config.getExceptionHandler().unexpectedException(server, null, e);
+                // stop accepting for a while, so that persistent errors (ex. out of file descriptors) don't spin
+                serverKey.interestOps(0);
+                acceptResumeNanos = System.nanoTime() + acceptBackoff.nextDelayNanos();
+            }
+            return;
+        }
+
+        if (channel == null)
+            return;
+        acceptBackoff.reset();
+        config.getMetricsListener().connectionAccepted();
+        LifecycleEvents.connectionAccepted(config.getAppId());
+
+        if (!permits.tryAcquire()) {
+            reject(channel);
+            return;
+        }
+
+        try {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel, sequencer.arrived()));
+        } catch (IOException e) {
+            permits.release();
+            closeQuietly(channel);
+            config.getExceptionHandler().unexpectedException(server, null, e);
+        }
+    }
+
+    /**
+     * Closes the connections past their deadline
+     *
+     * @return the earliest deadline of the remaining ones, as {@link System#nanoTime()}, or 0 if none
+     */
+    private long expireConnections() {
+        final long now = System.nanoTime();
+        long next = 0;
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Connection))
+                continue;
+
+            final Connection connection = (Connection) key.attachment();
+            if (!connection.hasDeadline)
+                continue;
+
+            if (connection.deadlineNanos - now <= 0) {
+                config.getMetricsListener().connectionTimedOut();
+                key.cancel();
+                connection.endHandshake(false);
+                close(connection);
+                config.getExceptionHandler().unexpectedException(server, null, new SocketTimeoutException(!connection.readStarted
+                        ? "Handshake timed out"
+                        : "Message not received within " + TimeUnit.NANOSECONDS.toMillis(messageBufferTimeoutNanos) + "ms"));
+                continue;
+            }
+
+            if (next == 0 || connection.deadlineNanos - next < 0)
+                next = connection.deadlineNanos;
+        }
+        return next;
+    }
+
+    /** Tells the other instance that the first instance is busy, while the channel is still in blocking mode */
+    private void reject(SocketChannel channel) {
+        config.getMetricsListener().connectionRejected();
+        final ByteBuffer busy = ByteBuffer.allocate(Integer.BYTES).putInt(0, Handshake.BUSY);
+        try {
+            // fits in the empty send buffer of a new connection
+            channel.write(busy);
+        } catch (IOException e) {
+            // it's going to retry anyway
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    /** Closes a connection which was counted against the limit, and won't deliver any message */
+    private void close(Connection connection) {
+        sequencer.skip(connection.sequence);
+        permits.release();
+        closeQuietly(connection.channel);
+    }
+
+    private void dispatch(Connection connection) {
+        if (connection.negotiated.isRefusedSession()) {
+            // told in the handshake response
+            close(connection);
+            return;
+        }
+
+        final IpcClient client;
+        try {
+            connection.channel.configureBlocking(true);
+            // sessions keep on reading from the channel, while compressed messages are inflated as they're read
+            client = connection.isSession
+                    ? CompressedIpcClient.wrap(config, server.createIpcClient(connection.channel), connection.negotiated)
+                    : new DetachableIpcClient(CompressedIpcClient.wrap(config, new BufferedIpcClient(
+                            server.createIpcClient(connection.channel),
+                            connection.payload.array(),
+                            connection.payload.position()), connection.negotiated));
+        } catch (IOException | RuntimeException e) {
+            close(connection);
+            config.getExceptionHandler().unexpectedException(server, null, e);
+            return;
+        }
+
+        if (connection.isSession) {
+            // sessions are long-lived, so they're never ordered, and they run on threads of their own,
+            // so they don't count against the limit once handed off
+            sequencer.skip(connection.sequence);
+            permits.release();
+            try {
+                sessionHandler.onOtherInstanceStarted(client);
+            } catch (RejectedExecutionException e) {
+                // unlocking, the session was already closed
+            } catch (Throwable t) {
+                closeQuietly(connection.channel);
+                config.getExceptionHandler().unexpectedException(server, client, t);
+            }
+            return;
+        }
+
+        final FirstInstance handler = firstInstanceHandler;
+        final Runnable delivery = () -> {
+            try (IpcClient ignored = client) {
+                if (handler != null)
+                    Unique4jIpcLock.runHandler(config, handler, client);
+            } catch (Throwable t) {
+                config.getExceptionHandler().unexpectedException(server, client, t);
+            } finally {
+                permits.release();
+            }
+        };
+
+        if (handler == null)
+            sequencer.skip(connection.sequence);
+        final long sequence = connection.sequence;
+        final long sender = connection.negotiated.sender;
+        try {
+            executor.submit(handler == null
+                    ? delivery
+                    : () -> sequencer.deliver(sequence, sender, delivery));
+        } catch (RejectedExecutionException e) {
+            // the executor is saturated (or shutting down), the handshake is over so it can't be told it's busy
+            close(connection);
+            config.getExceptionHandler().unexpectedException(server, client, e);
+        }
+    }
+
+    private void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            config.getExceptionHandler().unexpectedException(server, null, e);
+        }
+    }
+
+    private final class Connection {
+
+        final SocketChannel channel;
+        /** arrival sequence number */
+        final long sequence;
+        /** JFR event of the handshake, null once ended */
+        LifecycleEvent handshakeEvent = LifecycleEvents.handshake(config.getAppId(), true);
+        final ByteBuffer hello = ByteBuffer.allocate(Handshake.HELLO_SIZE);
+        ByteBuffer response;
+        /** id of the process of the other instance, sent right after the handshake if negotiated */
+        ByteBuffer sender;
+        Handshake.Negotiated negotiated;
+        boolean isSession;
+        ByteBuffer payload = ByteBuffer.allocate(INITIAL_PAYLOAD_BUFFER_SIZE);
+        /** header of the next frame of the message, only if {@link Handshake#CAPABILITY_MESSAGE_FRAMING} */
+        ByteBuffer frameHeader;
+        /** bytes of the current frame which still have to be read */
+        int frameRemaining;
+        /** when to close the connection, as {@link System#nanoTime()}, only if {@link #hasDeadline} */
+        long deadlineNanos;
+        boolean hasDeadline;
+        /** whether the handshake is over, and the deadline is the read timeout */
+        boolean readStarted;
+
+        Connection(SocketChannel channel, long sequence) {
+            this.channel = channel;
+            this.sequence = sequence;
+            deadline(handshakeTimeoutNanos);
+        }
+
+        void deadline(long timeoutNanos) {
+            hasDeadline = timeoutNanos > 0;
+            deadlineNanos = System.nanoTime() + timeoutNanos;
+        }
+
+        /**
+         * Advances the connection as far as possible without blocking
+         *
+         * @return true once the whole payload was received, or right after the handshake for sessions
+         */
+        boolean onReady(SelectionKey key) throws IOException {
+            if (response == null) {
+                // read hello from client, then start writing the response
+                if (channel.read(hello) < 0)
+                    throw new EOFException("Other instance disconnected during the handshake");
+                if (hello.hasRemaining())
+                    return false;
+
+                hello.flip();
+                negotiated = Handshake.parseHello(hello.getInt(), capabilities);
+                isSession = negotiated.isSession();
+                response = (negotiated == Handshake.Negotiated.LEGACY ? legacyResponse : serverHello).duplicate();
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+
+            if (response.hasRemaining()) {
+                channel.write(response);
+                if (response.hasRemaining())
+                    return false;
+
+                key.interestOps(SelectionKey.OP_READ);
+                endHandshake(true);
+                if (negotiated.has(Handshake.CAPABILITY_SENDER_ID))
+                    sender = ByteBuffer.allocate(Long.BYTES);
+            }
+
+            if (sender != null && sender.hasRemaining()) {
+                if (channel.read(sender) < 0)
+                    throw new EOFException("Other instance disconnected before sending its id");
+                if (sender.hasRemaining())
+                    return false;
+                negotiated = negotiated.withSender(sender.getLong(0));
+            }
+
+            if (isSession || negotiated.isRefusedSession())
+                return true;
+
+            // buffer everything until the other instance is done sending
+            if (!readStarted) {
+                readStarted = true;
+                deadline(messageBufferTimeoutNanos);
+                if (negotiated.has(Handshake.CAPABILITY_MESSAGE_FRAMING))
+                    frameHeader = ByteBuffer.allocate(FramedIpcClient.HEADER_SIZE);
+            }
+            if (frameHeader != null)
+                return readFrames();
+
+            while (true) {
+                if (!payload.hasRemaining()) {
+                    // one byte past the max size, to tell a message of exactly the max size from a longer one
+                    if (payload.capacity() > maxMessageSize)
+                        throw new IOException("Message of other instance exceeds the max size of " + maxMessageSize);
+                    growPayload((int) Math.min(payload.capacity() * 2L, maxMessageSize + 1L));
+                }
+
+                final int read = channel.read(payload);
+                if (read < 0) {
+                    if (payload.position() > maxMessageSize)
+                        throw new IOException("Message of other instance exceeds the max size of " + maxMessageSize);
+                    return true;
+                }
+                if (read == 0)
+                    return false;
+            }
+        }
+
+        /**
+         * Reads the frames of the message, without reading past the empty frame which ends it, as the other instance
+         * might send something else once it got a reply
+         *
+         * @return true once the whole message was received
+         */
+        private boolean readFrames() throws IOException {
+            while (true) {
+                if (frameRemaining == 0) {
+                    if (channel.read(frameHeader) < 0) {
+                        if (frameHeader.position() != 0)
+                            throw new EOFException("Other instance disconnected in the middle of its message");
+                        // closed without ending the message, which is just as good
+                        return true;
+                    }
+                    if (frameHeader.hasRemaining())
+                        return false;
+
+                    final int length = frameHeader.getInt(0);
+                    frameHeader.clear();
+                    if (length == 0)
+                        return true;
+                    if (length < 0 || length > maxMessageSize - payload.position())
+                        throw new IOException("Message of other instance exceeds the max size of " + maxMessageSize);
+                    if (length > payload.remaining())
+                        growPayload((int) Math.min(Math.max(payload.capacity() * 2L, payload.position() + (long) length), maxMessageSize));
+                    frameRemaining = length;
+                }
+
+                payload.limit(payload.position() + frameRemaining);
+                final int read;
+                try {
+                    read = channel.read(payload);
+                } finally {
+                    payload.limit(payload.capacity());
+                }
+                if (read < 0)
+                    throw new EOFException("Other instance disconnected in the middle of its message");
+                if (read == 0)
+                    return false;
+                frameRemaining -= read;
+            }
+        }
+
+        private void growPayload(int capacity) {
+            final ByteBuffer newPayload = ByteBuffer.allocate(capacity);
+            payload.flip();
+            payload = newPayload.put(payload);
+        }
+
+        void endHandshake(boolean success) {
+            if (handshakeEvent != null)
+                handshakeEvent.end(success);
+            handshakeEvent = null;
+        }
+    }
+}
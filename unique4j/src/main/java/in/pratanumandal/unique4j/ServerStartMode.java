@@ -0,0 +1,23 @@
+package in.pratanumandal.unique4j;
+
+/**
+ * When the first instance starts the server other instances connect to.
+ *
+ * @see Unique4jConfig#serverStartMode()
+ */
+public enum ServerStartMode {
+    /** Start the server before {@link Unique4jLock#tryLock()} returns, failing it if the server can't be started */
+    EAGER,
+    /**
+     * Return from {@link Unique4jLock#tryLock()} as soon as the lock is held, and start the server in the background.
+     * Other instances arriving in the meantime retry according to the {@link Unique4jConfig#retryPolicy()},
+     * while failures to start the server are reported to the {@link Unique4jConfig#exceptionHandler()}
+     */
+    DEFERRED,
+    /**
+     * Never start a server, only providing mutual exclusion: other instances just fail to acquire the lock,
+     * without ever connecting to the first instance, so neither {@link FirstInstance} nor {@link OtherInstance}
+     * handlers are ever invoked. All the instances must use this mode
+     */
+    LOCK_ONLY
+}
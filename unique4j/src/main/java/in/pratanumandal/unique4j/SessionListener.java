@@ -0,0 +1,34 @@
+package in.pratanumandal.unique4j;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface SessionListener {
+
+    /**
+     * Method used to receive messages sent by the other side of the session.<br><br>
+     *
+     * Messages of a session are received one at a time, in the order they were sent.
+     *
+     * @param session session the message was received on
+     * @param message the received message
+     */
+    void onMessage(IpcSession session, byte[] message) throws IOException;
+
+    /**
+     * Method called whenever the connection is established, including after each reconnection.
+     *
+     * @param session session which was connected
+     */
+    default void onOpen(IpcSession session) throws IOException {
+    }
+
+    /**
+     * Method called once the session is closed for good, either by any of the two sides,
+     * because it was idle for too long or because it failed to reconnect.
+     *
+     * @param session session which was closed
+     */
+    default void onClose(IpcSession session) {
+    }
+}
@@ -4,9 +4,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.channels.Channels;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
 
 public abstract class SocketChannelIpcFactory implements IpcFactory {
 
@@ -20,11 +25,65 @@ public abstract class SocketChannelIpcFactory implements IpcFactory {
         return new SocketChannelIpcClient(createClientSocket(parentDirectory, appId));
     }
 
+    @Override
+    public IpcClient createIpcClient(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
+        return new SocketChannelIpcClient(createClientSocket(parentDirectory, appId, connectTimeoutMillis));
+    }
+
     protected abstract ServerSocketChannel createServerSocket(File parentDirectory, String appId) throws IOException;
 
+    /** Creates the server channel with the given backlog, ignoring it unless overridden */
+    protected ServerSocketChannel createServerSocket(File parentDirectory, String appId, int backlog) throws IOException {
+        return createServerSocket(parentDirectory, appId);
+    }
+
     protected abstract SocketChannel createClientSocket(File parentDirectory, String appId) throws IOException;
 
-    protected static class SocketChannelIpcServer implements IpcServer {
+    /** Creates the client channel with the given connect timeout, ignoring it unless overridden */
+    protected SocketChannel createClientSocket(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
+        return createClientSocket(parentDirectory, appId);
+    }
+
+    /**
+     * Connects a new blocking channel to the given address, closing it if that fails.
+     *
+     * Channels have no connect timeout of their own, so it's done in non-blocking mode with a {@link Selector}.
+     */
+    protected static SocketChannel connect(SocketChannel channel, SocketAddress address, int connectTimeoutMillis) throws IOException {
+        try {
+            if (connectTimeoutMillis <= 0) {
+                channel.connect(address);
+                return channel;
+            }
+
+            channel.configureBlocking(false);
+            // the key is only deregistered once the selector is closed, and blocking mode can only be restored then
+            try (Selector selector = Selector.open()) {
+                final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+                if (!channel.connect(address)) {
+                    channel.register(selector, SelectionKey.OP_CONNECT);
+                    while (!channel.finishConnect()) {
+                        final long remainingNanos = deadlineNanos - System.nanoTime();
+                        if (remainingNanos <= 0)
+                            throw new SocketTimeoutException("Connect timed out after " + connectTimeoutMillis + "ms");
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+                        selector.selectedKeys().clear();
+                    }
+                }
+            }
+            channel.configureBlocking(true);
+            return channel;
+        } catch (IOException | RuntimeException ex) {
+            try {
+                channel.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
+    protected static class SocketChannelIpcServer implements SelectableIpcServer {
 
         protected final ServerSocketChannel channel;
 
@@ -39,13 +98,32 @@ public abstract class SocketChannelIpcFactory implements IpcFactory {
 
         @Override
         public IpcClient accept() throws IOException {
-            return new SocketChannelIpcClient(channel.accept());
+            return createIpcClient(channel.accept());
+        }
+
+        @Override
+        public ServerSocketChannel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public IpcClient createIpcClient(SocketChannel channel) {
+            return new SocketChannelIpcClient(channel);
         }
 
         @Override
         public void close() throws IOException {
             channel.close();
         }
+
+        @Override
+        public String toString() {
+            try {
+                return "SocketChannelIpcServer{" + channel.getLocalAddress() + '}';
+            } catch (IOException ex) {
+                return "SocketChannelIpcServer{closed}";
+            }
+        }
     }
 
     protected static class SocketChannelIpcClient implements IpcClient {
@@ -61,17 +139,83 @@ public abstract class SocketChannelIpcFactory implements IpcFactory {
         @Override
         public InputStream getInputStream() {
             if(is == null)
-                is = Channels.newInputStream(channel);
+                is = new ChannelInputStream(channel);
             return is;
         }
 
         @Override
         public OutputStream getOutputStream() {
             if(os == null)
-                os = Channels.newOutputStream(channel);
+                os = new ChannelOutputStream(channel);
             return os;
         }
 
+        @Override
+        public void shutdownOutput() throws IOException {
+            channel.shutdownOutput();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Stream reading from a blocking channel.
+     *
+     * Unlike the ones from {@link java.nio.channels.Channels}, it doesn't hold the channel blocking lock while reading,
+     * which would prevent writing while a read is waiting for data.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        private final SocketChannel channel;
+        private final byte[] single = new byte[1];
+
+        ChannelInputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /** Stream writing to a blocking channel, see {@link ChannelInputStream} */
+    private static class ChannelOutputStream extends OutputStream {
+
+        private final SocketChannel channel;
+
+        ChannelOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+
         @Override
         public void close() throws IOException {
             channel.close();
@@ -6,6 +6,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
 
 public abstract class SocketIpcFactory implements IpcFactory {
 
@@ -19,10 +20,40 @@ public abstract class SocketIpcFactory implements IpcFactory {
         return new SocketIpcClient(createClientSocket(parentDirectory, appId));
     }
 
+    @Override
+    public IpcClient createIpcClient(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
+        return new SocketIpcClient(createClientSocket(parentDirectory, appId, connectTimeoutMillis));
+    }
+
     protected abstract ServerSocket createServerSocket(File parentDirectory, String appId) throws IOException;
 
+    /** Creates the server socket with the given backlog, ignoring it unless overridden */
+    protected ServerSocket createServerSocket(File parentDirectory, String appId, int backlog) throws IOException {
+        return createServerSocket(parentDirectory, appId);
+    }
+
     protected abstract Socket createClientSocket(File parentDirectory, String appId) throws IOException;
 
+    /** Creates the client socket with the given connect timeout, ignoring it unless overridden */
+    protected Socket createClientSocket(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
+        return createClientSocket(parentDirectory, appId);
+    }
+
+    /** Connects a new socket to the given address, closing it if that fails */
+    protected static Socket connect(Socket socket, SocketAddress address, int connectTimeoutMillis) throws IOException {
+        try {
+            socket.connect(address, connectTimeoutMillis);
+            return socket;
+        } catch (IOException | RuntimeException ex) {
+            try {
+                socket.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
     protected static class SocketIpcServer implements IpcServer {
 
         protected final ServerSocket socket;
@@ -45,6 +76,11 @@ public abstract class SocketIpcFactory implements IpcFactory {
         public void close() throws IOException {
             socket.close();
         }
+
+        @Override
+        public String toString() {
+            return "SocketIpcServer{" + socket.getLocalSocketAddress() + '}';
+        }
     }
 
     protected static class SocketIpcClient implements IpcClient {
@@ -65,6 +101,11 @@ public abstract class SocketIpcFactory implements IpcFactory {
             return socket.getOutputStream();
         }
 
+        @Override
+        public void shutdownOutput() throws IOException {
+            socket.shutdownOutput();
+        }
+
         @Override
         public void close() throws IOException {
             socket.close();
@@ -3,6 +3,7 @@ package in.pratanumandal.unique4j;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 
@@ -20,14 +21,29 @@ public class StaticPortSocketIpcFactory extends SocketIpcFactory implements Port
         this.port = port;
     }
 
+    @Override
+    public IpcServer createIpcServer(File parentDirectory, String appId, int backlog) throws IOException {
+        return new SocketIpcServer(createServerSocket(parentDirectory, appId, backlog));
+    }
+
     @Override
     public ServerSocket createServerSocket(File parentDirectory, String appId) throws IOException {
-        return new ServerSocket(port, 0, address);
+        return createServerSocket(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(File parentDirectory, String appId, int backlog) throws IOException {
+        return new ServerSocket(port, backlog, address);
     }
 
     @Override
     public Socket createClientSocket(File parentDirectory, String appId) throws IOException {
-        return new Socket(address, port);
+        return createClientSocket(parentDirectory, appId, 0);
+    }
+
+    @Override
+    public Socket createClientSocket(File parentDirectory, String appId, int connectTimeoutMillis) throws IOException {
+        return connect(new Socket(), new InetSocketAddress(address, port), connectTimeoutMillis);
     }
 
     @Override
@@ -2,6 +2,7 @@ package in.pratanumandal.unique4j;
 
 import java.io.IOException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 
@@ -22,6 +23,15 @@ public interface Unique4j {
         return new Unique4jAppInstance(Unique4jConfig.createDefault(appId)).requestSingleInstanceThenReturn(instanceConfig);
     }
 
+    static CompletableFuture<Void> requestSingleInstanceAsync(String appId, Consumer<InstanceConfig> instanceConfig) {
+        return new Unique4jAppInstance(Unique4jConfig.createDefault(appId)).requestSingleInstanceAsync(instanceConfig);
+    }
+
+    static <T> CompletableFuture<T> requestSingleInstanceThenReturnAsync(String appId,
+                                                                         Consumer<InstanceConfigReturning<T>> instanceConfig) {
+        return new Unique4jAppInstance(Unique4jConfig.createDefault(appId)).requestSingleInstanceThenReturnAsync(instanceConfig);
+    }
+
     static Unique4jLock newLock(String appId,
                                 FirstInstance firstInstanceHandler,
                                 OtherInstance otherInstanceHandler) {
@@ -32,9 +42,67 @@ public interface Unique4j {
 
         Unique4jLock newLock(FirstInstance firstInstanceHandler, OtherInstance otherInstanceHandler);
 
+        /**
+         * Creates a lock which, while held, also accepts {@link IpcSession}s opened by other instances
+         * using {@link #openSession(SessionListener)}.
+         *
+         * All the sessions are closed on unlock, so that other instances can reconnect to the next first instance.
+         *
+         * @param sessionListener listener of the sessions opened by other instances
+         */
+        Unique4jLock newLock(FirstInstance firstInstanceHandler,
+                             OtherInstance otherInstanceHandler,
+                             SessionListener sessionListener);
+
+        /**
+         * Creates a lock on a single key of the app (ex. a document or a workspace), so that each key
+         * can be held by a different instance.
+         *
+         * All the keyed locks held by a process share a single server, started with the config of the first one
+         * acquired, which routes the connections of other instances to the handler of the key they asked for.
+         * Holding many keys then only costs a lock file each, instead of a listening endpoint and an accept loop.
+         * Keyed locks don't accept sessions, nor take part in {@link Unique4jConfig#deliveryOrder()}.
+         *
+         * @param key key to lock, any string
+         */
+        Unique4jLock newLock(String key, FirstInstance firstInstanceHandler, OtherInstance otherInstanceHandler);
+
+        /**
+         * Opens a long-lived {@link IpcSession} to the first instance, which must have been created with
+         * {@link #newLock(FirstInstance, OtherInstance, SessionListener)}.
+         *
+         * If the connection drops, it's re-established according to the {@link Unique4jConfig#retryPolicy()},
+         * so that the session survives the first instance restarting.
+         *
+         * @param listener listener of the session
+         * @return the opened session
+         * @throws IOException if no first instance could be reached, or it doesn't accept sessions
+         */
+        IpcSession openSession(SessionListener listener) throws IOException;
+
         void requestSingleInstance(Consumer<InstanceConfig> instanceConfig) throws IOException, ExecutionException;
 
         <T> T requestSingleInstanceThenReturn(Consumer<InstanceConfigReturning<T>> instanceConfig) throws IOException, ExecutionException;
+
+        /**
+         * Same as {@link #requestSingleInstance(Consumer)}, but runs on a new thread instead of blocking the caller,
+         * so that single instance negotiation can overlap with other startup work.
+         *
+         * The first and other instances functions are invoked on that thread as well, which is not a daemon one,
+         * so the JVM is kept alive until they return.
+         *
+         * @return future completed once the first or other instances function returns,
+         *         or exceptionally with what {@link #requestSingleInstance(Consumer)} would have thrown
+         */
+        CompletableFuture<Void> requestSingleInstanceAsync(Consumer<InstanceConfig> instanceConfig);
+
+        /**
+         * Same as {@link #requestSingleInstanceThenReturn(Consumer)}, but runs on a new thread instead of blocking the caller.
+         *
+         * @return future completed with the value returned by the first or other instances function
+         * @see #requestSingleInstanceAsync(Consumer)
+         */
+        <T> CompletableFuture<T> requestSingleInstanceThenReturnAsync(Consumer<InstanceConfigReturning<T>> instanceConfig);
     }
 
     interface InstanceConfig {
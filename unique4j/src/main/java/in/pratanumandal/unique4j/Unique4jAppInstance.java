@@ -20,7 +20,24 @@ class Unique4jAppInstance implements Unique4j.InstanceSelector {
 
     @Override
     public Unique4jLock newLock(FirstInstance firstInstanceHandler, OtherInstance otherInstanceHandler) {
-        return new Unique4jIpcLock(config, firstInstanceHandler, otherInstanceHandler);
+        return new Unique4jIpcLock(config, firstInstanceHandler, otherInstanceHandler, null);
+    }
+
+    @Override
+    public Unique4jLock newLock(FirstInstance firstInstanceHandler,
+                                OtherInstance otherInstanceHandler,
+                                SessionListener sessionListener) {
+        return new Unique4jIpcLock(config, firstInstanceHandler, otherInstanceHandler, sessionListener);
+    }
+
+    @Override
+    public Unique4jLock newLock(String key, FirstInstance firstInstanceHandler, OtherInstance otherInstanceHandler) {
+        return new Unique4jIpcLock(config, key, firstInstanceHandler, otherInstanceHandler);
+    }
+
+    @Override
+    public IpcSession openSession(SessionListener listener) throws IOException {
+        return Unique4jIpcSession.open(config, listener);
     }
 
     @Override
@@ -90,6 +107,32 @@ class Unique4jAppInstance implements Unique4j.InstanceSelector {
         return doWork(firstInstanceContextFunctionRef.get(), otherInstanceContextFunctionRef.get());
     }
 
+    @Override
+    public CompletableFuture<Void> requestSingleInstanceAsync(Consumer<Unique4j.InstanceConfig> instanceConfig) {
+        return runAsync(() -> {
+            requestSingleInstance(instanceConfig);
+            return null;
+        });
+    }
+
+    @Override
+    public <T> CompletableFuture<T> requestSingleInstanceThenReturnAsync(Consumer<Unique4j.InstanceConfigReturning<T>> instanceConfig) {
+        return runAsync(() -> requestSingleInstanceThenReturn(instanceConfig));
+    }
+
+    private <T> CompletableFuture<T> runAsync(Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        // not a daemon thread, the app might be running entirely in there, same as in the blocking version
+        new Thread(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, "Unique4j-" + config.getAppId() + "-main").start();
+        return future;
+    }
+
     private <T> T doWork(
             UncheckedFunction<Unique4j.FirstInstanceContext, Callable<T>> firstInstanceContextFunction,
             UncheckedFunction<Unique4j.OtherInstanceContext, Callable<T>> otherInstanceContextFunction
@@ -97,7 +140,14 @@ class Unique4jAppInstance implements Unique4j.InstanceSelector {
         final CompletableFuture<Callable<T>> otherInstanceRunFunction = new CompletableFuture<>();
         final EnqueueingFirstInstance enqueueingFirstInstance;
         final Unique4jLock lock = newLock(
-                enqueueingFirstInstance = new EnqueueingFirstInstance(),
+                enqueueingFirstInstance = new EnqueueingFirstInstance(
+                        config.getEarlyMessageQueueSize(),
+                        config.getEarlyMessageQueueMaxBytes(),
+                        config.getMaxMessageSize(),
+                        config.getMessageBufferTimeout(),
+                        config.getEarlyMessageOverflowPolicy(),
+                        config.getExceptionHandler(),
+                        config.getMetricsListener()),
                 client -> {
                     if(otherInstanceContextFunction == null)
                         return;
@@ -125,6 +175,8 @@ class Unique4jAppInstance implements Unique4j.InstanceSelector {
             } catch (Exception ex) {
                 throw new ExecutionException("Failed to execute single instance function", ex);
             } finally {
+                // don't keep the connections of early messages open if they are never going to be delivered
+                enqueueingFirstInstance.close();
                 lock.unlock();
             }
         } else {
@@ -2,8 +2,8 @@ package in.pratanumandal.unique4j;
 
 import java.io.File;
 import java.net.InetAddress;
+import java.time.Duration;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public interface Unique4jConfig {
 
@@ -11,8 +11,28 @@ public interface Unique4jConfig {
         return new MutableConfig()
                 .appId(appId)
                 .lockFolder(new File(System.getProperty("java.io.tmpdir") + File.separator + appId))
-                .executorService(Executors.newFixedThreadPool(5))
                 .ipcFactory(new DynamicPortSocketIpcFactory(InetAddress.getLoopbackAddress(), 3000))
+                .retryPolicy(RetryPolicy.exponentialBackoff())
+                .sessionKeepaliveInterval(Duration.ofSeconds(5))
+                .sessionIdleTimeout(Duration.ofSeconds(15))
+                .earlyMessageQueueSize(64)
+                .earlyMessageQueueMaxBytes(64 * 1024 * 1024)
+                .earlyMessageOverflowPolicy(EarlyMessageOverflowPolicy.REJECT)
+                .metricsListener(MetricsListener.NOOP)
+                .serverStartMode(ServerStartMode.EAGER)
+                .acceptBacklog(256)
+                .maxConcurrentConnections(64)
+                .deliveryOrder(DeliveryOrder.UNORDERED)
+                .broadcastQueueSize(64)
+                .broadcastOverflowPolicy(BroadcastOverflowPolicy.DISCONNECT)
+                .leaderHeartbeatInterval(Duration.ofSeconds(1))
+                .connectTimeout(Duration.ofSeconds(5))
+                .handshakeTimeout(Duration.ofSeconds(5))
+                .readTimeout(Duration.ZERO)
+                .messageBufferTimeout(Duration.ofSeconds(10))
+                .maxMessageSize(FramedIpcClient.DEFAULT_MAX_FRAME_SIZE)
+                .compressionEnabled(false)
+                .compressionThreshold(1024)
                 .exceptionHandler(JulUnexpectedExceptionHandler.INSTANCE);
     }
 
@@ -42,10 +62,288 @@ public interface Unique4jConfig {
 
     Unique4jConfig ipcFactory(IpcFactory ipcFactory);
 
+    /**
+     * Executor used to accept and handle other instances.
+     *
+     * If null, which is the default, each lock creates its own executor of daemon threads when it is acquired
+     * and shuts it down when it is released, so other instances never pay for it.
+     * An executor set here is instead never shut down by the library.
+     * Sessions never run on it, as they last until closed, but on daemon threads of their own.
+     *
+     * @return the executor, or null to use one owned by the lock
+     */
     ExecutorService executorService();
 
     Unique4jConfig executorService(ExecutorService executorService);
 
+    /**
+     * Whether to serve other instances using a single {@link java.nio.channels.Selector} thread, which accepts
+     * connections, runs the handshake and reads the messages in non-blocking mode, instead of blocking
+     * an executor thread for each connection.
+     *
+     * Only used if the server created by the {@link #ipcFactory()} is a {@link SelectableIpcServer}
+     * (ex. {@link SocketChannelIpcFactory}), otherwise it's ignored.
+     * In this mode, the {@link FirstInstance} handler is invoked only once the other instance has finished sending,
+     * meaning it waited for a reply, closed the connection or {@link IpcClient#shutdownOutput() shut down its output},
+     * and older versions, which don't tell the first instance where their message ends, only the last two.
+     * Not used by {@link Unique4j.InstanceSelector#newLock(String, FirstInstance, OtherInstance) keyed locks},
+     * whose shared server always blocks a thread for each connection.
+     *
+     * @return true to use a non-blocking server
+     */
+    boolean nonBlockingServer();
+
+    Unique4jConfig nonBlockingServer(boolean nonBlockingServer);
+
+    /**
+     * Policy used to decide whether to retry to acquire the lock when it's not available,
+     * but the first instance can't be reached either (ex. because it's shutting down).
+     *
+     * @return retry policy
+     */
+    RetryPolicy retryPolicy();
+
+    Unique4jConfig retryPolicy(RetryPolicy retryPolicy);
+
+    /**
+     * Interval after which an {@link IpcSession} on which nothing was sent sends a keepalive,
+     * so that the other side doesn't consider it idle.
+     *
+     * @return keepalive interval of sessions
+     */
+    Duration sessionKeepaliveInterval();
+
+    Unique4jConfig sessionKeepaliveInterval(Duration sessionKeepaliveInterval);
+
+    /**
+     * Time after which an {@link IpcSession} on which nothing, not even a keepalive, was received is considered dead,
+     * and its connection closed. Must be bigger than the {@link #sessionKeepaliveInterval()}.
+     *
+     * @return idle timeout of sessions
+     */
+    Duration sessionIdleTimeout();
+
+    Unique4jConfig sessionIdleTimeout(Duration sessionIdleTimeout);
+
+    /**
+     * Max number of messages which are queued, when using {@link Unique4j#requestSingleInstance},
+     * if other instances send them before the first instance has registered its
+     * {@link Unique4j.FirstInstanceContext#otherInstancesListener(FirstInstance) listener}.
+     *
+     * Early messages are read whole as soon as they arrive, so that they don't keep executor threads busy,
+     * up to where the other instance ended them, ex. by waiting for a reply. Their connection is then kept open,
+     * without a thread, so that the listener can still reply once it gets them. Other instances running older versions
+     * don't tell where their message ends, so they must {@link IpcClient#shutdownOutput() shut down their output}
+     * before waiting for a reply, otherwise both sides wait for each other until the {@link #messageBufferTimeout()}
+     * expires, and the message is dropped.
+     *
+     * @return max number of early messages to queue
+     */
+    int earlyMessageQueueSize();
+
+    Unique4jConfig earlyMessageQueueSize(int earlyMessageQueueSize);
+
+    /**
+     * Max number of bytes of early messages which are queued overall, on top of the {@link #earlyMessageQueueSize()},
+     * past which the queue is considered full, so that the first instance can't run out of memory while it starts up.
+     * Each message is also bounded by the {@link #maxMessageSize()}.
+     *
+     * @return max number of bytes of early messages to queue
+     */
+    int earlyMessageQueueMaxBytes();
+
+    Unique4jConfig earlyMessageQueueMaxBytes(int earlyMessageQueueMaxBytes);
+
+    /**
+     * What to do with early messages once the queue is full
+     *
+     * @return policy for early messages which don't fit in the queue
+     * @see #earlyMessageQueueSize()
+     */
+    EarlyMessageOverflowPolicy earlyMessageOverflowPolicy();
+
+    Unique4jConfig earlyMessageOverflowPolicy(EarlyMessageOverflowPolicy earlyMessageOverflowPolicy);
+
+    /**
+     * Listener receiving measurements of lock acquisition, handshakes and handlers, to export them as metrics.
+     *
+     * @return metrics listener, {@link MetricsListener#NOOP} by default
+     */
+    MetricsListener metricsListener();
+
+    Unique4jConfig metricsListener(MetricsListener metricsListener);
+
+    /**
+     * When to start the server other instances connect to, which can be skipped altogether
+     * by apps which only need mutual exclusion.
+     *
+     * @return server start mode, {@link ServerStartMode#EAGER} by default
+     */
+    ServerStartMode serverStartMode();
+
+    Unique4jConfig serverStartMode(ServerStartMode serverStartMode);
+
+    /**
+     * Max number of connections from other instances which the OS queues, waiting for the first instance
+     * to accept them, so that a burst of launches isn't turned down by the OS before the first instance can catch up.
+     *
+     * Passed to {@link IpcFactory#createIpcServer(File, String, int)}, factories which have no such queue ignore it.
+     *
+     * @return accept backlog, or 0 to use the implementation default
+     */
+    int acceptBacklog();
+
+    Unique4jConfig acceptBacklog(int acceptBacklog);
+
+    /**
+     * Max number of connections from other instances the first instance serves at the same time,
+     * including the ones running a handler. Sessions only count until they're started, as they then run
+     * on threads of their own.
+     *
+     * Further connections are turned down right after being accepted, and the other instances retry
+     * according to their {@link #retryPolicy()}, so that a burst of launches doesn't exhaust the file descriptors
+     * and threads of the first instance.
+     *
+     * @return max number of concurrent connections
+     */
+    int maxConcurrentConnections();
+
+    Unique4jConfig maxConcurrentConnections(int maxConcurrentConnections);
+
+    /**
+     * In which order the {@link FirstInstance} handler is invoked for the messages of other instances.
+     *
+     * By default, it's invoked as soon as each message is received, so that a later one might overtake an earlier one.
+     * Not used by {@link Unique4j.InstanceSelector#newLock(String, FirstInstance, OtherInstance) keyed locks},
+     * whose messages are always delivered unordered.
+     *
+     * @return delivery order
+     */
+    DeliveryOrder deliveryOrder();
+
+    Unique4jConfig deliveryOrder(DeliveryOrder deliveryOrder);
+
+    /**
+     * Max number of messages broadcast by the first instance which can be waiting to be sent to each session.
+     *
+     * Sending happens in the background, so that a slow other instance doesn't hold back the broadcaster
+     * nor the other sessions; when it falls behind by this many messages, the {@link #broadcastOverflowPolicy()} applies.
+     *
+     * @return max number of queued broadcast messages per session
+     * @see Unique4jLock#broadcast(byte[])
+     */
+    int broadcastQueueSize();
+
+    Unique4jConfig broadcastQueueSize(int broadcastQueueSize);
+
+    /**
+     * What to do with a broadcast message when the queue of a session is already full.
+     *
+     * @return broadcast overflow policy
+     * @see #broadcastQueueSize()
+     */
+    BroadcastOverflowPolicy broadcastOverflowPolicy();
+
+    Unique4jConfig broadcastOverflowPolicy(BroadcastOverflowPolicy broadcastOverflowPolicy);
+
+    /**
+     * Interval at which the first instance bumps the heartbeat of the record it publishes next to its endpoint,
+     * with its pid and start time. Other instances check it before connecting, and retry right away instead of
+     * connecting to a first instance whose process is gone, or which missed several heartbeats in a row.
+     *
+     * @return heartbeat interval of the first instance
+     */
+    Duration leaderHeartbeatInterval();
+
+    Unique4jConfig leaderHeartbeatInterval(Duration leaderHeartbeatInterval);
+
+    /**
+     * Max time an other instance waits for the connection to the first instance to be established,
+     * after which it retries according to the {@link #retryPolicy()}. Zero waits indefinitely.
+     *
+     * Only enforced by factories supporting it, see {@link IpcFactory#createIpcClient(File, String, int)}.
+     *
+     * @return connect timeout
+     */
+    Duration connectTimeout();
+
+    Unique4jConfig connectTimeout(Duration connectTimeout);
+
+    /**
+     * Max time the handshake can take, on both sides, after which the connection is closed:
+     * an other instance then retries according to the {@link #retryPolicy()},
+     * while the first instance just drops it. Zero waits indefinitely.
+     *
+     * @return handshake timeout
+     */
+    Duration handshakeTimeout();
+
+    Unique4jConfig handshakeTimeout(Duration handshakeTimeout);
+
+    /**
+     * Max time a read can wait for data while exchanging a message, after the handshake,
+     * after which the connection is closed and the read fails with a {@link java.net.SocketTimeoutException}.
+     * Sessions are not affected, see {@link #sessionIdleTimeout()}, and neither are messages the library buffers
+     * before any handler runs, see {@link #messageBufferTimeout()}. Zero waits indefinitely, which is the default,
+     * as any read can legitimately wait for the other side for longer than a fixed time, ex. for user input.
+     *
+     * @return read timeout
+     */
+    Duration readTimeout();
+
+    Unique4jConfig readTimeout(Duration readTimeout);
+
+    /**
+     * Max time the library can take to receive a whole message it buffers before handing it to a handler,
+     * ex. a message sent before the first instance registered its listener, or a message received by the
+     * {@link #nonBlockingServer() non-blocking server}, after which the connection is closed and the message dropped.
+     * Unlike the {@link #readTimeout()}, it bounds the whole message, as no handler can be waiting on it,
+     * and it's enabled by default (10 seconds). Zero waits indefinitely.
+     *
+     * @return timeout to buffer a whole message
+     */
+    Duration messageBufferTimeout();
+
+    Unique4jConfig messageBufferTimeout(Duration messageBufferTimeout);
+
+    /**
+     * Max size of a single message the library buffers before handing it to a handler,
+     * ex. a message sent before the first instance registered its listener, or a message received by the
+     * {@link #nonBlockingServer() non-blocking server}, after which the connection is closed and the message dropped,
+     * so that an other instance can't make the first instance allocate arbitrary amounts of memory.
+     *
+     * @return max size of a buffered message, in bytes
+     */
+    int maxMessageSize();
+
+    Unique4jConfig maxMessageSize(int maxMessageSize);
+
+    /**
+     * Whether to compress what's sent on connections between instances, if the other side supports it too,
+     * which is negotiated in the handshake of each connection, so instances with different settings still get along.
+     *
+     * Used for single messages and sessions, but not for {@link Unique4j.InstanceSelector#newLock(String, FirstInstance, OtherInstance) keyed locks}.
+     * Only pays off for sizeable, compressible messages, at the cost of some CPU time on both sides,
+     * see {@link #compressionThreshold()}.
+     *
+     * @return true to compress messages, false by default
+     */
+    boolean compressionEnabled();
+
+    Unique4jConfig compressionEnabled(boolean compressionEnabled);
+
+    /**
+     * Smallest number of bytes flushed at once which gets compressed, as compressing tiny messages costs more
+     * than it saves. Only used if {@link #compressionEnabled()}.
+     *
+     * Larger writes are compressed in blocks of 64 KiB, so thresholds above that disable compression.
+     *
+     * @return compression threshold in bytes, 1024 by default
+     */
+    int compressionThreshold();
+
+    Unique4jConfig compressionThreshold(int compressionThreshold);
+
     UnexpectedExceptionHandler exceptionHandler();
 
     Unique4jConfig exceptionHandler(UnexpectedExceptionHandler exceptionHandler);
@@ -17,181 +17,500 @@
 package in.pratanumandal.unique4j;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 class Unique4jIpcLock implements Unique4jLock {
 
-    private static final int MAX_CLIENT_TRIES = 5;
+    private static final long ACCEPT_LOOP_SHUTDOWN_TIMEOUT_MILLIS = 1000;
 
     public final ImmutableConfig config;
     private final FirstInstance firstInstanceHandler;
     private final OtherInstance otherInstanceHandler;
+    private final SessionListener sessionListener;
+    /** id of the key of a keyed lock, or null */
+    private final byte[] keyId;
 
     private final AtomicBoolean locked = new AtomicBoolean();
     /** lock server socket */
     private IpcServer server;
-
-    /** lock file RAF object */
-    private RandomAccessFile lockRaf;
-
-    /** file lock for the lock file RAF object */
+    /** executor running the server, either from the config or owned by this lock */
+    private ExecutorService executor;
+    /** whether the executor was created by this lock, so it has to be shut down on unlock */
+    private boolean ownsExecutor;
+    /** executor running the sessions opened by other instances, if sessions are accepted, always owned by this lock */
+    private ExecutorService sessionExecutor;
+    /** task starting the server in the background, with {@link ServerStartMode#DEFERRED} */
+    private Future<?> serverStart;
+    /** task listening for other instances on the server */
+    private Future<?> acceptLoop;
+    /** non-blocking loop serving other instances, if used */
+    private SelectorServerLoop selectorLoop;
+    /** record telling other instances whether this process is still alive, while the server is up */
+    private LeaderRecord leaderRecord;
+    /** server shared with the other keyed locks held by this process, if this is a keyed one */
+    private KeyedIpcServer keyedServer;
+    /** sessions opened by other instances, closed on unlock */
+    private final Set<Unique4jIpcSession> sessions = ConcurrentHashMap.newKeySet();
+
+    /** lock file, resolved once rather than on every attempt */
+    private final Path lockFile;
+
+    /** channel of the lock file */
+    private FileChannel lockChannel;
+
+    /** file lock for the lock file channel */
     private FileLock fileLock;
 
     public Unique4jIpcLock(Unique4jConfig config,
                            FirstInstance firstInstanceHandler,
                            OtherInstance otherInstanceHandler) {
-        this(new ImmutableConfig(config), firstInstanceHandler, otherInstanceHandler);
+        this(new ImmutableConfig(config), firstInstanceHandler, otherInstanceHandler, null);
     }
 
     public Unique4jIpcLock(ImmutableConfig config,
+                           FirstInstance firstInstanceHandler,
+                           OtherInstance otherInstanceHandler,
+                           SessionListener sessionListener) {
+        this(config, firstInstanceHandler, otherInstanceHandler, sessionListener, null);
+    }
+
+    /** Creates a keyed lock, which shares its server with the other ones held by this process */
+    public Unique4jIpcLock(ImmutableConfig config,
+                           String key,
                            FirstInstance firstInstanceHandler,
                            OtherInstance otherInstanceHandler) {
+        this(config, firstInstanceHandler, otherInstanceHandler, null, KeyedIpcServer.keyId(key));
+    }
+
+    private Unique4jIpcLock(ImmutableConfig config,
+                            FirstInstance firstInstanceHandler,
+                            OtherInstance otherInstanceHandler,
+                            SessionListener sessionListener,
+                            byte[] keyId) {
         this.config = config;
         this.firstInstanceHandler = firstInstanceHandler;
         this.otherInstanceHandler = otherInstanceHandler;
+        this.sessionListener = sessionListener;
+        this.keyId = keyId;
+        this.lockFile = keyId != null
+                ? KeyedIpcServer.keysFolder(config).toPath().resolve(KeyedIpcServer.keyFileName(keyId) + ".lock")
+                : config.getLockFolder().toPath().resolve("app.lock");
     }
 
     @Override
     public boolean tryLock() throws IOException {
-        for(int tries = 0; ; tries++) {
-            // try to lock file
-            boolean locked0;
-            Throwable notLockedException = null;
-            try {
-                // Create the parent folder
-                Files.createDirectories(config.getLockFolder().toPath());
-                lockRaf = new RandomAccessFile(getLockFile(), "rws");
-                fileLock = lockRaf.getChannel().tryLock();
-                locked.set(locked0 = fileLock != null);
-            } catch (IOException | OverlappingFileLockException e) {
-                notLockedException = e;
-                locked0 = false;
-            }
-
-            if (locked0) {
-                // locked file, we are the first to arrive
-                // try to start server
+        final long startNanos = System.nanoTime();
+        final MetricsListener metrics = config.getMetricsListener();
+        int retries = 0;
+        LockFolderWatcher lockFolderWatcher = null;
+        boolean lockFolderWatchFailed = false;
+        try {
+            for (; ; retries++) {
+                // try to lock file
+                boolean locked0;
+                Throwable notLockedException = null;
+                final LifecycleEvent fileLockEvent = LifecycleEvents.fileLock(config.getAppId());
                 try {
-                    startServer();
-                } catch (Throwable t) {
-                    // Failed for some reason, unlock before rethrowing
+                    if (lockChannel == null)
+                        lockChannel = openLockFile();
+                    fileLock = lockChannel.tryLock();
+                    locked.set(locked0 = fileLock != null);
+                } catch (IOException | OverlappingFileLockException e) {
+                    notLockedException = e;
+                    locked0 = false;
+                }
+                fileLockEvent.end(locked0);
+
+                if (locked0) {
+                    // locked file, we are the first to arrive
+                    // try to start server
                     try {
-                        unlock();
-                    } catch (Throwable t0) {
-                        t.addSuppressed(t0);
+                        switch (config.getServerStartMode()) {
+                            case LOCK_ONLY:
+                                break;
+                            case DEFERRED:
+                                if (keyId == null) {
+                                    startServerInBackground();
+                                    break;
+                                }
+                                // the server shared by keyed locks is usually already running, there's nothing to defer
+                                // fall through
+                            default:
+                                if (keyId != null)
+                                    startKeyedServer();
+                                else
+                                    startServer(createExecutor());
+                                break;
+                        }
+                    } catch (Throwable t) {
+                        // Failed for some reason, unlock before rethrowing
+                        try {
+                            unlock();
+                        } catch (Throwable t0) {
+                            t.addSuppressed(t0);
+                        }
+
+                        throw t;
+                    }
+                    metrics.lockAcquired(System.nanoTime() - startNanos, retries);
+                    return true;
+                }
+
+                // don't keep around the lock file handle of failed attempts, unless the lock is held by this same JVM:
+                // closing any handle to the file would release the locks held through the other ones as well
+                if (notLockedException == null)
+                    closeLockFile();
+
+                // there's no first instance server to talk to, just knowing that it's there is enough
+                if (config.getServerStartMode() == ServerStartMode.LOCK_ONLY) {
+                    metrics.firstInstanceFound(System.nanoTime() - startNanos, retries);
+                    return false;
+                }
+
+                // couldn't lock file, we are not the first instance
+                // try to start client
+                try {
+                    doClient();
+                    metrics.firstInstanceFound(System.nanoTime() - startNanos, retries);
+                    return false;
+                } catch (RetryLockException ex) {
+                    final RetryPolicy retryPolicy = config.getRetryPolicy();
+                    final long delayNanos = retryPolicy.nextRetryDelayNanos(retries, System.nanoTime() - startNanos);
+                    if (delayNanos >= 0) {
+                        if (delayNanos > 0) {
+                            if (retryPolicy.isWakeOnLockFolderChange() && lockFolderWatcher == null && !lockFolderWatchFailed) {
+                                try {
+                                    // keyed lock files are in a folder of their own
+                                    lockFolderWatcher = new LockFolderWatcher(lockFile.getParent());
+                                } catch (IOException | UnsupportedOperationException watchEx) {
+                                    // ex. out of inotify watches, or a network file system which can't be watched,
+                                    // which is no reason not to get the lock, just sleep instead
+                                    lockFolderWatchFailed = true;
+                                    config.getExceptionHandler().unexpectedException(null, null, watchEx);
+                                }
+                            }
+                            awaitRetry(lockFolderWatcher, delayNanos);
+                        }
+                        continue;
                     }
 
-                    throw t;
+                    final Throwable cause = ex.getCause();
+                    if (notLockedException != null)
+                        cause.addSuppressed(notLockedException);
+
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    throw new RuntimeException("Failed to start IPC client", cause);
                 }
-                return true;
             }
+        } catch (Throwable t) {
+            metrics.lockFailed(System.nanoTime() - startNanos, retries, t);
+            throw t;
+        } finally {
+            if (lockFolderWatcher != null)
+                lockFolderWatcher.close();
+        }
+    }
 
-            // couldn't lock file, we are not the first instance
-            // try to start client
-            try {
-                doClient();
-                return false;
-            } catch (RetryLockException ex) {
-                if(tries < MAX_CLIENT_TRIES)
-                    continue;
+    private static void awaitRetry(LockFolderWatcher lockFolderWatcher, long delayNanos) throws InterruptedIOException {
+        try {
+            if (lockFolderWatcher != null)
+                lockFolderWatcher.await(delayNanos);
+            else
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException ioEx = new InterruptedIOException("Interrupted while waiting to retry to acquire the lock");
+            ioEx.initCause(ex);
+            throw ioEx;
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        // only create the default executor now, so that other instances never pay for it
+        ownsExecutor = config.getExecutorService() == null;
+        // sessions run until closed, so they get threads of their own rather than holding the ones handling messages
+        sessionExecutor = sessionListener != null ? DefaultExecutors.newSessionExecutor(config.getAppId()) : null;
+        return executor = ownsExecutor
+                ? DefaultExecutors.newDefaultExecutor(config.getAppId())
+                : config.getExecutorService();
+    }
 
-                final Throwable cause = ex.getCause();
-                if(notLockedException != null)
-                    cause.addSuppressed(notLockedException);
-
-                if(cause instanceof IOException)
-                    throw (IOException) cause;
-                if(cause instanceof Error)
-                    throw (Error) cause;
-                if(cause instanceof RuntimeException)
-                    throw (RuntimeException) cause;
-                throw new RuntimeException("Failed to start IPC client", cause);
+    private void startServerInBackground() {
+        final ExecutorService executor = createExecutor();
+        // other instances arriving before the server is up can't connect, so they just retry
+        serverStart = executor.submit(() -> {
+            try {
+                startServer(executor);
+            } catch (Throwable t) {
+                // keep holding the lock, as this is still the first instance
+                config.getExceptionHandler().unexpectedException(null, null, t);
             }
+        });
+    }
+
+    private void startKeyedServer() throws IOException {
+        final LifecycleEvent serverBindEvent = LifecycleEvents.serverBind(config.getAppId());
+        boolean success = false;
+        try {
+            keyedServer = KeyedIpcServer.acquire(config);
+            keyedServer.register(keyId, firstInstanceHandler);
+            success = true;
+        } finally {
+            serverBindEvent.end(success);
         }
     }
 
-    private void startServer() throws IOException {
+    private void startServer(ExecutorService executor) throws IOException {
+        final ExecutorService sessionExecutor = this.sessionExecutor;
         // try to start the server
-        server = config.getIpcFactory().createIpcServer(config.getLockFolder(), config.getAppId());
+        // the accept loop must only ever see its own server, as the field is re-assigned on unlock/re-lock
+        final LifecycleEvent serverBindEvent = LifecycleEvents.serverBind(config.getAppId());
+        final IpcServer server;
+        try {
+            server = this.server = config.getIpcFactory().createIpcServer(
+                    config.getLockFolder(), config.getAppId(), config.getAcceptBacklog());
+        } catch (Throwable t) {
+            serverBindEvent.end(false);
+            throw t;
+        }
+        serverBindEvent.end(true);
+        leaderRecord = LeaderRecord.tryPublish(config, config.getLockFolder(), server);
 
         // server created successfully; this is the first instance
         // keep listening for data from other instances
-        config.getExecutorService().submit(() -> {
+        if (config.isNonBlockingServer() && server instanceof SelectableIpcServer) {
+            selectorLoop = new SelectorServerLoop(
+                    config, executor, (SelectableIpcServer) server,
+                    firstInstanceHandler,
+                    sessionListener != null ? client -> Unique4jIpcSession.start(config, sessionListener, client, sessions, sessionExecutor) : null);
+            acceptLoop = executor.submit(selectorLoop);
+            return;
+        }
+
+        final int capabilities = Handshake.offeredCapabilities(
+                sessionListener != null, config.getDeliveryOrder(), config.isCompressionEnabled(), true);
+        final byte[] serverHello = Handshake.serverHello(config.getAppId(), capabilities);
+        final byte[] legacyResponse = Handshake.legacyResponse(config.getAppId());
+        // connections beyond the limit are turned down right away, instead of piling up on the executor
+        final Semaphore permits = new Semaphore(config.getMaxConcurrentConnections());
+        final MessageSequencer sequencer = new MessageSequencer(config.getDeliveryOrder(), executor);
+        acceptLoop = executor.submit(() -> {
+            final AcceptBackoff backoff = new AcceptBackoff();
             while (!server.isClosed()) {
                 final IpcClient client0;
                 try {
                     // establish connection
                     client0 = server.accept();
                 } catch (IOException e) {
-                    if (!server.isClosed())
+                    if (!server.isClosed()) {
+                        config.getMetricsListener().acceptFailed(e);
                         config.getExceptionHandler().unexpectedException(server, null, e);
+                        // don't spin on persistent errors (ex. out of file descriptors)
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(backoff.nextDelayNanos());
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                    }
                     continue;
                 }
+                backoff.reset();
+                config.getMetricsListener().connectionAccepted();
+                LifecycleEvents.connectionAccepted(config.getAppId());
 
+                if (!permits.tryAcquire()) {
+                    reject(config, server, client0);
+                    continue;
+                }
+
+                final long sequence = sequencer.arrived();
                 // handle socket on a different thread to allow parallel connections
-                config.getExecutorService().submit(() -> {
-                    try(
-                            final IpcClient client = client0;
-                            final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
-                            final DataInputStream dis = new DataInputStream(client.getInputStream())
-                    ) {
+                try {
+                    executor.submit(() -> {
+                        // the client is handed off to the sequencer or to the session, which take care of it from then on
+                        boolean delivered = false;
                         try {
-                            // read message length from client
-                            dis.readInt();
-                            // write response to client
-                            dos.writeUTF(config.getAppId());
-                            dos.flush();
-                        } catch (IOException e) {
-                            config.getExceptionHandler().unexpectedException(server, client, e);
-                            return;
+                            // a slow or stuck other instance must not keep this thread forever
+                            final DeadlineIpcClient timedClient = DeadlineIpcClient.wrap(config, client0);
+                            timedClient.deadline(config.getHandshakeTimeout());
+                            final DataOutputStream dos = new DataOutputStream(timedClient.getOutputStream());
+                            final DataInputStream dis = new DataInputStream(timedClient.getInputStream());
+                            final Handshake.Negotiated negotiated;
+                            final LifecycleEvent handshakeEvent = LifecycleEvents.handshake(config.getAppId(), true);
+                            try {
+                                // find out whether the client wants a session or to send a single message
+                                negotiated = Handshake.accept(dis, dos, serverHello, legacyResponse, capabilities);
+                            } catch (IOException e) {
+                                handshakeEvent.end(false);
+                                config.getExceptionHandler().unexpectedException(server, client0, e);
+                                return;
+                            }
+                            handshakeEvent.end(true);
+                            timedClient.deadline(Duration.ZERO);
+                            final IpcClient deframedClient = DeframedMessageIpcClient.wrap(timedClient, negotiated);
+                            final IpcClient negotiatedClient = CompressedIpcClient.wrap(config, deframedClient, negotiated);
+
+                            if(negotiated.isSession()) {
+                                // the session runs on its own thread from now on, so it no longer counts against the limit
+                                sequencer.skip(sequence);
+                                permits.release();
+                                delivered = true;
+                                try {
+                                    Unique4jIpcSession.start(config, sessionListener, negotiatedClient, sessions, sessionExecutor);
+                                } catch (RejectedExecutionException e) {
+                                    // unlocking, the session was already closed
+                                }
+                            } else if(!negotiated.isRefusedSession() && firstInstanceHandler != null) {
+                                delivered = true;
+                                timedClient.readTimeout(config.getReadTimeout());
+                                sequencer.deliver(sequence, negotiated.sender, () -> {
+                                    try(final DetachableIpcClient client = new DetachableIpcClient(negotiatedClient)) {
+                                        runHandler(config, firstInstanceHandler, client);
+                                        if (!client.isDetached())
+                                            DeframedMessageIpcClient.skipMessage(deframedClient);
+                                    } catch (Throwable t) {
+                                        config.getExceptionHandler().unexpectedException(server, null, t);
+                                    } finally {
+                                        permits.release();
+                                    }
+                                });
+                            }
+                        } catch (Throwable t) {
+                            config.getExceptionHandler().unexpectedException(server, null, t);
+                        } finally {
+                            if (!delivered) {
+                                sequencer.skip(sequence);
+                                closeQuietly(server, client0);
+                                permits.release();
+                            }
                         }
-
-                        if(firstInstanceHandler != null)
-                            firstInstanceHandler.onOtherInstanceStarted(client);
-                    } catch (Throwable t) {
-                        config.getExceptionHandler().unexpectedException(server, null, t);
-                    }
-                });
+                    });
+                } catch (RejectedExecutionException e) {
+                    // the executor is saturated (or shutting down), so this is just as busy
+                    sequencer.skip(sequence);
+                    permits.release();
+                    reject(config, server, client0);
+                }
             }
         });
     }
 
+    private void closeQuietly(IpcServer server, IpcClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            config.getExceptionHandler().unexpectedException(server, client, e);
+        }
+    }
+
+    /** Tells the other instance that the first instance is busy, so that it retries later */
+    static void reject(ImmutableConfig config, IpcServer server, IpcClient client) {
+        config.getMetricsListener().connectionRejected();
+        try {
+            Handshake.reject(client);
+        } catch (IOException e) {
+            // it's going to retry anyway
+            if (!server.isClosed())
+                config.getExceptionHandler().unexpectedException(server, client, e);
+        }
+    }
+
+    /** Invokes the handler of a single message, keeping track of it in the {@link MetricsListener} and in JFR */
+    static void runHandler(ImmutableConfig config, FirstInstance handler, IpcClient client) throws IOException, InterruptedException {
+        final MetricsListener metrics = config.getMetricsListener();
+        final LifecycleEvent handlerEvent = LifecycleEvents.handler(config.getAppId());
+        final long startNanos = System.nanoTime();
+        metrics.handlerStarted();
+        boolean success = false;
+        try {
+            handler.onOtherInstanceStarted(client);
+            success = true;
+        } finally {
+            metrics.handlerFinished(System.nanoTime() - startNanos);
+            handlerEvent.end(success);
+        }
+    }
+
     private void doClient() throws RetryLockException, IOException {
         // try to establish connection to server
-        final IpcClient client0;
+        final long connectStartNanos = System.nanoTime();
+        final DeadlineIpcClient client0;
         try {
-            client0 = config.getIpcFactory().createIpcClient(config.getLockFolder(), config.getAppId());
+            // keyed locks are served from the folder of the server of the process holding the key
+            final File serverFolder = keyId != null ? KeyedIpcServer.lookup(config, keyId) : config.getLockFolder();
+            // don't even try to connect to a first instance which is known to be dead or wedged
+            LeaderRecord.check(serverFolder);
+            client0 = DeadlineIpcClient.wrap(config, config.getIpcFactory().createIpcClient(
+                    serverFolder, config.getAppId(), config.getConnectTimeoutMillis()));
         } catch (IOException e) {
             // connection failed, re-try to get the lock cause maybe it was just released
             throw new RetryLockException(e);
         }
 
+        final long handshakeStartNanos = System.nanoTime();
         boolean validResponseFound;
         // connection successful try to connect to server
         try(
-                final IpcClient client = client0;
+                final DeadlineIpcClient client = client0;
                 final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
                 final DataInputStream dis = new DataInputStream(client.getInputStream())
         ) {
-            // write message to server
-            dos.writeInt(-1);
-            dos.flush();
-
-            // read response string from server
-            String response;
+            final LifecycleEvent handshakeEvent = LifecycleEvents.handshake(config.getAppId(), false);
+            Handshake.Negotiated negotiated = null;
+            // a first instance which accepted but never answers must not block this one forever
+            client.deadline(config.getHandshakeTimeout());
             try {
-                response = dis.readUTF();
-            } catch (EOFException | UTFDataFormatException ex) {
-                response = null;
+                negotiated = keyId != null
+                        ? Handshake.connectKeyed(config.getAppId(), keyId, dis, dos)
+                        : Handshake.connect(config.getAppId(), false, config.isCompressionEnabled(), dis, dos);
+            } catch (IOException e) {
+                // the first instance is busy, released the key,
+                // or hung up on this one (ex. turned it down before reading the hello)
+                throw new RetryLockException(e);
+            } finally {
+                handshakeEvent.end(negotiated != null);
             }
 
-            validResponseFound = response != null && response.equals(config.getAppId());
+            validResponseFound = negotiated != null;
+            client.deadline(Duration.ZERO);
+            client.readTimeout(config.getReadTimeout());
 
-            if(validResponseFound && otherInstanceHandler != null)
-                otherInstanceHandler.onFirstInstanceFound(client);
+            if(validResponseFound)
+                config.getMetricsListener().connectedToFirstInstance(
+                        handshakeStartNanos - connectStartNanos,
+                        System.nanoTime() - handshakeStartNanos);
+
+            if(validResponseFound && otherInstanceHandler != null) {
+                // closed before the streams, so that what's still buffered is sent
+                try(final IpcClient negotiatedClient = CompressedIpcClient.wrap(
+                        config, FramedMessageIpcClient.wrap(client, negotiated), negotiated)) {
+                    otherInstanceHandler.onFirstInstanceFound(negotiatedClient);
+                }
+            }
 
         }
 
@@ -214,23 +533,127 @@ class Unique4jIpcLock implements Unique4jLock {
         if(!locked.getAndSet(false))
             throw new UnsupportedOperationException("Lock wasn't acquired by this app instance");
 
+        final LifecycleEvent unlockEvent = LifecycleEvents.unlock(config.getAppId());
+        boolean success = false;
+        try {
+            release();
+            success = true;
+        } finally {
+            unlockEvent.end(success);
+        }
+    }
+
+    private void release() throws IOException {
+        // the server might still be starting in the background
+        if(serverStart != null)
+            awaitServerStart(serverStart);
+        serverStart = null;
+
+        // while the lock is still held, so that no one else is publishing it
+        if(leaderRecord != null)
+            leaderRecord.close();
+        leaderRecord = null;
+
         if(server != null)
             server.close();
         server = null;
 
+        // while the key is still locked, so that no one else is publishing it
+        if(keyedServer != null) {
+            keyedServer.unregister(keyId);
+            keyedServer.release();
+        }
+        keyedServer = null;
+
+        if(selectorLoop != null)
+            selectorLoop.wakeup();
+        selectorLoop = null;
+
+        // other instances will reconnect to the next first instance
+        // once the executor is shut down, sessions still being handed off are either in the set or turned down
+        if(sessionExecutor != null)
+            sessionExecutor.shutdown();
+        sessionExecutor = null;
+        sessions.forEach(IpcSession::close);
+
         // try to release file lock
         if (fileLock != null)
             fileLock.release();
         fileLock = null;
 
-        // try to close lock file RAF object
-        if (lockRaf != null)
-            lockRaf.close();
-        lockRaf = null;
+        // try to close lock file channel
+        closeLockFile();
+
+        // releasing a file lock doesn't show up as a change in the folder,
+        // so touch the file to wake up instances waiting for it (see RetryPolicy#isWakeOnLockFolderChange())
+        try {
+            Files.setLastModifiedTime(lockFile, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // best effort, waiting instances will still retry after their delay
+        }
+
+        // the lock file is deliberately left in place: an instance which opened it before it got deleted
+        // would still lock the old file, while a new one would create and lock another file at the same path,
+        // so both would think they are the first (and on Windows, deleting fails while anyone has it open)
+
+        // the server might only actually release its endpoint once the accept loop wakes up
+        // (ex. a closed ServerSocket keeps its port bound until the thread blocked in accept() returns),
+        // so wait for it, or re-locking right after unlocking might fail to bind
+        if(acceptLoop != null)
+            awaitAcceptLoop(acceptLoop);
+        acceptLoop = null;
+
+        // let handlers which are still running finish, but don't accept new ones
+        if(executor != null && ownsExecutor)
+            executor.shutdown();
+        executor = null;
+    }
 
-        // try to delete lock file
-        // TODO: deleting the lock file throws an exception, even if it's actually unlocked
-        // Files.deleteIfExists(getLockFile().toPath());
+    private void awaitServerStart(Future<?> serverStart) {
+        // binding doesn't take long, and the server has to be closed, so don't give up even if interrupted
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    serverStart.get();
+                    return;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException ex) {
+                    config.getExceptionHandler().unexpectedException(null, null, ex);
+                    return;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitAcceptLoop(Future<?> acceptLoop) {
+        try {
+            acceptLoop.get(ACCEPT_LOOP_SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            // still need to release the file lock, so just restore the flag
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ex) {
+            config.getExceptionHandler().unexpectedException(null, null, ex);
+        }
+    }
+
+    @Override
+    public int broadcast(byte[] message) {
+        if(!locked.get())
+            throw new UnsupportedOperationException("Lock wasn't acquired by this app instance");
+
+        // encoded just once, then shared by all the queues
+        final byte[] frame = Unique4jIpcSession.encodeMessage(message);
+        int queued = 0;
+        for (Unique4jIpcSession session : sessions) {
+            if (session.broadcast(frame))
+                queued++;
+        }
+        return queued;
     }
 
     @Override
@@ -238,7 +661,24 @@ class Unique4jIpcLock implements Unique4jLock {
         return locked.get();
     }
 
-    private File getLockFile() {
-        return new File(config.getLockFolder(), "app.lock");
+    /**
+     * Opens the lock file, creating it if needed.
+     * It's never written to, it just has to be writable to be locked exclusively, so no synchronous
+     * writes are requested. The folder is only created once opening fails because it's missing,
+     * so that retries against an existing folder cost a single open.
+     */
+    private FileChannel openLockFile() throws IOException {
+        try {
+            return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException ex) {
+            Files.createDirectories(lockFile.getParent());
+            return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+    }
+
+    private void closeLockFile() throws IOException {
+        if (lockChannel != null)
+            lockChannel.close();
+        lockChannel = null;
     }
 }
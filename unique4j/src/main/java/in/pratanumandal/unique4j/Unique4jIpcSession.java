@@ -0,0 +1,456 @@
+package in.pratanumandal.unique4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+class Unique4jIpcSession implements IpcSession {
+
+    private static final byte MESSAGE_FRAME = 0;
+    private static final byte KEEPALIVE_FRAME = 1;
+    /** keepalive frame, header included, queued like the broadcast ones */
+    private static final byte[] ENCODED_KEEPALIVE_FRAME = { 0, 0, 0, 1, KEEPALIVE_FRAME };
+
+    private final ImmutableConfig config;
+    private final SessionListener listener;
+    /** connects again to the first instance, or null if the session ends with its connection */
+    private final Connector connector;
+    /** executor running the receiving loop and sending the queued frames, see {@link DefaultExecutors#newSessionExecutor(String)} */
+    private final ExecutorService executor;
+    /** whether the executor was created for this session alone, so it has to be shut down on close */
+    private final boolean ownsExecutor;
+
+    private final long keepaliveIntervalNanos;
+    private final long idleTimeoutNanos;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /** held while sending and reconnecting, so that senders wait for reconnection */
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private volatile FramedIpcClient client;
+    /** connection below the compression, closed to abort the session without waiting for blocked senders */
+    private volatile IpcClient transport;
+    private volatile boolean reconnecting;
+    private volatile long lastSentNanos;
+    private volatile long lastReceivedNanos;
+    private volatile ScheduledFuture<?> keepaliveTask;
+
+    /** encoded broadcast and keepalive frames waiting to be sent, guarded by itself */
+    private final ArrayDeque<byte[]> sendQueue = new ArrayDeque<>();
+    /** whether a task sending the queued frames is scheduled or running, guarded by the queue */
+    private boolean sendingQueued;
+
+    private Unique4jIpcSession(ImmutableConfig config,
+                               SessionListener listener,
+                               IpcClient client,
+                               Connector connector,
+                               ExecutorService executor,
+                               boolean ownsExecutor) {
+        this.config = config;
+        this.listener = listener;
+        this.connector = connector;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.keepaliveIntervalNanos = config.getSessionKeepaliveInterval().toNanos();
+        this.idleTimeoutNanos = config.getSessionIdleTimeout().toNanos();
+        this.client = new FramedIpcClient(client);
+        this.transport = CompressedIpcClient.unwrap(client);
+        this.lastSentNanos = this.lastReceivedNanos = System.nanoTime();
+    }
+
+    /**
+     * Serves a session opened by an other instance in the background, until it's closed
+     *
+     * @param client client which already completed the handshake
+     * @param executor executor of the lock running its sessions, see {@link DefaultExecutors#newSessionExecutor(String)}
+     * @throws RejectedExecutionException if the executor was shut down, after closing the session
+     */
+    static void start(ImmutableConfig config,
+                      SessionListener listener,
+                      IpcClient client,
+                      Set<Unique4jIpcSession> sessions,
+                      ExecutorService executor) {
+        final Unique4jIpcSession session = new Unique4jIpcSession(config, listener, client, null, executor, false);
+        sessions.add(session);
+        try {
+            executor.execute(() -> {
+                try {
+                    session.run();
+                } finally {
+                    sessions.remove(session);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            sessions.remove(session);
+            session.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens a session to the first instance, retrying according to the {@link ImmutableConfig#getRetryPolicy()}
+     *
+     * @throws IOException if no first instance could be reached, or it doesn't accept sessions
+     */
+    static IpcSession open(ImmutableConfig config, SessionListener listener) throws IOException {
+        final Connector connector = () -> connect(config);
+        final IpcClient client = connectWithRetries(config, connector);
+
+        final Unique4jIpcSession session = new Unique4jIpcSession(config, listener, client, connector,
+                DefaultExecutors.newSessionExecutor(config.getAppId()), true);
+        try {
+            session.executor.execute(session::run);
+        } catch (RejectedExecutionException ex) {
+            session.close();
+            throw ex;
+        }
+        return session;
+    }
+
+    private static IpcClient connect(ImmutableConfig config) throws IOException {
+        final long connectStartNanos = System.nanoTime();
+        LeaderRecord.check(config.getLockFolder());
+        final DeadlineIpcClient client = DeadlineIpcClient.wrap(config, config.getIpcFactory().createIpcClient(
+                config.getLockFolder(), config.getAppId(), config.getConnectTimeoutMillis()));
+        final long handshakeStartNanos = System.nanoTime();
+        final LifecycleEvent handshakeEvent = LifecycleEvents.handshake(config.getAppId(), false);
+        try {
+            // afterwards, the session has its own idle timeout
+            client.deadline(config.getHandshakeTimeout());
+            // don't close the streams, as that would close the client
+            final DataOutputStream dos = new DataOutputStream(client.getOutputStream());
+            final DataInputStream dis = new DataInputStream(client.getInputStream());
+            final Handshake.Negotiated negotiated = Handshake.connect(config.getAppId(), true, config.isCompressionEnabled(), dis, dos);
+            if (negotiated == null)
+                throw new IOException("Received invalid or malformed response from the first instance");
+            client.deadline(Duration.ZERO);
+
+            handshakeEvent.end(true);
+            config.getMetricsListener().connectedToFirstInstance(
+                    handshakeStartNanos - connectStartNanos,
+                    System.nanoTime() - handshakeStartNanos);
+            return CompressedIpcClient.wrap(config, client, negotiated);
+        } catch (IOException | RuntimeException ex) {
+            handshakeEvent.end(false);
+            try {
+                client.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
+    private static IpcClient connectWithRetries(ImmutableConfig config, Connector connector) throws IOException {
+        final long startNanos = System.nanoTime();
+        for (int retries = 0; ; retries++) {
+            try {
+                return connector.connect();
+            } catch (Handshake.SessionRefusedException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                final long delayNanos = config.getRetryPolicy().nextRetryDelayNanos(retries, System.nanoTime() - startNanos);
+                if (delayNanos < 0)
+                    throw ex;
+
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delayNanos);
+                } catch (InterruptedException interruptedEx) {
+                    Thread.currentThread().interrupt();
+                    final InterruptedIOException ioEx = new InterruptedIOException("Interrupted while waiting to connect to the first instance");
+                    ioEx.initCause(interruptedEx);
+                    ioEx.addSuppressed(ex);
+                    throw ioEx;
+                }
+            }
+        }
+    }
+
+    private void run() {
+        final long checkIntervalNanos = Math.max(1, Math.min(keepaliveIntervalNanos, idleTimeoutNanos) / 2);
+        keepaliveTask = DaemonScheduler.get().scheduleAtFixedRate(
+                this::keepalive, checkIntervalNanos, checkIntervalNanos, TimeUnit.NANOSECONDS);
+        // might have been closed before the task was there to be cancelled
+        if (closed.get())
+            keepaliveTask.cancel(false);
+        try {
+            if (!notifyOpen())
+                return;
+
+            while (!closed.get()) {
+                final FramedIpcClient client = this.client;
+                final byte[] frame;
+                try {
+                    frame = client.receive();
+                } catch (IOException ex) {
+                    if (closed.get() || connector == null || !reconnect(ex))
+                        break;
+                    continue;
+                }
+
+                lastReceivedNanos = System.nanoTime();
+                if (frame.length == 0 || frame[0] == KEEPALIVE_FRAME)
+                    continue;
+
+                try {
+                    listener.onMessage(this, Arrays.copyOfRange(frame, 1, frame.length));
+                } catch (Throwable t) {
+                    config.getExceptionHandler().unexpectedException(null, client, t);
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private boolean notifyOpen() {
+        try {
+            listener.onOpen(this);
+            return true;
+        } catch (Throwable t) {
+            config.getExceptionHandler().unexpectedException(null, client, t);
+            return false;
+        }
+    }
+
+    private boolean reconnect(IOException cause) {
+        sendLock.lock();
+        reconnecting = true;
+        try {
+            closeClient();
+            final IpcClient newClient;
+            try {
+                newClient = connectWithRetries(config, connector);
+            } catch (IOException ex) {
+                ex.addSuppressed(cause);
+                if (!closed.get())
+                    config.getExceptionHandler().unexpectedException(null, client, ex);
+                return false;
+            }
+
+            client = new FramedIpcClient(newClient);
+            transport = CompressedIpcClient.unwrap(newClient);
+            lastSentNanos = lastReceivedNanos = System.nanoTime();
+            if (closed.get()) {
+                closeClient();
+                return false;
+            }
+        } finally {
+            reconnecting = false;
+            sendLock.unlock();
+        }
+
+        return notifyOpen();
+    }
+
+    private void keepalive() {
+        if (closed.get() || reconnecting)
+            return;
+
+        final long now = System.nanoTime();
+        if (now - lastReceivedNanos > idleTimeoutNanos) {
+            // the other side is gone without closing the connection,
+            // abort it so that the receiving thread either reconnects or closes the session
+            abortClient();
+            return;
+        }
+
+        if (now - lastSentNanos < keepaliveIntervalNanos)
+            return;
+
+        // never block the shared scheduler, the keepalive is sent by the task sending the queued frames,
+        // and if something is already being sent there's no need for it anyway
+        synchronized (sendQueue) {
+            if (closed.get() || sendingQueued)
+                return;
+
+            sendQueue.add(ENCODED_KEEPALIVE_FRAME);
+            sendingQueued = true;
+        }
+        startSendingQueued();
+    }
+
+    /**
+     * Encodes a message as a frame, header included, which can be sent to any number of sessions
+     *
+     * @throws IllegalArgumentException if the message is bigger than the max frame size
+     */
+    static byte[] encodeMessage(byte[] message) {
+        final int length = message.length + 1;
+        if (length > FramedIpcClient.DEFAULT_MAX_FRAME_SIZE)
+            throw new IllegalArgumentException("Message of " + message.length + " bytes exceeds the max frame size of " +
+                    (FramedIpcClient.DEFAULT_MAX_FRAME_SIZE - 1));
+
+        final byte[] frame = new byte[FramedIpcClient.HEADER_SIZE + length];
+        ByteBuffer.wrap(frame).putInt(length).put(MESSAGE_FRAME).put(message);
+        return frame;
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException {
+        final byte[] frame = encodeMessage(message);
+
+        sendLock.lock();
+        try {
+            if (closed.get())
+                throw new IOException("Session is closed");
+
+            client.sendEncoded(frame);
+            lastSentNanos = System.nanoTime();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Queues a frame encoded with {@link #encodeMessage(byte[])} to be sent in the background,
+     * applying the {@link ImmutableConfig#getBroadcastOverflowPolicy()} if the queue is full
+     *
+     * @return whether the frame was queued
+     */
+    boolean broadcast(byte[] frame) {
+        boolean queued = true;
+        boolean disconnect = false;
+        boolean startSending = false;
+        synchronized (sendQueue) {
+            if (closed.get())
+                return false;
+
+            if (sendQueue.size() >= config.getBroadcastQueueSize()) {
+                config.getMetricsListener().broadcastOverflowed();
+                switch (config.getBroadcastOverflowPolicy()) {
+                    case DROP_OLDEST:
+                        sendQueue.poll();
+                        break;
+                    case DROP_NEWEST:
+                        return false;
+                    default:
+                        sendQueue.clear();
+                        queued = false;
+                        disconnect = true;
+                        break;
+                }
+            }
+
+            if (queued) {
+                sendQueue.add(frame);
+                startSending = !sendingQueued;
+                sendingQueued = true;
+            }
+        }
+
+        if (disconnect) {
+            // without waiting for the stuck sender, the receiving thread notices and closes the session
+            abortClient();
+            return false;
+        }
+
+        return !startSending || startSendingQueued();
+    }
+
+    /** @return false if the task sending the queued frames couldn't be started, as the executor is shutting down */
+    private boolean startSendingQueued() {
+        try {
+            executor.execute(this::sendQueued);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            synchronized (sendQueue) {
+                sendQueue.clear();
+                sendingQueued = false;
+            }
+            return false;
+        }
+    }
+
+    private void sendQueued() {
+        while (true) {
+            final byte[] frame;
+            synchronized (sendQueue) {
+                frame = sendQueue.poll();
+                if (frame == null) {
+                    sendingQueued = false;
+                    return;
+                }
+            }
+
+            sendLock.lock();
+            try {
+                if (closed.get())
+                    throw new IOException("Session is closed");
+
+                client.sendEncoded(frame);
+                lastSentNanos = System.nanoTime();
+            } catch (IOException ex) {
+                synchronized (sendQueue) {
+                    sendQueue.clear();
+                    sendingQueued = false;
+                }
+                // the receiving thread notices and closes the session
+                abortClient();
+                return;
+            } finally {
+                sendLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (closed.getAndSet(true))
+            return;
+
+        final ScheduledFuture<?> keepaliveTask = this.keepaliveTask;
+        if (keepaliveTask != null)
+            keepaliveTask.cancel(false);
+
+        closeClient();
+        synchronized (sendQueue) {
+            sendQueue.clear();
+        }
+        try {
+            listener.onClose(this);
+        } catch (Throwable t) {
+            config.getExceptionHandler().unexpectedException(null, client, t);
+        }
+
+        if (ownsExecutor)
+            executor.shutdown();
+    }
+
+    private void closeClient() {
+        try {
+            client.close();
+        } catch (IOException ex) {
+            config.getExceptionHandler().unexpectedException(null, client, ex);
+        }
+    }
+
+    private void abortClient() {
+        try {
+            transport.close();
+        } catch (IOException ex) {
+            config.getExceptionHandler().unexpectedException(null, transport, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Unique4jIpcSession{" + client + '}';
+    }
+
+    @FunctionalInterface
+    private interface Connector {
+
+        IpcClient connect() throws IOException;
+    }
+}
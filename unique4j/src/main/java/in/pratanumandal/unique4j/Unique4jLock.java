@@ -1,6 +1,8 @@
 package in.pratanumandal.unique4j;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface Unique4jLock {
 
@@ -34,6 +36,39 @@ public interface Unique4jLock {
      */
     boolean tryLock() throws IOException;
 
+    /**
+     * Same as {@link #tryLock()}, but runs on a new thread instead of blocking the caller,
+     * so that other startup work can go on while the lock is being acquired.
+     *
+     * The {@link OtherInstance} handler is also invoked on that thread.
+     *
+     * @return future completed with the result of {@link #tryLock()}, or with the exception it threw
+     * @see #tryLockAsync(Executor)
+     */
+    default CompletableFuture<LockResult> tryLockAsync() {
+        return tryLockAsync(runnable -> new Thread(runnable, "Unique4j-tryLock").start());
+    }
+
+    /**
+     * Same as {@link #tryLock()}, but runs on the given executor instead of blocking the caller.
+     *
+     * As the lock is held by the app instance and not by a thread, it can then be unlocked from any thread.
+     *
+     * @param executor executor to run {@link #tryLock()} on
+     * @return future completed with the result of {@link #tryLock()}, or with the exception it threw
+     */
+    default CompletableFuture<LockResult> tryLockAsync(Executor executor) {
+        final CompletableFuture<LockResult> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(LockResult.of(tryLock()));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
     /**
      * Attempts to release this lock.
      *
@@ -46,6 +81,24 @@ public interface Unique4jLock {
      */
     void unlock() throws IOException;
 
+    /**
+     * Sends a message to all the other instances which have a session open with this first instance,
+     * which receive it in {@link SessionListener#onMessage(IpcSession, byte[])}.
+     *
+     * The message is encoded once and queued for each session, to be sent in the background,
+     * so that this never blocks on a slow other instance. Sessions which fall behind by more than
+     * {@link Unique4jConfig#broadcastQueueSize()} messages are handled according to
+     * {@link Unique4jConfig#broadcastOverflowPolicy()}.
+     *
+     * @param message message to send
+     * @return number of sessions the message was queued for
+     * @throws UnsupportedOperationException if the current app instance does not hold this lock
+     * @throws IllegalArgumentException if the message is too big to be sent
+     */
+    default int broadcast(byte[] message) {
+        throw new UnsupportedOperationException("Broadcast is not supported by " + getClass().getName());
+    }
+
     /**
      * Queries if this lock is held by the current app instance.
      *
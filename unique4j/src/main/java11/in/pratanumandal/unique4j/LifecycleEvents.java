@@ -0,0 +1,162 @@
+package in.pratanumandal.unique4j;
+
+import jdk.jfr.*;
+
+import java.util.Optional;
+
+/**
+ * Creates the Java Flight Recorder events of the lock lifecycle, which can be recorded in production
+ * (ex. with {@code jcmd <pid> JFR.start}) to correlate stalls with GC and I/O.
+ *
+ * Events are only created if the {@code jdk.jfr} module is in the runtime image,
+ * otherwise this behaves as the Java 8 version and records nothing.
+ * They are also only created once Flight Recorder was started, as just loading the first event class
+ * initializes its instrumentation, which takes hundreds of milliseconds on the startup path of the app.
+ */
+final class LifecycleEvents {
+
+    private static final boolean AVAILABLE = makeAvailable();
+
+    private LifecycleEvents() {
+    }
+
+    private static boolean makeAvailable() {
+        final Optional<Module> jfrModule = ModuleLayer.boot().findModule("jdk.jfr");
+        if (jfrModule.isEmpty())
+            return false;
+
+        // the module descriptor targets Java 9, which has no jdk.jfr to require, so read it now
+        LifecycleEvents.class.getModule().addReads(jfrModule.get());
+        return true;
+    }
+
+    /** Whether Flight Recorder was started, either at startup or later on (ex. with {@code jcmd}) */
+    private static boolean isRecording() {
+        return AVAILABLE && FlightRecorder.isInitialized();
+    }
+
+    static LifecycleEvent fileLock(String appId) {
+        return isRecording() ? Events.fileLock(appId) : LifecycleEvent.NOOP;
+    }
+
+    static LifecycleEvent serverBind(String appId) {
+        return isRecording() ? Events.serverBind(appId) : LifecycleEvent.NOOP;
+    }
+
+    static void connectionAccepted(String appId) {
+        if (isRecording())
+            Events.connectionAccepted(appId).end(true);
+    }
+
+    static LifecycleEvent handshake(String appId, boolean firstInstance) {
+        return isRecording() ? Events.handshake(appId, firstInstance) : LifecycleEvent.NOOP;
+    }
+
+    static LifecycleEvent handler(String appId) {
+        return isRecording() ? Events.handler(appId) : LifecycleEvent.NOOP;
+    }
+
+    static LifecycleEvent unlock(String appId) {
+        return isRecording() ? Events.unlock(appId) : LifecycleEvent.NOOP;
+    }
+
+    /**
+     * Creates the actual events.
+     *
+     * Only loaded once jdk.jfr is known to be readable, so all the references to the event classes must be in here:
+     * even just verifying a method which uses them would load them.
+     */
+    private static final class Events {
+
+        static LifecycleEvent fileLock(String appId) {
+            return begin(new FileLockEvent(), appId);
+        }
+
+        static LifecycleEvent serverBind(String appId) {
+            return begin(new ServerBindEvent(), appId);
+        }
+
+        static LifecycleEvent connectionAccepted(String appId) {
+            return begin(new ConnectionAcceptedEvent(), appId);
+        }
+
+        static LifecycleEvent handshake(String appId, boolean firstInstance) {
+            final HandshakeEvent event = new HandshakeEvent();
+            event.firstInstance = firstInstance;
+            return begin(event, appId);
+        }
+
+        static LifecycleEvent handler(String appId) {
+            return begin(new HandlerEvent(), appId);
+        }
+
+        static LifecycleEvent unlock(String appId) {
+            return begin(new UnlockEvent(), appId);
+        }
+
+        private static LifecycleEvent begin(BaseEvent event, String appId) {
+            if (!event.isEnabled())
+                return LifecycleEvent.NOOP;
+
+            event.appId = appId;
+            event.begin();
+            return event;
+        }
+    }
+
+    @Category("Unique4j")
+    private abstract static class BaseEvent extends Event implements LifecycleEvent {
+
+        @Label("App ID")
+        String appId;
+
+        @Label("Success")
+        boolean success;
+
+        @Override
+        public void end(boolean success) {
+            this.success = success;
+            commit();
+        }
+    }
+
+    @Name("in.pratanumandal.unique4j.FileLock")
+    @Label("Lock File Attempt")
+    @Description("Attempt to lock the lock file, successful if this became the first instance")
+    private static final class FileLockEvent extends BaseEvent {
+    }
+
+    @Name("in.pratanumandal.unique4j.ServerBind")
+    @Label("Server Bind")
+    @Description("Creation of the server the first instance listens on for other instances")
+    private static final class ServerBindEvent extends BaseEvent {
+    }
+
+    @Name("in.pratanumandal.unique4j.ConnectionAccepted")
+    @Label("Connection Accepted")
+    @Description("Connection from an other instance accepted by the first instance")
+    private static final class ConnectionAcceptedEvent extends BaseEvent {
+    }
+
+    @Name("in.pratanumandal.unique4j.Handshake")
+    @Label("Handshake")
+    @Description("Handshake between the first instance and an other instance")
+    private static final class HandshakeEvent extends BaseEvent {
+
+        @Label("First Instance")
+        @Description("Whether it was recorded by the first instance, or by the other instance")
+        boolean firstInstance;
+    }
+
+    @Name("in.pratanumandal.unique4j.Handler")
+    @Label("Handler")
+    @Description("Execution of the FirstInstance handler for a message of an other instance")
+    private static final class HandlerEvent extends BaseEvent {
+    }
+
+    @Name("in.pratanumandal.unique4j.Unlock")
+    @Label("Unlock")
+    @Description("Release of the lock by the first instance")
+    private static final class UnlockEvent extends BaseEvent {
+    }
+}
@@ -0,0 +1,60 @@
+package in.pratanumandal.unique4j;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Identifies processes, so that other instances can tell whether the first instance is still running.
+ *
+ * Java 11 version of the multi-release jar, looking them up through {@link ProcessHandle}.
+ */
+final class Processes {
+
+    private static final ProcessHandle CURRENT = ProcessHandle.current();
+    private static final long CURRENT_START_MILLIS = startMillis(CURRENT);
+
+    private Processes() {
+    }
+
+    private static long startMillis(ProcessHandle process) {
+        // not available on every platform, nor for processes of other users
+        final Optional<Instant> start = process.info().startInstant();
+        return start.isPresent() ? start.get().toEpochMilli() : 0;
+    }
+
+    /** Gets the pid of this process, or 0 if unknown */
+    static long currentPid() {
+        return CURRENT.pid();
+    }
+
+    /**
+     * Gets the start time of this process in milliseconds since the epoch, or 0 if unknown.
+     * It tells apart a different process which was given the same pid.
+     */
+    static long currentStartMillis() {
+        return CURRENT_START_MILLIS;
+    }
+
+    /**
+     * Checks whether the process might still be running
+     *
+     * @param pid pid of the process, 0 if unknown
+     * @param startMillis start time of the process as returned by {@link #currentStartMillis()}, 0 if unknown
+     * @return false only if the process is known to be gone
+     */
+    static boolean isAlive(long pid, long startMillis) {
+        if (pid <= 0)
+            return true;
+
+        final Optional<ProcessHandle> process = ProcessHandle.of(pid);
+        if (!process.isPresent() || !process.get().isAlive())
+            return false;
+
+        // the pid was reused by some other process
+        if (startMillis != 0) {
+            final long actualStartMillis = startMillis(process.get());
+            return actualStartMillis == 0 || actualStartMillis == startMillis;
+        }
+        return true;
+    }
+}
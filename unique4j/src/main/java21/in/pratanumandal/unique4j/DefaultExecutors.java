@@ -0,0 +1,25 @@
+package in.pratanumandal.unique4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor used by a lock when none was set in its {@link Unique4jConfig#executorService()},
+ * and the ones running sessions.
+ *
+ * Starts a virtual thread for each task, so that slow {@link FirstInstance} handlers
+ * can't starve the accept loop, as it would happen with a fixed size pool.
+ */
+final class DefaultExecutors {
+
+    private DefaultExecutors() {
+    }
+
+    static ExecutorService newDefaultExecutor(String appId) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Unique4j-" + appId + "-", 0).factory());
+    }
+
+    static ExecutorService newSessionExecutor(String appId) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Unique4j-" + appId + "-session-", 0).factory());
+    }
+}
@@ -1,4 +1,5 @@
 module io.github.furrrlo.unique4j {
     requires java.logging;
+    requires static java.management;
     exports in.pratanumandal.unique4j;
 }
\ No newline at end of file